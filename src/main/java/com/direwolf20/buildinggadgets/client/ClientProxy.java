@@ -3,6 +3,7 @@ package com.direwolf20.buildinggadgets.client;
 import com.direwolf20.buildinggadgets.client.cache.CacheTemplateProvider;
 import com.direwolf20.buildinggadgets.client.events.EventTooltip;
 import com.direwolf20.buildinggadgets.client.renderer.EffectBlockTER;
+import com.direwolf20.buildinggadgets.client.screen.JobProgressOverlay;
 import com.direwolf20.buildinggadgets.client.screen.TemplateManagerGUI;
 import com.direwolf20.buildinggadgets.common.blocks.ConstructionBlock;
 import com.direwolf20.buildinggadgets.common.blocks.OurBlocks;
@@ -115,6 +116,7 @@ public class ClientProxy {
 
     private static void onPlayerLoggedOut(PlayerLoggedOutEvent event) {
         CACHE_TEMPLATE_PROVIDER.clear();
+        JobProgressOverlay.setJobs(Collections.emptyList());
     }
 
     @SubscribeEvent
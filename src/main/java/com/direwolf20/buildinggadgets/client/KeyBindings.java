@@ -37,6 +37,7 @@ public class KeyBindings {
     public static KeyMapping connectedArea = createBinding("connected_area", GLFW.GLFW_KEY_UNKNOWN);
     public static KeyMapping rotateMirror = createBinding("rotate_mirror", GLFW.GLFW_KEY_UNKNOWN);
     public static KeyMapping materialList = createBinding("material_list", GLFW.GLFW_KEY_M);
+    public static KeyMapping cancelJob = createBinding("cancel_job", GLFW.GLFW_KEY_UNKNOWN);
 
     public static void init() {}
 
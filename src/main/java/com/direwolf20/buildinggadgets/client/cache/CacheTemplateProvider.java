@@ -8,12 +8,15 @@ import com.direwolf20.buildinggadgets.common.tainted.Tainted;
 import com.direwolf20.buildinggadgets.common.tainted.template.ITemplateKey;
 import com.direwolf20.buildinggadgets.common.tainted.template.ITemplateProvider;
 import com.direwolf20.buildinggadgets.common.tainted.template.Template;
+import com.direwolf20.buildinggadgets.common.tainted.template.TemplateHeader;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import net.minecraft.client.Minecraft;
 import net.minecraftforge.network.PacketDistributor;
 import org.apache.logging.log4j.util.TriConsumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
@@ -22,10 +25,16 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+/**
+ * Caches the templates received from the server. Together with every template the server's body version of it is kept,
+ * so that announced headers can be checked against it. Templates which aren't in memory anymore are looked up in the
+ * {@link TemplateDiskCache} by their announced body version, only if they aren't there either the body is requested.
+ */
 @Tainted(reason = "Uses template system")
 public final class CacheTemplateProvider implements ITemplateProvider {
-    private final Cache<UUID, Template> cache;
+    private final Cache<UUID, CachedTemplate> cache;
     private final Set<IUpdateListener> updateListeners;
+    private final TemplateDiskCache diskCache;
 
     public CacheTemplateProvider() {
         this.cache = CacheBuilder
@@ -33,6 +42,7 @@ public final class CacheTemplateProvider implements ITemplateProvider {
                 .expireAfterAccess(1, TimeUnit.MINUTES)
                 .build();
         this.updateListeners = Collections.newSetFromMap(new WeakHashMap<>());
+        this.diskCache = new TemplateDiskCache();
     }
 
     @Override
@@ -42,21 +52,64 @@ public final class CacheTemplateProvider implements ITemplateProvider {
         try {
             return cache.get(id, () -> {
                 requestUpdate(id, PacketDistributor.SERVER.noArg());
-                return new Template();
-            });
+                return new CachedTemplate(new Template(), null);
+            }).template();
         } catch (ExecutionException e) {
             BuildingGadgets.LOG.error("Failed to access Cache! Returning new Template, this is certainly going to cause unexpected behaviour!", e);
             return new Template();
         }
     }
 
+    /**
+     * Sets the template, keeping the body version of the previous one if the stored blocks are shared with it.
+     */
     @Override
     public void setTemplate(ITemplateKey key, Template template) {
+        CachedTemplate previous = cache.getIfPresent(getId(key));
+        setTemplate(key, template, previous != null && template.sharesStoredBlocks(previous.template()) ? previous.bodyVersion() : null);
+    }
+
+    /**
+     * Sets a template received from the server and stores it on disk.
+     *
+     * @param bodyVersion the server's body version of the template
+     */
+    public void receiveTemplate(ITemplateKey key, Template template, @Nullable Long bodyVersion) {
+        setTemplate(key, template, bodyVersion);
+        if (bodyVersion != null)
+            diskCache.store(bodyVersion, template);
+    }
+
+    private void setTemplate(ITemplateKey key, Template template, @Nullable Long bodyVersion) {
         UUID id = getId(key);
-        cache.put(id, template);
+        cache.put(id, new CachedTemplate(template, bodyVersion));
         notifyListeners(key, template, l -> l::onTemplateUpdate);
     }
 
+    /**
+     * Replaces the header of the cached template, if it holds the given body version. Otherwise the body is loaded from
+     * disk or, if it isn't stored there either, requested. Announcements for templates which aren't cached are ignored,
+     * they will be requested once they are needed.
+     */
+    public void updateHeader(ITemplateKey key, long bodyVersion, TemplateHeader header) {
+        UUID id = getId(key);
+        CachedTemplate cached = cache.getIfPresent(id);
+        if (cached == null)
+            return;
+        if (cached.holds(bodyVersion)) {
+            setTemplate(key, cached.template().withHeader(header), bodyVersion);
+            return;
+        }
+        diskCache.load(bodyVersion).thenAcceptAsync(stored -> {
+            if (cache.getIfPresent(id) != cached) //updated in the meantime
+                return;
+            if (stored.isPresent())
+                setTemplate(key, stored.get().withHeader(header), bodyVersion);
+            else
+                PacketHandler.send(new PacketRequestTemplate(id, true), PacketDistributor.SERVER.noArg());
+        }, Minecraft.getInstance());
+    }
+
     @Override
     public boolean requestUpdate(ITemplateKey key) {
         return requestUpdate(key, PacketDistributor.SERVER.noArg());
@@ -75,7 +128,8 @@ public final class CacheTemplateProvider implements ITemplateProvider {
     @Override
     public boolean requestRemoteUpdate(ITemplateKey key, PacketDistributor.PacketTarget target) {
         UUID id = getId(key);
-        Template template = cache.getIfPresent(id);
+        CachedTemplate cached = cache.getIfPresent(id);
+        Template template = cached != null ? cached.template() : null;
         if (template != null) {
             notifyListeners(key, template, l -> l::onTemplateUpdateSend);
             PacketHandler.getSplitManager().send(new SplitPacketUpdateTemplate(id, template), target);
@@ -112,6 +166,12 @@ public final class CacheTemplateProvider implements ITemplateProvider {
         this.cache.cleanUp();
     }
 
+    private record CachedTemplate(Template template, @Nullable Long bodyVersion) {
+        private boolean holds(long bodyVersion) {
+            return this.bodyVersion != null && this.bodyVersion == bodyVersion;
+        }
+    }
+
     private void notifyListeners(ITemplateKey key, Template template, Function<IUpdateListener, TriConsumer<ITemplateProvider, ITemplateKey, Template>> function) {
         for (IUpdateListener listener : updateListeners) {
             try {
@@ -0,0 +1,143 @@
+package com.direwolf20.buildinggadgets.client.cache;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.direwolf20.buildinggadgets.common.tainted.Tainted;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers;
+import com.direwolf20.buildinggadgets.common.tainted.template.Template;
+import com.direwolf20.buildinggadgets.common.tainted.template.TemplateIO;
+import com.direwolf20.buildinggadgets.common.util.ref.Reference;
+import com.direwolf20.buildinggadgets.common.util.tools.NbtCodec;
+import net.minecraftforge.fml.loading.FMLPaths;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the templates received from servers in the game directory, one file per body version, so that a template which was
+ * needed before only has its header announced by the server. The files are bounded by {@link Config.CategoryGeneral#templateDiskCacheSize},
+ * deleting the least recently used ones first. All file access happens on the {@link BackgroundWorkers}.
+ */
+@Tainted(reason = "Uses template system")
+final class TemplateDiskCache {
+    private static final String EXTENSION = ".dat";
+    private static final String TEMP_EXTENSION = ".tmp";
+
+    private final Path folder;
+
+    TemplateDiskCache() {
+        this(FMLPaths.GAMEDIR.get().resolve(Reference.MODID).resolve("template_cache"));
+    }
+
+    TemplateDiskCache(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * @return the template stored for the given body version - with whatever header it had when it was stored - or nothing
+     * if there is none or it couldn't be read
+     */
+    CompletableFuture<Optional<Template>> load(long bodyVersion) {
+        if (maxBytes() <= 0)
+            return CompletableFuture.completedFuture(Optional.empty());
+        Path file = fileOf(bodyVersion);
+        return CompletableFuture.supplyAsync(() -> {
+            if (! Files.isRegularFile(file))
+                return Optional.empty();
+            try (InputStream stream = Files.newInputStream(file)) {
+                Template template = TemplateIO.readTemplate(stream, null);
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+                return Optional.of(template);
+            } catch (Exception e) {
+                BuildingGadgets.LOG.warn("Failed to read cached Template {}, deleting it.", file, e);
+                delete(file);
+                return Optional.empty();
+            }
+        }, BackgroundWorkers.executor());
+    }
+
+    /**
+     * Stores the given template for the given body version, unless it is already stored.
+     */
+    void store(long bodyVersion, Template template) {
+        if (maxBytes() <= 0)
+            return;
+        Path file = fileOf(bodyVersion);
+        BackgroundWorkers.executor().execute(() -> {
+            synchronized (this) {
+                if (Files.isRegularFile(file))
+                    return;
+                Path temp = file.resolveSibling(file.getFileName() + TEMP_EXTENSION);
+                try {
+                    Files.createDirectories(folder);
+                    try (OutputStream stream = Files.newOutputStream(temp)) {
+                        TemplateIO.writeTemplate(template, stream, true, NbtCodec.LZ4);
+                    }
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (Exception e) {
+                    BuildingGadgets.LOG.warn("Failed to cache Template {}.", file, e);
+                    delete(temp);
+                    return;
+                }
+                trim();
+            }
+        });
+    }
+
+    /**
+     * Deletes the least recently used files until the cache is within its size again.
+     */
+    private void trim() {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(folder)) {
+            stream.filter(path -> path.getFileName().toString().endsWith(EXTENSION)).forEach(files::add);
+        } catch (IOException e) {
+            BuildingGadgets.LOG.warn("Failed to list the Template cache {}.", folder, e);
+            return;
+        }
+        long bytes = 0;
+        List<CachedFile> cached = new ArrayList<>(files.size());
+        for (Path path : files) {
+            try {
+                CachedFile file = new CachedFile(path, Files.size(path), Files.getLastModifiedTime(path).toMillis());
+                cached.add(file);
+                bytes += file.size();
+            } catch (IOException ignored) { //deleted concurrently, doesn't count anymore
+            }
+        }
+        long maxBytes = maxBytes();
+        cached.sort(Comparator.comparingLong(CachedFile::lastUsed));
+        for (int i = 0; i < cached.size() && bytes > maxBytes; i++) {
+            delete(cached.get(i).path());
+            bytes -= cached.get(i).size();
+        }
+    }
+
+    private Path fileOf(long bodyVersion) {
+        return folder.resolve(HexFormat.of().toHexDigits(bodyVersion) + EXTENSION);
+    }
+
+    private static long maxBytes() {
+        return Config.GENERAL.templateDiskCacheSize.get() * 1024L * 1024L;
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            BuildingGadgets.LOG.warn("Failed to delete cached Template {}.", file, e);
+        }
+    }
+
+    private record CachedFile(Path path, long size, long lastUsed) {}
+}
@@ -51,6 +51,8 @@ public class EventKeyInput {
             PacketHandler.sendToServer(new PacketToggleFuzzy());
         } else if (KeyBindings.connectedArea.consumeClick()) {
             PacketHandler.sendToServer(new PacketToggleConnectedArea());
+        } else if (KeyBindings.cancelJob.consumeClick()) {
+            PacketHandler.sendToServer(new PacketCancelJob());
         }
     }
 }
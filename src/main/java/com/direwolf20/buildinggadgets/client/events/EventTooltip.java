@@ -13,12 +13,14 @@ import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.objects
 import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.objects.UniqueItem;
 import com.direwolf20.buildinggadgets.common.tainted.template.Template;
 import com.direwolf20.buildinggadgets.common.tainted.template.TemplateHeader;
+import com.direwolf20.buildinggadgets.common.util.lang.TooltipTranslation;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Multiset;
 import com.google.common.collect.Multiset.Entry;
 import com.mojang.blaze3d.systems.RenderSystem;
 import com.mojang.blaze3d.vertex.PoseStack;
+import net.minecraft.ChatFormatting;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.Font;
 import net.minecraft.client.gui.screens.Screen;
@@ -27,6 +29,7 @@ import net.minecraft.client.renderer.MultiBufferSource;
 import net.minecraft.client.renderer.entity.ItemRenderer;
 import net.minecraft.world.inventory.tooltip.TooltipComponent;
 import net.minecraft.world.item.ItemStack;
+import org.joml.Matrix4f;
 import org.lwjgl.opengl.GL11;
 
 import java.util.Comparator;
@@ -54,14 +57,25 @@ public class EventTooltip {
 
         @Override
         public int getHeight() {
+            if (Screen.hasShiftDown() && tooltipData.pending)
+                return 10;
             return Screen.hasShiftDown() && tooltipData.data != null ? 20 + (tooltipData.data.sortedEntries.size() / STACKS_PER_LINE * 20) : 0;
         }
 
         @Override
         public int getWidth(Font font) {
+            if (Screen.hasShiftDown() && tooltipData.pending)
+                return font.width(TooltipTranslation.TEMPLATE_MATERIALS_PENDING.componentTranslation());
             return Screen.hasShiftDown() && tooltipData.data != null ? (tooltipData.data.sortedEntries.size() <= STACKS_PER_LINE ? tooltipData.data.sortedEntries.size() * 18 : STACKS_PER_LINE * 18) : 0;
         }
 
+        @Override
+        public void renderText(Font font, int x, int y, Matrix4f matrix, MultiBufferSource.BufferSource bufferSource) {
+            if (Screen.hasShiftDown() && tooltipData.pending)
+                font.drawInBatch(TooltipTranslation.TEMPLATE_MATERIALS_PENDING.componentTranslation().withStyle(ChatFormatting.GRAY),
+                        x, y, -1, true, matrix, bufferSource, false, 0, 0xF000F0);
+        }
+
         @Override
         public void renderImage(Font font, int x, int y, PoseStack poseStack, ItemRenderer itemRenderer, int p_194053_) {
             if (this.tooltipData.stack == null || !(this.tooltipData.stack.getItem() instanceof GadgetCopyPaste))
@@ -112,6 +126,8 @@ public class EventTooltip {
         public static class Data implements TooltipComponent {
             public ItemStack stack;
             public TemplateData data;
+            // the required items of the template are still being counted
+            public boolean pending;
 
             public Data(ItemStack stack) {
                 this.stack = stack;
@@ -126,10 +142,12 @@ public class EventTooltip {
                             .player(mc.player)
                             .build(mc.level);
 
-                    TemplateHeader header = template.getHeaderAndForceMaterials(buildContext);
+                    TemplateHeader header = template.getHeaderAndRequestMaterials(buildContext);
                     MaterialList list = header.getRequiredItems();
-                    if (list == null)
-                        list = MaterialList.empty();
+                    if (list == null) {
+                        this.pending = true;
+                        return;
+                    }
 
                     MatchResult match = index.tryMatch(list);
                     Multiset<IUniqueObject<?>> existing = match.getFoundItems();
@@ -0,0 +1,62 @@
+package com.direwolf20.buildinggadgets.client.screen;
+
+import com.direwolf20.buildinggadgets.common.network.packets.PacketJobProgress;
+import com.direwolf20.buildinggadgets.common.util.lang.GuiTranslation;
+import com.direwolf20.buildinggadgets.common.util.ref.Reference;
+import com.google.common.collect.ImmutableList;
+import com.mojang.blaze3d.vertex.PoseStack;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.gui.Font;
+import net.minecraft.client.gui.GuiComponent;
+import net.minecraftforge.api.distmarker.Dist;
+import net.minecraftforge.client.event.RegisterGuiOverlaysEvent;
+import net.minecraftforge.client.gui.overlay.ForgeGui;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod;
+
+import java.util.List;
+
+/**
+ * Renders a progress bar for each running job of the player, as reported by {@link PacketJobProgress}.
+ */
+@Mod.EventBusSubscriber(modid = Reference.MODID, value = Dist.CLIENT, bus = Mod.EventBusSubscriber.Bus.MOD)
+public final class JobProgressOverlay {
+    private static final int BAR_WIDTH = 120;
+    private static final int BAR_HEIGHT = 3;
+    private static final int MARGIN = 4;
+    private static List<PacketJobProgress.Entry> jobs = ImmutableList.of();
+
+    public static void setJobs(List<PacketJobProgress.Entry> jobs) {
+        JobProgressOverlay.jobs = jobs;
+    }
+
+    @SubscribeEvent
+    static void register(RegisterGuiOverlaysEvent event) {
+        event.registerAboveAll("job_progress", JobProgressOverlay::render);
+    }
+
+    private static void render(ForgeGui gui, PoseStack matrices, float partialTick, int width, int height) {
+        if (jobs.isEmpty() || Minecraft.getInstance().options.hideGui)
+            return;
+        Font font = gui.getFont();
+        int x = width - BAR_WIDTH - MARGIN;
+        int y = MARGIN;
+        for (PacketJobProgress.Entry job : jobs) {
+            font.drawShadow(matrices, GuiTranslation.JOB_PROGRESS.componentTranslation(
+                    job.getName(), (int) (job.getFraction() * 100), formatEta(job)), x, y, 0xFFFFFF);
+            y += font.lineHeight + 1;
+            GuiComponent.fill(matrices, x, y, x + BAR_WIDTH, y + BAR_HEIGHT, 0xFF303030);
+            GuiComponent.fill(matrices, x, y, x + (int) (BAR_WIDTH * job.getFraction()), y + BAR_HEIGHT, job.isPaused() ? 0xFF808080 : 0xFF3FB33F);
+            y += BAR_HEIGHT + MARGIN;
+        }
+    }
+
+    private static String formatEta(PacketJobProgress.Entry job) {
+        if (job.isPaused() || job.getEtaMillis() < 0)
+            return "--:--";
+        long seconds = job.getEtaMillis() / 1000;
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+
+    private JobProgressOverlay() {}
+}
@@ -14,6 +14,7 @@ import com.direwolf20.buildinggadgets.common.network.packets.PacketTemplateManag
 import com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget;
 import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
 import com.direwolf20.buildinggadgets.common.tainted.building.view.IBuildView;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.InventoryHelper;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.MatchResult;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.MaterialList;
@@ -42,7 +43,6 @@ import com.mojang.blaze3d.vertex.BufferBuilder;
 import com.mojang.blaze3d.vertex.DefaultVertexFormat;
 import com.mojang.blaze3d.vertex.PoseStack;
 import com.mojang.blaze3d.vertex.VertexFormat;
-import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.gui.components.Button;
 import net.minecraft.client.gui.components.EditBox;
@@ -52,9 +52,8 @@ import net.minecraft.client.renderer.block.BlockRenderDispatcher;
 import net.minecraft.client.renderer.blockentity.BlockEntityRenderer;
 import net.minecraft.client.resources.model.BakedModel;
 import net.minecraft.core.BlockPos;
-import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.TagParser;
 import net.minecraft.network.chat.Component;
+import net.minecraft.network.chat.MutableComponent;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.world.entity.player.Inventory;
 import net.minecraft.world.entity.player.Player;
@@ -67,11 +66,25 @@ import net.minecraft.world.level.block.RenderShape;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraftforge.common.util.LazyOptional;
+import net.minecraftforge.fml.loading.FMLPaths;
 
+import javax.annotation.Nullable;
 import java.awt.*;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 public class TemplateManagerGUI extends AbstractContainerScreen<TemplateManagerContainer> {
     private static final ResourceLocation background = new ResourceLocation(Reference.MODID, "textures/gui/template_manager.png");
@@ -86,6 +99,8 @@ public class TemplateManagerGUI extends AbstractContainerScreen<TemplateManagerC
 
     private EditBox nameField;
     private Button buttonSave, buttonLoad, buttonCopy, buttonPaste;
+    // characters written or read by the running clipboard/file transfer, -1 if there is none
+    private volatile long transferProgress = - 1;
 
     private final TemplateManagerTileEntity te;
     private final TemplateManagerContainer container;
@@ -123,6 +138,9 @@ public class TemplateManagerGUI extends AbstractContainerScreen<TemplateManagerC
         this.renderTooltip(matrices, mouseX, mouseY);
 
         drawString(matrices, font, "Preview disabled for now...", leftPos - 10, topPos + 40, 0xFFFFFF);
+        long progress = transferProgress;
+        if (progress >= 0)
+            drawString(matrices, font, GuiTranslation.TEMPLATE_TRANSFER_PROGRESS.format(progress / 1024), (leftPos - 20) + 180, topPos + 112, 0xFFFFFF);
         if (this.template != null) {
             renderRequirement(matrices, mouseX, mouseY);
         }
@@ -247,9 +265,12 @@ public class TemplateManagerGUI extends AbstractContainerScreen<TemplateManagerC
     }
 
     private void renderRequirement(PoseStack matrices, int mouseX, int mouseY) {
-        MaterialList requirements = this.template.getHeaderAndForceMaterials(BuildContext.builder().build(getWorld())).getRequiredItems();
-        if (requirements == null)
+        MaterialList requirements = this.template.getHeaderAndRequestMaterials(BuildContext.builder().build(getWorld())).getRequiredItems();
+        if (requirements == null) {
+            String pending = GuiTranslation.TEMPLATE_MATERIALS_PENDING.format();
+            drawString(matrices, getMinecraft().font, pending, leftPos - 25 - font.width(pending), topPos - 5, Color.WHITE.getRGB());
             return;
+        }
 
         Lighting.setupForFlatItems();
 
@@ -585,7 +606,13 @@ public class TemplateManagerGUI extends AbstractContainerScreen<TemplateManagerC
         });
     }
 
+    /**
+     * Exports the template to the clipboard, or to a file in {@link #exportFolder()} if shift is held. The blocks are counted
+     * and the json is written on the {@link BackgroundWorkers}, only the required items are computed on this thread once the
+     * count completed.
+     */
     private void onCopy() {
+        boolean toFile = hasShiftDown();
         runAfterUpdate(0, () -> { //we are copying from slot 1 => slot 1 needs to be updated
             ItemStack stack = container.getSlot(0).getItem();
             stack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).ifPresent(key -> {
@@ -597,57 +624,122 @@ public class TemplateManagerGUI extends AbstractContainerScreen<TemplateManagerC
                             .player(player)
                             .stack(stack)
                             .build(getWorld());
-                    try {
-                        Template template = provider.getTemplateForKey(key);
-                        if (!nameField.getValue().isEmpty())
-                            template = template.withName(nameField.getValue());
-                        String json = TemplateIO.writeTemplateJson(template, buildContext);
-                        getMinecraft().keyboardHandler.setClipboard(json);
-                        player.displayClientMessage(MessageTranslation.CLIPBOARD_COPY_SUCCESS.componentTranslation().setStyle(Styles.DK_GREEN), false);
-                    } catch (DataCannotBeWrittenException e) {
-                        BuildingGadgets.LOG.error("Failed to write Template.", e);
-                        player.displayClientMessage(MessageTranslation.CLIPBOARD_COPY_ERROR_TEMPLATE.componentTranslation().setStyle(Styles.RED), false);
-                    } catch (Exception e) {
-                        BuildingGadgets.LOG.error("Failed to copy Template to clipboard.", e);
-                        player.displayClientMessage(MessageTranslation.CLIPBOARD_COPY_ERROR.componentTranslation().setStyle(Styles.RED), false);
-                    }
+                    Template template = provider.getTemplateForKey(key);
+                    if (!nameField.getValue().isEmpty())
+                        template = template.withName(nameField.getValue());
+                    Template toWrite = template;
+                    Path file = toFile ? exportFile(template.getHeader().getName()) : null;
+                    runTransfer(template.computeHeaderWithMaterials(buildContext, getMinecraft()), () -> {
+                        if (file == null) {
+                            StringWriter writer = new StringWriter();
+                            TemplateIO.writeTemplateJson(toWrite, writer, null, this::setTransferProgress);
+                            return writer.toString();
+                        }
+                        Files.createDirectories(file.getParent());
+                        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                            TemplateIO.writeTemplateJson(toWrite, writer, null, this::setTransferProgress);
+                        }
+                        return null;
+                    }, json -> {
+                        if (json != null) {
+                            getMinecraft().keyboardHandler.setClipboard(json);
+                            player.displayClientMessage(MessageTranslation.CLIPBOARD_COPY_SUCCESS.componentTranslation().setStyle(Styles.DK_GREEN), false);
+                        } else
+                            player.displayClientMessage(MessageTranslation.FILE_EXPORT_SUCCESS.componentTranslation(file.getFileName().toString()).setStyle(Styles.DK_GREEN), false);
+                    }, e -> {
+                        if (e instanceof DataCannotBeWrittenException) {
+                            BuildingGadgets.LOG.error("Failed to write Template.", e);
+                            player.displayClientMessage(MessageTranslation.CLIPBOARD_COPY_ERROR_TEMPLATE.componentTranslation().setStyle(Styles.RED), false);
+                        } else if (file != null) {
+                            BuildingGadgets.LOG.error("Failed to export Template to {}.", file, e);
+                            player.displayClientMessage(MessageTranslation.FILE_EXPORT_ERROR.componentTranslation().setStyle(Styles.RED), false);
+                        } else {
+                            BuildingGadgets.LOG.error("Failed to copy Template to clipboard.", e);
+                            player.displayClientMessage(MessageTranslation.CLIPBOARD_COPY_ERROR.componentTranslation().setStyle(Styles.RED), false);
+                        }
+                    });
                 });
             });
         });
     }
 
+    /**
+     * Imports a template from the clipboard, or from a file in {@link #exportFolder()} if shift is held - the one named like
+     * the name field or else the most recent one. The json is parsed on the {@link BackgroundWorkers}.
+     */
     private void onPaste() {
         assert getMinecraft().player != null;
 
+        if (hasShiftDown()) {
+            Path file = importFile();
+            if (file == null) {
+                getMinecraft().player.displayClientMessage(MessageTranslation.FILE_IMPORT_MISSING
+                        .componentTranslation(exportFolder().toString()).setStyle(Styles.RED), false);
+                return;
+            }
+            runTransfer(() -> {
+                try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                    return TemplateIO.readTemplateFromJson(reader, this::setTransferProgress);
+                }
+            }, template -> onTemplatePasted(template, MessageTranslation.FILE_IMPORT_SUCCESS.componentTranslation(file.getFileName().toString())), this::onPasteFailed);
+            return;
+        }
+
         String CBString = getMinecraft().keyboardHandler.getClipboard();
         if (GadgetUtils.mightBeLink(CBString)) {
             getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_FAILED_LINK_COPIED.componentTranslation().setStyle(Styles.RED), false);
             return;
         }
 
-        // Attempt to parse into nbt first to check for old 1.12 pastes
-        try {
-            CompoundTag tagFromJson = TagParser.parseTag(CBString);
-            if (!tagFromJson.contains("header")) {
-                BuildingGadgets.LOG.error("Attempted to use a 1.12 compound on a newer MC version");
-                getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_FAILED_WRONG_MC_VERSION
-                        .componentTranslation("(1.12.x)", Minecraft.getInstance().getGame().getVersion().getName()).setStyle(Styles.RED), false);
-                return;
+        if (isLegacyCompound(CBString)) {
+            BuildingGadgets.LOG.error("Attempted to use a 1.12 compound on a newer MC version");
+            getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_FAILED_WRONG_MC_VERSION
+                    .componentTranslation("(1.12.x)", Minecraft.getInstance().getGame().getVersion().getName()).setStyle(Styles.RED), false);
+            return;
+        }
 
-            }
-        } catch (CommandSyntaxException ignored) {
+        runTransfer(() -> TemplateIO.readTemplateFromJson(new StringReader(CBString), this::setTransferProgress),
+                template -> onTemplatePasted(template, MessageTranslation.PASTE_SUCCESS.componentTranslation()), this::onPasteFailed);
+    }
+
+    /**
+     * Old 1.12 pastes are nbt compounds, whose keys aren't quoted, while a json export always starts with a quoted key. Only
+     * the first key is looked at, as the clipboard may hold megabytes which must not be parsed on the client thread.
+     */
+    private static boolean isLegacyCompound(String s) {
+        int i = skipWhitespace(s, 0);
+        if (i >= s.length() || s.charAt(i) != '{')
+            return false;
+        i = skipWhitespace(s, i + 1);
+        return i < s.length() && s.charAt(i) != '"' && s.charAt(i) != '}';
+    }
+
+    private static int skipWhitespace(String s, int from) {
+        while (from < s.length() && Character.isWhitespace(s.charAt(from)))
+            from++;
+        return from;
+    }
+
+    private void onTemplatePasted(Template template, MutableComponent message) {
+        assert getMinecraft().player != null;
+        // the slots belong to this screen's container, which is gone once the screen was closed
+        if (! isOpen()) {
+            getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_FAILED_SCREEN_CLOSED.componentTranslation().setStyle(Styles.RED), false);
+            return;
         }
+        Template readTemplate = template.clearMaterials();
+        if (!nameField.getValue().isEmpty())
+            readTemplate = readTemplate.withName(nameField.getValue());
+        boolean replaced = replaceStack();
+        ItemStack stack = container.getSlot(1).getItem();
+        pasteTemplateToStack(getWorld(), stack, readTemplate, replaced);
+        getMinecraft().player.displayClientMessage(message.setStyle(Styles.DK_GREEN), false);
+    }
 
-        // todo: this needs to be put onto some kind of readTemplateFromJson(input stream).onError(e -> error)
+    private void onPasteFailed(Throwable cause) {
+        assert getMinecraft().player != null;
         try {
-            Template template = TemplateIO.readTemplateFromJson(CBString);
-            Template readTemplate = template.clearMaterials();
-            if (!nameField.getValue().isEmpty())
-                readTemplate = readTemplate.withName(nameField.getValue());
-            boolean replaced = replaceStack();
-            ItemStack stack = container.getSlot(1).getItem();
-            pasteTemplateToStack(getWorld(), stack, readTemplate, replaced);
-            getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_SUCCESS.componentTranslation().setStyle(Styles.DK_GREEN), false);
+            throw cause;
         } catch (CorruptJsonException e) {
             BuildingGadgets.LOG.error("Failed to parse json syntax.", e);
             getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_FAILED_CORRUPT_JSON
@@ -670,10 +762,90 @@ public class TemplateManagerGUI extends AbstractContainerScreen<TemplateManagerC
             BuildingGadgets.LOG.error("Failed to read Template body.", e);
             getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_FAILED_CORRUPT_BODY
                     .componentTranslation().setStyle(Styles.RED), false);
-        } catch (Exception e) {
+        } catch (Throwable e) {
             BuildingGadgets.LOG.error("Failed to paste Template.", e);
             getMinecraft().player.displayClientMessage(MessageTranslation.PASTE_FAILED
                     .componentTranslation().setStyle(Styles.RED), false);
         }
     }
+
+    /**
+     * Runs the given transfer on the {@link BackgroundWorkers} and hands its result or failure to the given callbacks on the
+     * client thread. Copying and pasting is disabled until it completes. The screen may have been closed by then, so the
+     * callbacks must check {@link #isOpen()} before touching the container.
+     */
+    private <T> void runTransfer(TransferTask<T> task, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        runTransfer(CompletableFuture.completedFuture(null), task, onSuccess, onFailure);
+    }
+
+    /**
+     * Like {@link #runTransfer(TransferTask, Consumer, Consumer)}, but the task only starts once the given future completed.
+     * If that fails, the task is skipped and the failure is passed on.
+     */
+    private <T> void runTransfer(CompletableFuture<?> after, TransferTask<T> task, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        setTransferProgress(0);
+        buttonCopy.active = false;
+        buttonPaste.active = false;
+        after.thenApplyAsync(v -> {
+            try {
+                return task.run();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, BackgroundWorkers.executor()).whenCompleteAsync((res, e) -> {
+            if (isOpen()) {
+                transferProgress = - 1;
+                buttonCopy.active = true;
+                buttonPaste.active = true;
+            }
+            if (e != null)
+                onFailure.accept(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            else
+                onSuccess.accept(res);
+        }, getMinecraft());
+    }
+
+    private boolean isOpen() {
+        return getMinecraft().screen == this;
+    }
+
+    private void setTransferProgress(long characters) {
+        transferProgress = characters;
+    }
+
+    private static Path exportFolder() {
+        return FMLPaths.GAMEDIR.get().resolve(Reference.MODID).resolve("templates");
+    }
+
+    private static Path exportFile(@Nullable String name) {
+        String base = name == null || name.isBlank() ? "template" : toFileName(name);
+        Path file = exportFolder().resolve(base + ".json");
+        for (int i = 1; Files.exists(file); i++)
+            file = exportFolder().resolve(base + "_" + i + ".json");
+        return file;
+    }
+
+    private static String toFileName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_\\- ]", "_");
+    }
+
+    @Nullable
+    private Path importFile() {
+        if (!nameField.getValue().isEmpty()) {
+            Path file = exportFolder().resolve(toFileName(nameField.getValue()) + ".json");
+            return Files.isRegularFile(file) ? file : null;
+        }
+        try (Stream<Path> files = Files.list(exportFolder())) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".json"))
+                    .max(Comparator.comparingLong(file -> file.toFile().lastModified()))
+                    .orElse(null);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface TransferTask<T> {
+        T run() throws Exception;
+    }
 }
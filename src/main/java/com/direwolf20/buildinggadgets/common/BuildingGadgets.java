@@ -4,8 +4,10 @@ import com.direwolf20.buildinggadgets.client.ClientProxy;
 import com.direwolf20.buildinggadgets.client.OurSounds;
 import com.direwolf20.buildinggadgets.common.blocks.OurBlocks;
 import com.direwolf20.buildinggadgets.common.commands.ForceUnloadedCommand;
+import com.direwolf20.buildinggadgets.common.commands.JobsCommand;
 import com.direwolf20.buildinggadgets.common.commands.OverrideBuildSizeCommand;
 import com.direwolf20.buildinggadgets.common.commands.OverrideCopySizeCommand;
+import com.direwolf20.buildinggadgets.common.commands.TemplateStorageCommand;
 import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.config.RecipeConstructionPaste.Serializer;
 import com.direwolf20.buildinggadgets.common.containers.OurContainers;
@@ -154,6 +156,16 @@ public final class BuildingGadgets {
                         .then(OverrideBuildSizeCommand.registerList())
                         .then(OverrideCopySizeCommand.registerList())
                         .then(ForceUnloadedCommand.registerList())
+                        .then(JobsCommand.registerList())
+                        .then(JobsCommand.registerPause())
+                        .then(JobsCommand.registerResume())
+                        .then(JobsCommand.registerCancel())
+                        .then(TemplateStorageCommand.registerStatistics())
+                        .then(TemplateStorageCommand.registerExpire())
+                        .then(TemplateStorageCommand.registerCompressionBenchmark())
+                        .then(TemplateStorageCommand.registerSplitBenchmark())
+                        .then(TemplateStorageCommand.registerPlacementOrderBenchmark())
+                        .then(TemplateStorageCommand.registerDeliveryStatistics())
         );
     }
 
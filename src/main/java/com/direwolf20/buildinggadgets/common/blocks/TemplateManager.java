@@ -1,6 +1,8 @@
 package com.direwolf20.buildinggadgets.common.blocks;
 
 import com.direwolf20.buildinggadgets.common.capability.CapabilityTemplate;
+import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
+import com.direwolf20.buildinggadgets.common.tainted.save.SaveTemplateProvider;
 import com.direwolf20.buildinggadgets.common.tileentities.OurTileEntities;
 import com.direwolf20.buildinggadgets.common.tileentities.TemplateManagerTileEntity;
 import com.direwolf20.buildinggadgets.common.util.GadgetUtils;
@@ -24,7 +26,6 @@ import net.minecraft.world.level.material.Material;
 import net.minecraft.world.phys.BlockHitResult;
 import net.minecraftforge.common.capabilities.ForgeCapabilities;
 import net.minecraftforge.network.NetworkHooks;
-import net.minecraftforge.network.PacketDistributor;
 
 import javax.annotation.Nullable;
 
@@ -72,13 +73,12 @@ public class TemplateManager extends Block implements EntityBlock {
             return InteractionResult.FAIL;
 
         te.getCapability(ForgeCapabilities.ITEM_HANDLER).ifPresent(handler -> {
-            worldIn.getCapability(CapabilityTemplate.TEMPLATE_PROVIDER_CAPABILITY).ifPresent(provider -> {
-                for (int i = 0; i < handler.getSlots(); i++) {
-                    ItemStack itemStack = handler.getStackInSlot(i);
-                    itemStack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).ifPresent(key ->
-                            provider.requestRemoteUpdate(key, PacketDistributor.PLAYER.with(() -> (ServerPlayer) player)));
-                }
-            });
+            SaveTemplateProvider provider = SaveManager.INSTANCE.getTemplateProvider();
+            for (int i = 0; i < handler.getSlots(); i++) {
+                ItemStack itemStack = handler.getStackInSlot(i);
+                itemStack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).ifPresent(key ->
+                        provider.requestRemoteUpdate(key, (ServerPlayer) player));
+            }
         });
 
         NetworkHooks.openScreen((ServerPlayer) player, (TemplateManagerTileEntity) te, pos);
@@ -0,0 +1,86 @@
+package com.direwolf20.buildinggadgets.common.commands;
+
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.ServerTickingScheduler;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.ServerTickingScheduler.Job;
+import com.direwolf20.buildinggadgets.common.util.lang.CommandTranslation;
+import com.direwolf20.buildinggadgets.common.util.lang.Styles;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+public final class JobsCommand {
+    public static LiteralArgumentBuilder<CommandSourceStack> registerList() {
+        return Commands.literal("Jobs")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .executes(JobsCommand::executeList);
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerPause() {
+        return Commands.literal("JobsPause")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .then(Commands.argument("id", IntegerArgumentType.integer(0))
+                        .executes(context -> executeSetPaused(context, true))
+                );
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerResume() {
+        return Commands.literal("JobsResume")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .then(Commands.argument("id", IntegerArgumentType.integer(0))
+                        .executes(context -> executeSetPaused(context, false))
+                );
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerCancel() {
+        return Commands.literal("JobsCancel")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .then(Commands.argument("id", IntegerArgumentType.integer(0))
+                        .executes(JobsCommand::executeCancel)
+                );
+    }
+
+    private static int executeList(CommandContext<CommandSourceStack> context) {
+        List<Job> jobs = ServerTickingScheduler.getJobs();
+        if (jobs.isEmpty()) {
+            context.getSource().sendSuccess(CommandTranslation.JOBS_NONE.componentTranslation().setStyle(Styles.AQUA), true);
+            return 0;
+        }
+        for (Job job : jobs) {
+            context.getSource().sendSuccess(CommandTranslation.JOBS_LIST
+                    .componentTranslation(job.getId(), job.getName(), String.valueOf(job.getOwner()), job.isPaused())
+                    .setStyle(job.isPaused() ? Styles.GRAY : Styles.BLUE), true);
+        }
+        return jobs.size();
+    }
+
+    private static int executeSetPaused(CommandContext<CommandSourceStack> context, boolean paused) {
+        return withJob(context, job -> {
+            job.setPaused(paused);
+            context.getSource().sendSuccess(CommandTranslation.JOBS_PAUSED.componentTranslation(job.getId(), paused).setStyle(Styles.AQUA), true);
+        });
+    }
+
+    private static int executeCancel(CommandContext<CommandSourceStack> context) {
+        return withJob(context, job -> {
+            job.cancel();
+            context.getSource().sendSuccess(CommandTranslation.JOBS_CANCELLED.componentTranslation(job.getId()).setStyle(Styles.AQUA), true);
+        });
+    }
+
+    private static int withJob(CommandContext<CommandSourceStack> context, Consumer<Job> action) {
+        int id = IntegerArgumentType.getInteger(context, "id");
+        Optional<Job> job = ServerTickingScheduler.getJob(id);
+        if (! job.isPresent()) {
+            context.getSource().sendFailure(CommandTranslation.JOBS_NOT_FOUND.componentTranslation(id).setStyle(Styles.RED));
+            return 0;
+        }
+        action.accept(job.get());
+        return 1;
+    }
+}
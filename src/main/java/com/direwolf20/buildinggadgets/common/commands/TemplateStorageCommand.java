@@ -0,0 +1,254 @@
+package com.direwolf20.buildinggadgets.common.commands;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.direwolf20.buildinggadgets.common.events.DataExpiryHandler;
+import com.direwolf20.buildinggadgets.common.network.split.SplitBenchmark;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.PlacementOrderBenchmark;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers;
+import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
+import com.direwolf20.buildinggadgets.common.tainted.save.TemplateSave;
+import com.direwolf20.buildinggadgets.common.tainted.save.TemplateSubscriptions.DeliveryStatistics;
+import com.direwolf20.buildinggadgets.common.tainted.save.TimedDataSave.ExpiryResult;
+import com.direwolf20.buildinggadgets.common.util.helpers.NBTHelper;
+import com.direwolf20.buildinggadgets.common.util.lang.CommandTranslation;
+import com.direwolf20.buildinggadgets.common.util.lang.Styles;
+import com.direwolf20.buildinggadgets.common.util.tools.CodecBenchmark;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public final class TemplateStorageCommand {
+    private static final int BENCHMARK_SAMPLES = 32;
+    private static final int SPLIT_BENCHMARK_DEFAULT_MIB = 10;
+    private static final int DELIVERY_STATISTICS_ENTRIES = 10;
+    private static final int PLACEMENT_ORDER_BENCHMARK_DEFAULT_SIZE = 48;
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerStatistics() {
+        return Commands.literal("TemplateStorage")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .executes(TemplateStorageCommand::executeStatistics);
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerExpire() {
+        return Commands.literal("ExpireUnused")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .executes(context -> executeExpire(context, Config.GENERAL.unusedDataExpiryDays.get()))
+                .then(Commands.argument("days", IntegerArgumentType.integer(1))
+                        .executes(context -> executeExpire(context, IntegerArgumentType.getInteger(context, "days"))));
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerCompressionBenchmark() {
+        return Commands.literal("BenchmarkCompression")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .executes(TemplateStorageCommand::executeCompressionBenchmark);
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerSplitBenchmark() {
+        return Commands.literal("BenchmarkSplitPackets")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .executes(context -> executeSplitBenchmark(context, SPLIT_BENCHMARK_DEFAULT_MIB))
+                .then(Commands.argument("mib", IntegerArgumentType.integer(1, 256))
+                        .executes(context -> executeSplitBenchmark(context, IntegerArgumentType.getInteger(context, "mib"))));
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerPlacementOrderBenchmark() {
+        return Commands.literal("BenchmarkPlacementOrder")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .executes(context -> executePlacementOrderBenchmark(context, PLACEMENT_ORDER_BENCHMARK_DEFAULT_SIZE))
+                .then(Commands.argument("size", IntegerArgumentType.integer(1, 128))
+                        .executes(context -> executePlacementOrderBenchmark(context, IntegerArgumentType.getInteger(context, "size"))));
+    }
+
+    public static LiteralArgumentBuilder<CommandSourceStack> registerDeliveryStatistics() {
+        return Commands.literal("TemplateDelivery")
+                .requires(commandSource -> commandSource.hasPermission(2))
+                .executes(TemplateStorageCommand::executeDeliveryStatistics);
+    }
+
+    private static int executeStatistics(CommandContext<CommandSourceStack> context) {
+        TemplateSave save = SaveManager.INSTANCE.getTemplateSave();
+        if (save == null)
+            return 0;
+        TemplateSave.Statistics statistics = save.getStatistics();
+        context.getSource().sendSuccess(CommandTranslation.TEMPLATE_STORAGE_STATISTICS.componentTranslation(
+                statistics.getTemplates(),
+                statistics.getDistinctBodies(),
+                statistics.getStoredBytes() / 1024,
+                statistics.getTotalBytes() / 1024,
+                String.format("%.2f", statistics.getRatio())
+        ).setStyle(Styles.AQUA), true);
+        return statistics.getDistinctBodies();
+    }
+
+    /**
+     * Lists the templates which were sent the most since the server started.
+     */
+    private static int executeDeliveryStatistics(CommandContext<CommandSourceStack> context) {
+        List<DeliveryStatistics> statistics = SaveManager.INSTANCE.getTemplateProvider().getSubscriptions().getTopStatistics(DELIVERY_STATISTICS_ENTRIES);
+        if (statistics.isEmpty()) {
+            context.getSource().sendSuccess(CommandTranslation.TEMPLATE_DELIVERY_NONE.componentTranslation().setStyle(Styles.AQUA), true);
+            return 0;
+        }
+        for (DeliveryStatistics entry : statistics) {
+            context.getSource().sendSuccess(CommandTranslation.TEMPLATE_DELIVERY_STATISTICS.componentTranslation(
+                    entry.getTemplateId(),
+                    entry.getSubscribers(),
+                    entry.getAnnouncements(),
+                    entry.getUnattributed(),
+                    entry.getBodies(),
+                    entry.getBodyBytes() / 1024,
+                    entry.getSkipped()
+            ).setStyle(Styles.AQUA), true);
+        }
+        return statistics.size();
+    }
+
+    /**
+     * Loads the largest stored templates and runs the {@link CodecBenchmark} on them on the background workers and reports
+     * the results once done.
+     */
+    private static int executeCompressionBenchmark(CommandContext<CommandSourceStack> context) {
+        TemplateSave save = SaveManager.INSTANCE.getTemplateSave();
+        CommandSourceStack source = context.getSource();
+        if (save == null) {
+            source.sendFailure(CommandTranslation.COMPRESSION_BENCHMARK_NO_SAMPLES.componentTranslation().setStyle(Styles.RED));
+            return 0;
+        }
+        MinecraftServer server = source.getServer();
+        save.sampleBodies(BENCHMARK_SAMPLES).thenApplyAsync(samples -> {
+            if (samples.isEmpty())
+                return null;
+            long bytes = 0;
+            for (CompoundTag sample : samples)
+                bytes += NBTHelper.sizeOf(sample);
+            long kib = bytes / 1024;
+            server.execute(() -> source.sendSuccess(CommandTranslation.COMPRESSION_BENCHMARK_STARTED.componentTranslation(samples.size(), kib).setStyle(Styles.AQUA), true));
+            try {
+                return CodecBenchmark.run(samples);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, BackgroundWorkers.executor()).whenComplete((results, e) -> server.execute(() -> {
+            if (e != null) {
+                BuildingGadgets.LOG.error("Compression benchmark failed!", e);
+                source.sendFailure(CommandTranslation.COMPRESSION_BENCHMARK_FAILED.componentTranslation().setStyle(Styles.RED));
+                return;
+            }
+            if (results == null) {
+                source.sendFailure(CommandTranslation.COMPRESSION_BENCHMARK_NO_SAMPLES.componentTranslation().setStyle(Styles.RED));
+                return;
+            }
+            for (CodecBenchmark.Result result : results) {
+                source.sendSuccess(CommandTranslation.COMPRESSION_BENCHMARK_RESULT.componentTranslation(
+                        result.getCodec(),
+                        String.format("%.2f", result.getRatio()),
+                        String.format("%.1f", result.getCompressThroughput()),
+                        String.format("%.1f", result.getDecompressThroughput())
+                ).setStyle(Styles.AQUA), true);
+            }
+        }));
+        return 1;
+    }
+
+    /**
+     * Runs the {@link SplitBenchmark} with a random payload of the given size on the background workers and reports the
+     * result once done.
+     */
+    private static int executeSplitBenchmark(CommandContext<CommandSourceStack> context, int mib) {
+        CommandSourceStack source = context.getSource();
+        MinecraftServer server = source.getServer();
+        CompletableFuture.supplyAsync(() -> SplitBenchmark.run(mib * 1024 * 1024), BackgroundWorkers.executor())
+                .whenComplete((result, e) -> server.execute(() -> {
+                    if (e != null) {
+                        BuildingGadgets.LOG.error("Split packet benchmark failed!", e);
+                        source.sendFailure(CommandTranslation.SPLIT_BENCHMARK_FAILED.componentTranslation().setStyle(Styles.RED));
+                        return;
+                    }
+                    source.sendSuccess(CommandTranslation.SPLIT_BENCHMARK_RESULT.componentTranslation(
+                            mib,
+                            result.getParts(),
+                            String.format("%.1f", result.getCopying().getMillis()),
+                            kibOrUnknown(result.getCopying().getAllocatedBytes()),
+                            result.getCopying().getBufferBytes() / 1024,
+                            String.format("%.1f", result.getSlicing().getMillis()),
+                            kibOrUnknown(result.getSlicing().getAllocatedBytes()),
+                            result.getSlicing().getBufferBytes() / 1024
+                    ).setStyle(Styles.AQUA), true);
+                }));
+        return mib;
+    }
+
+    /**
+     * Runs the {@link PlacementOrderBenchmark} with a cube of the given size on the background workers, then measures the
+     * placement of both orders at the source's position on the server thread and reports the result. The placement is
+     * refused if the area around the source isn't loaded.
+     */
+    private static int executePlacementOrderBenchmark(CommandContext<CommandSourceStack> context, int size) {
+        CommandSourceStack source = context.getSource();
+        MinecraftServer server = source.getServer();
+        ServerLevel level = source.getLevel();
+        BlockPos origin = new BlockPos(source.getPosition());
+        BuildContext buildContext = BuildContext.builder().build(level);
+        CompletableFuture.supplyAsync(() -> PlacementOrderBenchmark.run(size, buildContext), BackgroundWorkers.executor())
+                .whenComplete((result, e) -> server.execute(() -> {
+                    try {
+                        if (e != null)
+                            throw e;
+                        if (! PlacementOrderBenchmark.measurePlacement(result, level, origin)) {
+                            source.sendFailure(CommandTranslation.PLACEMENT_ORDER_BENCHMARK_UNLOADED.componentTranslation(PlacementOrderBenchmark.MAX_PLACED_SIZE).setStyle(Styles.RED));
+                            return;
+                        }
+                    } catch (Throwable t) {
+                        BuildingGadgets.LOG.error("Placement order benchmark failed!", t);
+                        source.sendFailure(CommandTranslation.PLACEMENT_ORDER_BENCHMARK_FAILED.componentTranslation().setStyle(Styles.RED));
+                        return;
+                    }
+                    source.sendSuccess(CommandTranslation.PLACEMENT_ORDER_BENCHMARK_RESULT.componentTranslation(
+                            result.getBlocks(),
+                            result.getPlacedBlocks(),
+                            result.getCopyOrder().getSectionSwitches(),
+                            result.getCopyOrder().getChunkSwitches(),
+                            String.format("%.1f", result.getCopyOrder().getPlaceMillis()),
+                            result.getSectionOrder().getSectionSwitches(),
+                            result.getSectionOrder().getChunkSwitches(),
+                            String.format("%.1f", result.getSectionOrder().getPlaceMillis()),
+                            String.format("%.1f", result.getSortMillis())
+                    ).setStyle(Styles.AQUA), true);
+                }));
+        return size;
+    }
+
+    private static Object kibOrUnknown(long bytes) {
+        return bytes >= 0 ? bytes / 1024 : "?";
+    }
+
+    private static int executeExpire(CommandContext<CommandSourceStack> context, int days) {
+        if (days <= 0) {
+            context.getSource().sendFailure(CommandTranslation.DATA_EXPIRY_DISABLED.componentTranslation().setStyle(Styles.RED));
+            return 0;
+        }
+        long cutoff = DataExpiryHandler.cutoffFor(days);
+        ExpiryResult templates = SaveManager.INSTANCE.expireTemplates(cutoff);
+        ExpiryResult undos = SaveManager.INSTANCE.expireUndoHistories(cutoff);
+        context.getSource().sendSuccess(CommandTranslation.DATA_EXPIRED.componentTranslation(
+                templates.getRemoved(),
+                undos.getRemoved(),
+                days,
+                (templates.getFreedBytes() + undos.getFreedBytes()) / 1024
+        ).setStyle(Styles.AQUA), true);
+        return templates.getRemoved() + undos.getRemoved();
+    }
+}
@@ -1,5 +1,6 @@
 package com.direwolf20.buildinggadgets.common.config;
 
+import com.direwolf20.buildinggadgets.common.util.tools.NbtCodec;
 import net.minecraftforge.common.ForgeConfigSpec;
 import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
 
@@ -8,7 +9,9 @@ import static net.minecraftforge.common.ForgeConfigSpec.*;
 import net.minecraftforge.common.ForgeConfigSpec.BooleanValue;
 import net.minecraftforge.common.ForgeConfigSpec.Builder;
 import net.minecraftforge.common.ForgeConfigSpec.DoubleValue;
+import net.minecraftforge.common.ForgeConfigSpec.EnumValue;
 import net.minecraftforge.common.ForgeConfigSpec.IntValue;
+import net.minecraftforge.common.ForgeConfigSpec.LongValue;
 
 @EventBusSubscriber
 public class Config {
@@ -26,6 +29,17 @@ public class Config {
         /* Client Only!*/
         public final BooleanValue absoluteCoordDefault;
         public final BooleanValue allowOverwriteBlocks;
+        public final IntValue templateCacheSize;
+        public final IntValue unusedDataExpiryDays;
+        public final EnumValue<NbtCodec> diskCompression;
+        public final EnumValue<NbtCodec> networkCompression;
+        public final IntValue splitPacketTimeout;
+        public final IntValue maxSplitPacketSessions;
+        public final IntValue maxSplitPacketSize;
+        public final IntValue maxTotalSplitPacketSessions;
+        public final IntValue maxTotalSplitPacketSize;
+        /* Client Only!*/
+        public final IntValue templateDiskCacheSize;
 
         private CategoryGeneral() {
             SERVER_BUILDER.comment("General mod settings").push("general");
@@ -48,6 +62,50 @@ public class Config {
                             "False will only allow it to overwrite air blocks.")
                     .define("Allow non-Air-Block-Overwrite", true);
 
+            templateCacheSize = SERVER_BUILDER
+                    .comment("How many MiB of Templates the Server keeps in memory. Templates are stored in one file each within the world's data folder",
+                            "and only loaded when they are used, the least recently used ones are unloaded once this size is exceeded.")
+                    .defineInRange("Template Cache Size", 64, 1, 4096);
+
+            unusedDataExpiryDays = SERVER_BUILDER
+                    .comment("Templates and undo histories which weren't used for this many days are deleted. The check runs once per hour,",
+                            "operators can also run it with '/buildinggadgets ExpireUnused'. Set to 0 to keep everything forever.")
+                    .defineInRange("Expire Unused Data After Days", 0, 0, 36500);
+
+            diskCompression = SERVER_BUILDER
+                    .comment("The compression used for the Template and undo files written to the world's data folder.",
+                            "Files written with any of them can always be read, so this may be changed at any time.")
+                    .defineEnum("Disk Compression", NbtCodec.ZSTD);
+
+            networkCompression = SERVER_BUILDER
+                    .comment("The compression used for Templates sent between server and clients.")
+                    .defineEnum("Network Compression", NbtCodec.LZ4);
+
+            splitPacketTimeout = SERVER_BUILDER
+                    .comment("After how many seconds without receiving another part a partially received Template is discarded.")
+                    .defineInRange("Split Packet Timeout", 60, 1, 3600);
+
+            maxSplitPacketSessions = SERVER_BUILDER
+                    .comment("How many partially received Templates a single player may have at once. Further ones are discarded until these complete or time out.")
+                    .defineInRange("Max Pending Split Packets", 4, 1, 256);
+
+            maxSplitPacketSize = SERVER_BUILDER
+                    .comment("How many MiB of partially received Templates a single player may have at once. Templates exceeding this are discarded.")
+                    .defineInRange("Max Split Packet Size", 64, 1, 2048);
+
+            maxTotalSplitPacketSessions = SERVER_BUILDER
+                    .comment("How many partially received Templates all players together may have at once. Further ones are discarded until these complete or time out.")
+                    .defineInRange("Max Total Pending Split Packets", 16, 1, 4096);
+
+            maxTotalSplitPacketSize = SERVER_BUILDER
+                    .comment("How many MiB of partially received Templates all players together may have at once. Templates exceeding this are discarded.")
+                    .defineInRange("Max Total Split Packet Size", 256, 1, 16384);
+
+            templateDiskCacheSize = CLIENT_BUILDER
+                    .comment("How many MiB of Templates received from servers are kept in the game directory, so that they don't have to be sent again",
+                            "when they are needed after a while or in the next session. The least recently used ones are deleted first. Set to 0 to disable.")
+                    .defineInRange("Template Disk Cache Size", 256, 0, 65536);
+
             CLIENT_BUILDER.pop();
             SERVER_BUILDER.pop();
         }
@@ -56,6 +114,13 @@ public class Config {
     public static final class CategoryGadgets {
         public final IntValue maxRange;
         public final IntValue placeSteps;
+        public final LongValue tickTimeBudget;
+        public final BooleanValue sectionOrderedPlacement;
+        public final IntValue checkpointInterval;
+        public final BooleanValue reserveMaterials;
+        public final IntValue bulkPlacementThreshold;
+        public final BooleanValue planUndo;
+        public final CategoryAdaptiveSteps ADAPTIVE_STEPS;
 
         public final GadgetConfig GADGET_BUILDING;
         public final GadgetConfig GADGET_EXCHANGER;
@@ -76,6 +141,42 @@ public class Config {
                             "Of course decreasing this value will result in more time required to place large TemplateItem's.")
                     .defineInRange("Max Placement/Tick", 1024, 1, Integer.MAX_VALUE);
 
+            tickTimeBudget = SERVER_BUILDER
+                    .comment("Maximum amount of time in nanoseconds all running Placement, Copy and Undo jobs may spend in one Tick combined.",
+                            "When set to a value greater than 0, the jobs no longer perform a fixed amount of steps per Tick (the 'Max Placement/Tick' " +
+                            "and 'Max Copy/Tick' values are ignored), but instead keep working until this budget is used up.",
+                            "Every running job is still guaranteed to perform at least one step per Tick. Set to 0 to disable.")
+                    .defineInRange("Job Time Budget/Tick", 0L, 0L, 50_000_000L);
+
+            sectionOrderedPlacement = SERVER_BUILDER
+                    .comment("Whether Templates should be placed chunk section by chunk section (bottom-up) instead of in the order they were copied in.",
+                            "This keeps consecutive block placements in the same section, which reduces the cost of chunk lookups and lighting updates.")
+                    .define("Section Ordered Placement", true);
+
+            checkpointInterval = SERVER_BUILDER
+                    .comment("Every how many blocks the progress of a running Template placement or undo is saved, so that it can be resumed after a Server restart.",
+                            "Lower values lose less progress on a crash, but write more often. Set to 0 to disable resuming jobs.")
+                    .defineInRange("Job Checkpoint Interval", 4096, 0, Integer.MAX_VALUE);
+
+            reserveMaterials = SERVER_BUILDER
+                    .comment("Whether the items required by a Template placement should be counted in the background and taken from the Player's inventories in one go before the placement starts.",
+                            "Reduces the per block cost of checking for items. Reserved items which weren't used are returned once the placement ends.")
+                    .define("Reserve Materials Up Front", true);
+
+            bulkPlacementThreshold = SERVER_BUILDER
+                    .comment("Template placements by creative Players or operators with at least this many blocks write simple blocks directly into the chunk sections,",
+                            "instead of animating each block. This skips neighbour updates for those blocks and sends one update per chunk section to clients.",
+                            "Blocks with a BlockEntity are always placed normally. Set to 0 to disable.")
+                    .defineInRange("Bulk Placement Threshold", 32768, 0, Integer.MAX_VALUE);
+
+            planUndo = SERVER_BUILDER
+                    .comment("Whether undos should be checked against a snapshot of the world in the background before they start.",
+                            "Blocks which were changed since they were placed are dropped up front and the items to take back are taken in one go,",
+                            "so that only the blocks which are actually undone cost time on the Server thread.")
+                    .define("Plan Undos Off-Thread", true);
+
+            ADAPTIVE_STEPS = new CategoryAdaptiveSteps();
+
             GADGET_BUILDING = new GadgetConfig("Building Gadget", 500000, 50, 10);
             GADGET_EXCHANGER = new GadgetConfig("Exchanging Gadget", 500000, 100, 10);
             GADGET_DESTRUCTION = new CategoryGadgetDestruction();
@@ -84,6 +185,47 @@ public class Config {
             SERVER_BUILDER.pop();
         }
 
+        public static final class CategoryAdaptiveSteps {
+            public final BooleanValue enabled;
+            public final DoubleValue floor;
+            public final DoubleValue ceiling;
+            public final DoubleValue scaleUpMspt;
+            public final DoubleValue backOffMspt;
+
+            private CategoryAdaptiveSteps() {
+                SERVER_BUILDER
+                        .comment("Scale the amount of blocks placed, copied and undone per Tick with the Server's average tick time (MSPT).",
+                                "Ignored if 'Job Time Budget/Tick' is set.")
+                        .push("Adaptive Steps");
+
+                enabled = SERVER_BUILDER
+                        .comment("Whether 'Max Placement/Tick' and 'Max Copy/Tick' should be scaled according to the Server's average tick time")
+                        .define("Enabled", false);
+
+                floor = SERVER_BUILDER
+                        .comment("The smallest factor the configured amount of blocks per Tick will be scaled with")
+                        .defineInRange("Minimum Factor", 0.05, 0.0001, 1);
+
+                ceiling = SERVER_BUILDER
+                        .comment("The largest factor the configured amount of blocks per Tick will be scaled with")
+                        .defineInRange("Maximum Factor", 4D, 1, 1024);
+
+                scaleUpMspt = SERVER_BUILDER
+                        .comment("While the average tick time is below this value (in milliseconds), the amount of blocks per Tick is increased by 10% - at most",
+                                "once per 100 Ticks, the Ticks the average is taken over.",
+                                "Must not be above 'Back Off MSPT', otherwise adaptive steps are disabled.")
+                        .defineInRange("Scale Up MSPT", 30D, 0, 1000);
+
+                backOffMspt = SERVER_BUILDER
+                        .comment("Once the average tick time reaches this value (in milliseconds), the amount of blocks per Tick is halved - at most once",
+                                "per 100 Ticks, the Ticks the average is taken over.",
+                                "Between 'Scale Up MSPT' and this value the amount is kept as is.")
+                        .defineInRange("Back Off MSPT", 45D, 0, 1000);
+
+                SERVER_BUILDER.pop();
+            }
+        }
+
         public static class GadgetConfig {
             public final IntValue maxEnergy;
             public final IntValue energyCost;
@@ -141,6 +283,7 @@ public class Config {
 
         public static final class CategoryGadgetCopyPaste extends GadgetConfig {
             public final IntValue copySteps;
+            public final BooleanValue offThreadCopy;
             public final IntValue maxCopySize;
             public final IntValue maxBuildSize;
 
@@ -157,6 +300,13 @@ public class Config {
                                 "Lower values may improve Server-Performance when copying large Templates")
                         .defineInRange("Max Copy/Tick", 32768, 1, Integer.MAX_VALUE);
 
+                offThreadCopy = SERVER_BUILDER
+                        .comment("Whether copies should take a snapshot of the copied area and scan it on a background thread.",
+                                "Only BlockEntity data is read on the Server-Thread, which makes large copies finish much faster. " +
+                                "The snapshot is taken in whole chunk sections (4096 blocks), as many as fit into 'Max Copy/Tick'. " +
+                                "If disabled, blocks are read on the Server-Thread limited by 'Max Copy/Tick'.")
+                        .define("Off-Thread Copy", true);
+
                 maxCopySize = SERVER_BUILDER
                         .comment("Maximum dimensions (x, y and z) that can be copied by a Template without requiring special permission.",
                                 "Permission can be granted using the '/buildinggadgets OverrideCopySize [<Player>]' command.")
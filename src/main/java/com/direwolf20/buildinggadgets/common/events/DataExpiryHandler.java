@@ -0,0 +1,42 @@
+package com.direwolf20.buildinggadgets.common.events;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
+import com.direwolf20.buildinggadgets.common.tainted.save.TimedDataSave.ExpiryResult;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.event.TickEvent.Phase;
+import net.minecraftforge.event.TickEvent.ServerTickEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
+import net.minecraftforge.server.ServerLifecycleHooks;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Once per hour removes all templates and undo histories which weren't used for {@link Config.CategoryGeneral#unusedDataExpiryDays} days.
+ */
+@EventBusSubscriber
+public class DataExpiryHandler {
+    private static final int SWEEP_INTERVAL = 20 * 60 * 60;
+
+    @SubscribeEvent
+    public static void onServerTick(ServerTickEvent event) {
+        if (event.phase != Phase.END)
+            return;
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        int days = Config.GENERAL.unusedDataExpiryDays.get();
+        if (server == null || days <= 0 || server.getTickCount() % SWEEP_INTERVAL != 0)
+            return;
+        long cutoff = cutoffFor(days);
+        ExpiryResult templates = SaveManager.INSTANCE.expireTemplates(cutoff);
+        ExpiryResult undos = SaveManager.INSTANCE.expireUndoHistories(cutoff);
+        if (templates.getRemoved() > 0 || undos.getRemoved() > 0)
+            BuildingGadgets.LOG.info("Expired {} Templates and {} undo histories unused for {} days, freeing {} KiB.",
+                    templates.getRemoved(), undos.getRemoved(), days, (templates.getFreedBytes() + undos.getFreedBytes()) / 1024);
+    }
+
+    public static long cutoffFor(int days) {
+        return System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+    }
+}
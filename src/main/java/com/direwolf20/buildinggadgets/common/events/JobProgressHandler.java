@@ -0,0 +1,54 @@
+package com.direwolf20.buildinggadgets.common.events;
+
+import com.direwolf20.buildinggadgets.common.network.PacketHandler;
+import com.direwolf20.buildinggadgets.common.network.packets.PacketJobProgress;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.ServerTickingScheduler;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.ServerTickingScheduler.Job;
+import com.google.common.collect.ImmutableList;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.event.TickEvent.Phase;
+import net.minecraftforge.event.TickEvent.ServerTickEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
+import net.minecraftforge.server.ServerLifecycleHooks;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Periodically sends the progress of their running jobs to the owning players. Players without running jobs receive
+ * one final empty update and nothing after that.
+ */
+@EventBusSubscriber
+public class JobProgressHandler {
+    private static final int SYNC_INTERVAL = 10;
+    private static final Set<UUID> SYNCED_PLAYERS = new HashSet<>();
+
+    @SubscribeEvent
+    public static void onServerTick(ServerTickEvent event) {
+        if (event.phase != Phase.END)
+            return;
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null || server.getTickCount() % SYNC_INTERVAL != 0)
+            return;
+        for (ServerPlayer player : server.getPlayerList().getPlayers()) {
+            ImmutableList.Builder<PacketJobProgress.Entry> builder = ImmutableList.builder();
+            for (Job job : ServerTickingScheduler.getJobs(player.getUUID()))
+                job.getProgress().ifPresent(progress -> builder.add(PacketJobProgress.Entry.of(job, progress)));
+            ImmutableList<PacketJobProgress.Entry> jobs = builder.build();
+            if (jobs.isEmpty() && ! SYNCED_PLAYERS.remove(player.getUUID()))
+                continue;
+            if (! jobs.isEmpty())
+                SYNCED_PLAYERS.add(player.getUUID());
+            PacketHandler.sendTo(new PacketJobProgress(jobs), player);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        SYNCED_PLAYERS.clear();
+    }
+}
@@ -0,0 +1,33 @@
+package com.direwolf20.buildinggadgets.common.events;
+
+import com.direwolf20.buildinggadgets.common.network.PacketHandler;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.event.TickEvent.Phase;
+import net.minecraftforge.event.TickEvent.ServerTickEvent;
+import net.minecraftforge.event.entity.player.PlayerEvent.PlayerLoggedOutEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
+import net.minecraftforge.server.ServerLifecycleHooks;
+
+/**
+ * Discards partially received split packets once their sender logs out, and once per second those which timed out, so that
+ * they don't stay in memory until the next part of any sender arrives.
+ */
+@EventBusSubscriber
+public class SplitPacketSessionHandler {
+    private static final int SWEEP_INTERVAL = 20;
+
+    @SubscribeEvent
+    public static void onPlayerLoggedOut(PlayerLoggedOutEvent event) {
+        PacketHandler.getSplitManager().discardSessionsOf(event.getEntity().getUUID());
+    }
+
+    @SubscribeEvent
+    public static void onServerTick(ServerTickEvent event) {
+        if (event.phase != Phase.END)
+            return;
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server != null && server.getTickCount() % SWEEP_INTERVAL == 0)
+            PacketHandler.getSplitManager().expireSessions();
+    }
+}
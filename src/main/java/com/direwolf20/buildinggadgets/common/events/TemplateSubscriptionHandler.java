@@ -0,0 +1,19 @@
+package com.direwolf20.buildinggadgets.common.events;
+
+import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.event.entity.player.PlayerEvent.PlayerLoggedOutEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
+
+/**
+ * Unsubscribes players from all templates once they log out, as their client discards its copies then.
+ */
+@EventBusSubscriber
+public class TemplateSubscriptionHandler {
+    @SubscribeEvent
+    public static void onPlayerLoggedOut(PlayerLoggedOutEvent event) {
+        if (event.getEntity() instanceof ServerPlayer player)
+            SaveManager.INSTANCE.getTemplateProvider().onPlayerLoggedOut(player);
+    }
+}
@@ -13,6 +13,9 @@ import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
 import com.direwolf20.buildinggadgets.common.tainted.concurrent.UndoScheduler;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.IItemIndex;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.InventoryHelper;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.Checkpoint;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.JobType;
 import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
 import com.direwolf20.buildinggadgets.common.tainted.save.Undo;
 import com.direwolf20.buildinggadgets.common.tainted.save.UndoWorldSave;
@@ -29,6 +32,7 @@ import net.minecraft.core.registries.Registries;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.network.chat.Component;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.tags.TagKey;
 import net.minecraft.util.Mth;
@@ -54,6 +58,7 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.function.IntSupplier;
@@ -303,13 +308,20 @@ public abstract class AbstractGadget extends Item {
     }
 
     protected void pushUndo(ItemStack stack, Undo undo) {
+        pushUndo(getUUID(stack), undo);
+    }
+
+    /**
+     * Pushes an {@link Undo} to the history of the gadget with the given id, without requiring the gadget's {@link ItemStack}.
+     */
+    public void pushUndo(UUID gadgetId, Undo undo) {
         // Don't save if there is nothing to undo...
         if (undo.getUndoData().isEmpty()) {
             return;
         }
 
         UndoWorldSave save = getUndoSave();
-        save.insertUndo(getUUID(stack), undo);
+        save.insertUndo(gadgetId, undo);
     }
 
     public void undo(Level world, Player player, ItemStack stack) {
@@ -334,8 +346,36 @@ public abstract class AbstractGadget extends Item {
                     .stack(stack)
                     .build(world);
 
-            UndoScheduler.scheduleUndo(undo, index, buildContext, Config.GADGETS.placeSteps.get());
+            UndoScheduler scheduler = UndoScheduler.scheduleUndo(undo, index, buildContext, Config.GADGETS.placeSteps.get())
+                    .withFinisher(s -> pushUndo(stack, s.getRemainingUndo()));
+            if (Config.GADGETS.planUndo.get())
+                scheduler.withPlanning();
+            JobCheckpointSave checkpoints = SaveManager.INSTANCE.getJobCheckpointSave();
+            if (checkpoints != null && Config.GADGETS.checkpointInterval.get() > 0)
+                scheduler.withCheckpoint(checkpoints.create(JobType.UNDO, player.getUUID(), getUUID(stack),
+                        Objects.requireNonNull(ForgeRegistries.ITEMS.getKey(this)), undo.getDimension().location(), new CompoundTag()));
         } else
             player.displayClientMessage(MessageTranslation.NOTHING_TO_UNDO.componentTranslation().setStyle(Styles.RED), true);
     }
+
+    /**
+     * Resumes an undo which was interrupted by a server restart.
+     *
+     * @return false if the undo cannot be resumed, because it reaches into unloaded chunks
+     */
+    public boolean resumeUndo(ServerLevel world, Player player, ItemStack stack, Checkpoint checkpoint, Undo undo) {
+        if (!ForceUnloadedCommand.mayForceUnloadedChunks(player) && !undo.getBoundingBox().getUnloadedChunks(world).isEmpty())
+            return false;
+        BuildContext buildContext = BuildContext.builder()
+                .player(player)
+                .stack(stack)
+                .build(world);
+
+        UndoScheduler scheduler = UndoScheduler.scheduleUndo(undo, InventoryHelper.index(stack, player), buildContext, Config.GADGETS.placeSteps.get())
+                .withFinisher(s -> pushUndo(stack, s.getRemainingUndo()))
+                .withCheckpoint(checkpoint);
+        if (Config.GADGETS.planUndo.get())
+            scheduler.withPlanning();
+        return true;
+    }
 }
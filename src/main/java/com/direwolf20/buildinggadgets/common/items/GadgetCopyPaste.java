@@ -13,6 +13,8 @@ import com.direwolf20.buildinggadgets.common.commands.OverrideCopySizeCommand;
 import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.network.PacketHandler;
 import com.direwolf20.buildinggadgets.common.network.packets.PacketBindTool;
+import com.direwolf20.buildinggadgets.common.network.packets.PacketRotateMirror.Operation;
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
 import com.direwolf20.buildinggadgets.common.tainted.building.PlacementChecker;
 import com.direwolf20.buildinggadgets.common.tainted.building.Region;
 import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
@@ -20,9 +22,15 @@ import com.direwolf20.buildinggadgets.common.tainted.building.view.IBuildView;
 import com.direwolf20.buildinggadgets.common.tainted.building.view.WorldBuildView;
 import com.direwolf20.buildinggadgets.common.tainted.concurrent.CopyScheduler;
 import com.direwolf20.buildinggadgets.common.tainted.concurrent.PlacementScheduler;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.SnapshotCopyScheduler;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.IItemIndex;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.InventoryHelper;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.Checkpoint;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.JobType;
 import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
+import com.direwolf20.buildinggadgets.common.tainted.save.SaveTemplateProvider;
+import com.direwolf20.buildinggadgets.common.tainted.save.Undo;
 import com.direwolf20.buildinggadgets.common.tainted.template.ITemplateKey;
 import com.direwolf20.buildinggadgets.common.tainted.template.Template;
 import com.direwolf20.buildinggadgets.common.tainted.template.TemplateHeader;
@@ -35,7 +43,9 @@ import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference.BlockReference.TagReference;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import it.unimi.dsi.fastutil.bytes.Byte2ObjectMap;
 import it.unimi.dsi.fastutil.bytes.Byte2ObjectOpenHashMap;
@@ -46,6 +56,7 @@ import net.minecraft.nbt.NbtUtils;
 import net.minecraft.nbt.Tag;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.Style;
+import net.minecraft.server.level.ServerLevel;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.InteractionHand;
 import net.minecraft.world.InteractionResult;
@@ -65,11 +76,13 @@ import net.minecraft.world.phys.BlockHitResult;
 import net.minecraft.world.phys.HitResult.Type;
 import net.minecraftforge.common.capabilities.ForgeCapabilities;
 import net.minecraftforge.common.capabilities.ICapabilityProvider;
-import net.minecraftforge.network.PacketDistributor;
+import net.minecraftforge.registries.ForgeRegistries;
 
 import javax.annotation.Nullable;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
 public class GadgetCopyPaste extends AbstractGadget {
@@ -111,6 +124,9 @@ public class GadgetCopyPaste extends AbstractGadget {
     }
 
     private static final Joiner CHUNK_JOINER = Joiner.on("; ");
+    private static final String KEY_CHECKPOINT_POS = "pos";
+    private static final String KEY_CHECKPOINT_BOUNDS = "bounds";
+    private static final String KEY_CHECKPOINT_SECTION_ORDERED = "section_ordered";
 
     public GadgetCopyPaste() {
         super(OurItems.nonStackableItemProperties(),
@@ -148,26 +164,28 @@ public class GadgetCopyPaste extends AbstractGadget {
 
     @Override
     public boolean performRotate(ItemStack stack, Player player) {
-        return player.level.getCapability(CapabilityTemplate.TEMPLATE_PROVIDER_CAPABILITY).map(provider ->
-                        stack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).map(key -> {
-                            Template template = provider.getTemplateForKey(key);
-                            provider.setTemplate(key, template.rotate(Rotation.CLOCKWISE_90));
-                            provider.requestRemoteUpdate(key, PacketDistributor.PLAYER.with(() -> (ServerPlayer) player));
-                            return true;
-                        }).orElse(false))
-                .orElse(false);
+        return transformTemplate(stack, player, Operation.ROTATE);
     }
 
     @Override
     public boolean performMirror(ItemStack stack, Player player) {
-        return player.level.getCapability(CapabilityTemplate.TEMPLATE_PROVIDER_CAPABILITY).map(provider ->
-                        stack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).map(key -> {
-                            Template template = provider.getTemplateForKey(key);
-                            provider.setTemplate(key, template.mirror(player.getDirection().getAxis()));
-                            provider.requestRemoteUpdate(key, PacketDistributor.PLAYER.with(() -> (ServerPlayer) player));
-                            return true;
-                        }).orElse(false))
-                .orElse(false);
+        return transformTemplate(stack, player, Operation.MIRROR);
+    }
+
+    /**
+     * Only the header changes, so the player is sent the updated header and keeps the body it already holds.
+     */
+    private boolean transformTemplate(ItemStack stack, Player player, Operation operation) {
+        if (! (player instanceof ServerPlayer serverPlayer))
+            return false;
+        SaveTemplateProvider provider = SaveManager.INSTANCE.getTemplateProvider();
+        return stack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).map(key -> {
+            Template template = provider.getTemplateForKey(key);
+            provider.setTemplate(key, operation == Operation.MIRROR
+                    ? template.mirror(player.getDirection().getAxis())
+                    : template.rotate(Rotation.CLOCKWISE_90), serverPlayer);
+            return true;
+        }).orElse(false);
     }
 
     public static void setRelativeVector(ItemStack stack, BlockPos vec) {
@@ -374,6 +392,11 @@ public class GadgetCopyPaste extends AbstractGadget {
                 .player(player)
                 .stack(stack)
                 .build(world);
+        if (Config.GADGETS.GADGET_COPY_PASTE.offThreadCopy.get()) {
+            SnapshotCopyScheduler.scheduleCopy(copyFinisher(stack, player), context, region,
+                    AbstractGadget.getGadget(player).getItem() instanceof GadgetCopyPaste, Config.GADGETS.GADGET_COPY_PASTE.copySteps.get());
+            return;
+        }
         WorldBuildView buildView = WorldBuildView.create(context, region,
                 (c, p) -> InventoryHelper.getSafeBlockData(player, p, player.getUsedItemHand()));
         performCopy(stack, buildView);
@@ -390,11 +413,11 @@ public class GadgetCopyPaste extends AbstractGadget {
             }
         }
         int maxDimension = Config.GADGETS.GADGET_COPY_PASTE.maxCopySize.get();
-        if (region.getXSize() > 0xFFFF || region.getYSize() > 255 || region.getZSize() > 0xFFFF ||  //these are the max dimensions of a Template
+        if (region.getXSize() > Template.MAX_SIZE_XZ || region.getYSize() > Template.MAX_SIZE_Y || region.getZSize() > Template.MAX_SIZE_XZ ||  //these are the max dimensions of a Template
                 ((region.getXSize() > maxDimension || region.getYSize() > maxDimension || region.getZSize() > maxDimension) && !OverrideCopySizeCommand.mayPerformLargeCopy(player))) {
             BlockPos sizeVec = region.getMax().subtract(region.getMin());
             player.displayClientMessage(MessageTranslation.COPY_TOO_LARGE
-                    .componentTranslation(sizeVec.getX(), sizeVec.getY(), sizeVec.getZ(), Math.min(maxDimension, 0xFFFF), Math.min(maxDimension, 255), Math.min(maxDimension, 0xFFFF))
+                    .componentTranslation(sizeVec.getX(), sizeVec.getY(), sizeVec.getZ(), Math.min(maxDimension, Template.MAX_SIZE_XZ), Math.min(maxDimension, Template.MAX_SIZE_Y), Math.min(maxDimension, Template.MAX_SIZE_XZ))
                     .setStyle(Styles.RED), true);
             return false;
         }
@@ -405,22 +428,28 @@ public class GadgetCopyPaste extends AbstractGadget {
         BuildContext context = buildView.getContext();
         assert context.getPlayer() != null;
         Player player = context.getPlayer();
-        CopyScheduler.scheduleCopy((map, region) -> {
+        CopyScheduler.scheduleCopy(copyFinisher(stack, player), buildView, Config.GADGETS.GADGET_COPY_PASTE.copySteps.get());
+    }
+
+    private BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> copyFinisher(ItemStack stack, Player player) {
+        return (map, region) -> {
             Template newTemplate = new Template(map,
                     TemplateHeader.builder(region)
                             .name("Copy " + getAndIncrementCopyCounter(stack))
                             .author(player.getName().getString())
                             .build());
             onCopyFinished(newTemplate.normalize(), stack, player);
-        }, buildView, Config.GADGETS.GADGET_COPY_PASTE.copySteps.get());
+        };
     }
 
     private void onCopyFinished(Template newTemplate, ItemStack stack, Player player) {
         if (!Additions.sizeInvalid(player, newTemplate.getHeader().getBoundingBox()))
             sendMessage(stack, player, MessageTranslation.AREA_COPIED, Styles.DK_GREEN);
         ITemplateKey key = stack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).orElseThrow(CapabilityNotPresentException::new);
-        SaveManager.INSTANCE.getTemplateProvider().setTemplate(key, newTemplate);
-        SaveManager.INSTANCE.getTemplateProvider().requestRemoteUpdate(key, (ServerPlayer) player);
+        if (player instanceof ServerPlayer serverPlayer)
+            SaveManager.INSTANCE.getTemplateProvider().setTemplate(key, newTemplate, serverPlayer);
+        else
+            SaveManager.INSTANCE.getTemplateProvider().setTemplate(key, newTemplate);
     }
 
     private void build(ItemStack stack, Level world, Player player, BlockPos pos) {
@@ -435,7 +464,7 @@ public class GadgetCopyPaste extends AbstractGadget {
                 view.translateTo(pos);
                 if (!checkPlacement(world, player, view.getBoundingBox()))
                     return;
-                schedulePlacement(stack, view, player);
+                schedulePlacement(stack, view, player, pos);
             });
         });
     }
@@ -462,7 +491,55 @@ public class GadgetCopyPaste extends AbstractGadget {
         return true;
     }
 
-    private void schedulePlacement(ItemStack stack, IBuildView view, Player player) {
+    private void schedulePlacement(ItemStack stack, IBuildView view, Player player, BlockPos pos) {
+        PlacementScheduler scheduler = schedulePlacement(stack, view, player, Config.GADGETS.sectionOrderedPlacement.get());
+        JobCheckpointSave checkpoints = SaveManager.INSTANCE.getJobCheckpointSave();
+        if (checkpoints != null && Config.GADGETS.checkpointInterval.get() > 0) {
+            CompoundTag data = new CompoundTag();
+            data.put(KEY_CHECKPOINT_POS, NbtUtils.writeBlockPos(pos));
+            data.put(KEY_CHECKPOINT_BOUNDS, view.getBoundingBox().serialize());
+            data.putBoolean(KEY_CHECKPOINT_SECTION_ORDERED, scheduler.isSectionOrdered());
+            Checkpoint checkpoint = checkpoints.create(JobType.PLACEMENT, player.getUUID(), getUUID(stack),
+                    Objects.requireNonNull(ForgeRegistries.ITEMS.getKey(this)), view.getContext().getServerWorld().dimension().location(), data);
+            scheduler.withCheckpoint(checkpoint, ImmutableList.of());
+        }
+        prepareScheduler(scheduler, view, player);
+    }
+
+    private static void prepareScheduler(PlacementScheduler scheduler, IBuildView view, Player player) {
+        if (Config.GADGETS.reserveMaterials.get() && !player.isCreative())
+            scheduler.withMaterialPrePass();
+        int bulkThreshold = Config.GADGETS.bulkPlacementThreshold.get();
+        if (bulkThreshold > 0 && view.estimateSize() >= bulkThreshold && (player.isCreative() || player.hasPermissions(2)))
+            scheduler.withBulkWrites();
+    }
+
+    /**
+     * Resumes a placement which was interrupted by a server restart.
+     *
+     * @return false if the placement cannot be resumed, because the template of the gadget changed in the meantime
+     */
+    public boolean resumePlacement(ServerLevel world, Player player, ItemStack stack, Checkpoint checkpoint, List<Undo> restoredUndos) {
+        Optional<ITemplateKey> key = stack.getCapability(CapabilityTemplate.TEMPLATE_KEY_CAPABILITY).resolve();
+        if (! key.isPresent())
+            return false;
+        Template template = SaveManager.INSTANCE.getTemplateProvider().getTemplateForKey(key.get());
+        BuildContext buildContext = BuildContext.builder()
+                .stack(stack)
+                .player(player)
+                .build(world);
+        IBuildView view = template.createViewInContext(buildContext);
+        CompoundTag data = checkpoint.getData();
+        view.translateTo(NbtUtils.readBlockPos(data.getCompound(KEY_CHECKPOINT_POS)));
+        if (! view.getBoundingBox().equals(Region.deserializeFrom(data.getCompound(KEY_CHECKPOINT_BOUNDS))))
+            return false;
+        PlacementScheduler scheduler = schedulePlacement(stack, view, player, data.getBoolean(KEY_CHECKPOINT_SECTION_ORDERED))
+                .withCheckpoint(checkpoint, restoredUndos);
+        prepareScheduler(scheduler, view, player);
+        return true;
+    }
+
+    private PlacementScheduler schedulePlacement(ItemStack stack, IBuildView view, Player player, boolean sectionOrdered) {
         IItemIndex index = InventoryHelper.index(stack, player);
         // Disable energy cost when max energy is disabled
         int energyCost = getEnergyMax() == 0 ? 0 : getEnergyCost(stack);
@@ -474,10 +551,11 @@ public class GadgetCopyPaste extends AbstractGadget {
                 index,
                 (c, t) -> overwrite ? c.getWorld().getBlockState(t.getPos()).canBeReplaced(useContext) : c.getWorld().isEmptyBlock(t.getPos()),
                 true);
-        PlacementScheduler.schedulePlacement(view, checker, Config.GADGETS.placeSteps.get())
+        return PlacementScheduler.schedulePlacement(view, checker, Config.GADGETS.placeSteps.get(), sectionOrdered)
                 .withFinisher(p -> {
                     pushUndo(stack, p.getUndoBuilder().build(view.getContext().getServerWorld()));
-                    onBuildFinished(stack, player, view.getBoundingBox());
+                    if (! p.isCancelled())
+                        onBuildFinished(stack, player, view.getBoundingBox());
                 });
     }
 
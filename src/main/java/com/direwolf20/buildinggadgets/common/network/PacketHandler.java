@@ -19,7 +19,7 @@ import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class PacketHandler {
-    private static final String PROTOCOL_VERSION = Integer.toString(4);
+    private static final String PROTOCOL_VERSION = Integer.toString(8);
     private static short index = 0;
     private static final PacketSplitManager SPLIT_MANAGER = new PacketSplitManager();
 
@@ -50,6 +50,7 @@ public class PacketHandler {
         registerMessage(PacketPasteGUI.class, PacketPasteGUI::encode, PacketPasteGUI::decode, PacketPasteGUI.Handler::handle);
         registerMessage(PacketToggleMode.class, PacketToggleMode::encode, PacketToggleMode::decode, PacketToggleMode.Handler::handle);
         registerMessage(PacketUndo.class, PacketUndo::encode, PacketUndo::decode, PacketUndo.Handler::handle);
+        registerMessage(PacketCancelJob.class, PacketCancelJob::encode, PacketCancelJob::decode, PacketCancelJob.Handler::handle);
 
         // Both Sides
         registerMessage(SplitPacket.class, SPLIT_MANAGER::encode, SPLIT_MANAGER::decode, SPLIT_MANAGER::handle);
@@ -60,6 +61,8 @@ public class PacketHandler {
 
         // Client side
         registerMessage(PacketTemplateManagerTemplateCreated.class, PacketTemplateManagerTemplateCreated::encode, PacketTemplateManagerTemplateCreated::new, PacketTemplateManagerTemplateCreated::handle);
+        registerMessage(PacketJobProgress.class, PacketJobProgress::encode, PacketJobProgress::decode, PacketJobProgress.Handler::handle);
+        registerMessage(PacketUpdateTemplateHeader.class, PacketUpdateTemplateHeader::encode, PacketUpdateTemplateHeader::new, PacketUpdateTemplateHeader::handle);
     }
 
     public static void sendTo(Object msg, ServerPlayer player) {
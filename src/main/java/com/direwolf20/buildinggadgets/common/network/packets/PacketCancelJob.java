@@ -0,0 +1,47 @@
+package com.direwolf20.buildinggadgets.common.network.packets;
+
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.ServerTickingScheduler;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.ServerTickingScheduler.Job;
+import com.direwolf20.buildinggadgets.common.util.lang.MessageTranslation;
+import com.direwolf20.buildinggadgets.common.util.lang.Styles;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Cancels the most recently started job of the sending player which reports progress.
+ */
+public class PacketCancelJob {
+
+    public static void encode(PacketCancelJob msg, FriendlyByteBuf buf) {}
+
+    public static PacketCancelJob decode(FriendlyByteBuf buf) {
+        return new PacketCancelJob();
+    }
+
+    public static class Handler {
+        public static void handle(PacketCancelJob msg, Supplier<NetworkEvent.Context> ctx) {
+            ctx.get().enqueueWork(() -> {
+                ServerPlayer player = ctx.get().getSender();
+                if (player == null)
+                    return;
+
+                Optional<Job> job = ServerTickingScheduler.getJobs(player.getUUID()).stream()
+                        .filter(j -> j.getProgress().isPresent() && ! j.isCancelled())
+                        .max(Comparator.comparingInt(Job::getId));
+                if (job.isPresent()) {
+                    job.get().cancel();
+                    player.displayClientMessage(MessageTranslation.JOB_CANCELLED
+                            .componentTranslation(job.get().getName(), job.get().getProgress().get().getProcessed())
+                            .setStyle(Styles.AQUA), true);
+                } else
+                    player.displayClientMessage(MessageTranslation.NOTHING_TO_CANCEL.componentTranslation().setStyle(Styles.RED), true);
+            });
+            ctx.get().setPacketHandled(true);
+        }
+    }
+}
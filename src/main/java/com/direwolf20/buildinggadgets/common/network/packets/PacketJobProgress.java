@@ -0,0 +1,107 @@
+package com.direwolf20.buildinggadgets.common.network.packets;
+
+import com.direwolf20.buildinggadgets.client.screen.JobProgressOverlay;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.JobProgress;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.ServerTickingScheduler.Job;
+import com.google.common.collect.ImmutableList;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Sent periodically to a player who owns running jobs, to display their progress. An empty list means the player has no
+ * more running jobs.
+ */
+public class PacketJobProgress {
+    private final ImmutableList<Entry> jobs;
+
+    public PacketJobProgress(ImmutableList<Entry> jobs) {
+        this.jobs = jobs;
+    }
+
+    public static void encode(PacketJobProgress msg, FriendlyByteBuf buf) {
+        buf.writeVarInt(msg.jobs.size());
+        for (Entry entry : msg.jobs) {
+            buf.writeVarInt(entry.id);
+            buf.writeUtf(entry.name);
+            buf.writeVarInt(entry.processed);
+            buf.writeVarInt(entry.total);
+            buf.writeLong(entry.etaMillis);
+            buf.writeBoolean(entry.paused);
+        }
+    }
+
+    public static PacketJobProgress decode(FriendlyByteBuf buf) {
+        int size = buf.readVarInt();
+        ImmutableList.Builder<Entry> builder = ImmutableList.builder();
+        for (int i = 0; i < size; i++)
+            builder.add(new Entry(buf.readVarInt(), buf.readUtf(), buf.readVarInt(), buf.readVarInt(), buf.readLong(), buf.readBoolean()));
+        return new PacketJobProgress(builder.build());
+    }
+
+    public List<Entry> getJobs() {
+        return jobs;
+    }
+
+    public static class Handler {
+        public static void handle(PacketJobProgress msg, Supplier<NetworkEvent.Context> ctx) {
+            ctx.get().enqueueWork(() -> JobProgressOverlay.setJobs(msg.getJobs()));
+            ctx.get().setPacketHandled(true);
+        }
+    }
+
+    public static final class Entry {
+        public static Entry of(Job job, JobProgress progress) {
+            return new Entry(job.getId(), job.getName(), progress.getProcessed(), progress.getTotal(), progress.getEtaMillis(), job.isPaused());
+        }
+
+        private final int id;
+        private final String name;
+        private final int processed;
+        private final int total;
+        private final long etaMillis;
+        private final boolean paused;
+
+        private Entry(int id, String name, int processed, int total, long etaMillis, boolean paused) {
+            this.id = id;
+            this.name = name;
+            this.processed = processed;
+            this.total = total;
+            this.etaMillis = etaMillis;
+            this.paused = paused;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+
+        public float getFraction() {
+            return total > 0 ? Math.min(1f, processed / (float) total) : 0f;
+        }
+
+        /**
+         * @return the estimated milliseconds until the job completes or -1 if unknown
+         */
+        public long getEtaMillis() {
+            return etaMillis;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+    }
+}
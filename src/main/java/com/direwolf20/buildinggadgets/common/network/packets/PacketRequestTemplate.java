@@ -4,6 +4,7 @@ import com.direwolf20.buildinggadgets.client.ClientProxy;
 import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
 import com.direwolf20.buildinggadgets.common.tainted.template.TemplateKey;
 import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.fml.LogicalSide;
 import net.minecraftforge.network.NetworkEvent;
 
@@ -11,20 +12,38 @@ import java.util.UUID;
 import java.util.function.Supplier;
 
 public final class PacketRequestTemplate extends UUIDPacket {
+    // whether the client knows it doesn't hold the announced body version, otherwise the server only announces it
+    private final boolean requireBody;
+
     public PacketRequestTemplate(UUID id) {
+        this(id, false);
+    }
+
+    public PacketRequestTemplate(UUID id, boolean requireBody) {
         super(id);
+        this.requireBody = requireBody;
     }
 
     public PacketRequestTemplate(FriendlyByteBuf buffer) {
         super(buffer);
+        this.requireBody = buffer.readBoolean();
+    }
+
+    @Override
+    public void encode(FriendlyByteBuf buffer) {
+        super.encode(buffer);
+        buffer.writeBoolean(requireBody);
     }
 
     public void handle(Supplier<NetworkEvent.Context> contextSupplier) {
         contextSupplier.get().enqueueWork(() -> {
             if (contextSupplier.get().getDirection().getReceptionSide() == LogicalSide.CLIENT)
                 ClientProxy.CACHE_TEMPLATE_PROVIDER.requestRemoteUpdate(new TemplateKey(getId()));
-            else
-                SaveManager.INSTANCE.getTemplateProvider().requestRemoteUpdate(new TemplateKey(getId()));
+            else {
+                ServerPlayer sender = contextSupplier.get().getSender();
+                if (sender != null)
+                    SaveManager.INSTANCE.getTemplateProvider().sendUpdate(new TemplateKey(getId()), sender, requireBody);
+            }
         });
 
         contextSupplier.get().setPacketHandled(true);
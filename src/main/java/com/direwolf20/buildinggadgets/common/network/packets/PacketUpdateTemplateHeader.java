@@ -0,0 +1,49 @@
+package com.direwolf20.buildinggadgets.common.network.packets;
+
+import com.direwolf20.buildinggadgets.client.ClientProxy;
+import com.direwolf20.buildinggadgets.common.tainted.template.Template;
+import com.direwolf20.buildinggadgets.common.tainted.template.TemplateHeader;
+import com.direwolf20.buildinggadgets.common.tainted.template.TemplateKey;
+import net.minecraft.network.FriendlyByteBuf;
+import net.minecraftforge.fml.LogicalSide;
+import net.minecraftforge.network.NetworkEvent;
+
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * Announces the header and body version of a {@link Template}, instead of sending the whole {@link Template}. Clients holding
+ * that body version in memory or on disk only replace the header, all others ask for the whole {@link Template}.
+ */
+public final class PacketUpdateTemplateHeader extends UUIDPacket {
+    private final long bodyVersion;
+    private final TemplateHeader header;
+
+    public PacketUpdateTemplateHeader(FriendlyByteBuf buffer) {
+        super(buffer);
+        this.bodyVersion = buffer.readLong();
+        this.header = TemplateHeader.builderFromNBT(buffer.readNbt(), true).build();
+    }
+
+    public PacketUpdateTemplateHeader(UUID id, long bodyVersion, TemplateHeader header) {
+        super(id);
+        this.bodyVersion = bodyVersion;
+        this.header = header;
+    }
+
+    @Override
+    public void encode(FriendlyByteBuf buffer) {
+        super.encode(buffer);
+        buffer.writeLong(bodyVersion);
+        buffer.writeNbt(header.toNBT(true));
+    }
+
+    public void handle(Supplier<NetworkEvent.Context> contextSupplier) {
+        contextSupplier.get().enqueueWork(() -> {
+            if (contextSupplier.get().getDirection().getReceptionSide() == LogicalSide.CLIENT)
+                ClientProxy.CACHE_TEMPLATE_PROVIDER.updateHeader(new TemplateKey(getId()), bodyVersion, header);
+        });
+
+        contextSupplier.get().setPacketHandled(true);
+    }
+}
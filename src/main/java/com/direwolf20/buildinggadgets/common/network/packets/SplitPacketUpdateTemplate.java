@@ -1,46 +1,57 @@
 package com.direwolf20.buildinggadgets.common.network.packets;
 
 import com.direwolf20.buildinggadgets.client.ClientProxy;
+import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
 import com.direwolf20.buildinggadgets.common.tainted.template.Template;
 import com.direwolf20.buildinggadgets.common.tainted.template.TemplateIO;
 import com.direwolf20.buildinggadgets.common.tainted.template.TemplateKey;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
 import net.minecraft.network.FriendlyByteBuf;
+import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.fml.LogicalSide;
 import net.minecraftforge.network.NetworkEvent;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import javax.annotation.Nullable;
 import java.util.UUID;
 import java.util.function.Supplier;
 
 public final class SplitPacketUpdateTemplate extends UUIDPacket {
     private final Template template;
+    // the server's body version of the template, which the client reports back when asking for updates
+    @Nullable
+    private final Long bodyVersion;
 
     public SplitPacketUpdateTemplate(FriendlyByteBuf buffer) {
         super(buffer);
-        byte[] bytes = new byte[buffer.readableBytes()];
-        buffer.readBytes(bytes);
+        bodyVersion = buffer.readBoolean() ? buffer.readLong() : null;
         try {
-            template = TemplateIO.readTemplate(new ByteArrayInputStream(bytes), null);
+            template = TemplateIO.readTemplate(new ByteBufInputStream(buffer), null);
         } catch (TemplateReadException e) {
             throw new RuntimeException("Failed to read TemplateItem from buffer!", e);
         }
     }
 
     public SplitPacketUpdateTemplate(UUID id, Template template) {
+        this(id, template, null);
+    }
+
+    public SplitPacketUpdateTemplate(UUID id, Template template, @Nullable Long bodyVersion) {
         super(id);
         this.template = template;
+        this.bodyVersion = bodyVersion;
     }
 
     public void encode(FriendlyByteBuf buffer) {
         super.encode(buffer);
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        buffer.writeBoolean(bodyVersion != null);
+        if (bodyVersion != null)
+            buffer.writeLong(bodyVersion);
         try {
-            TemplateIO.writeTemplate(template, stream);
-            buffer.writeBytes(stream.toByteArray());
+            TemplateIO.writeTemplate(template, new ByteBufOutputStream(buffer), true, Config.GENERAL.networkCompression.get());
         } catch (TemplateWriteException e) {
             throw new RuntimeException("Failed to write TemplateItem during Packet Encoding!", e);
         }
@@ -49,9 +60,12 @@ public final class SplitPacketUpdateTemplate extends UUIDPacket {
     public void handle(Supplier<NetworkEvent.Context> contextSupplier) {
         contextSupplier.get().enqueueWork(() -> {
             if (contextSupplier.get().getDirection().getReceptionSide() == LogicalSide.CLIENT)
-                ClientProxy.CACHE_TEMPLATE_PROVIDER.setTemplate(new TemplateKey(getId()), template);
-            else
-                SaveManager.INSTANCE.getTemplateProvider().setTemplate(new TemplateKey(getId()), template);
+                ClientProxy.CACHE_TEMPLATE_PROVIDER.receiveTemplate(new TemplateKey(getId()), template, bodyVersion);
+            else {
+                ServerPlayer sender = contextSupplier.get().getSender();
+                if (sender != null)
+                    SaveManager.INSTANCE.getTemplateProvider().receiveTemplate(new TemplateKey(getId()), template, sender);
+            }
         });
 
         contextSupplier.get().setPacketHandled(true);
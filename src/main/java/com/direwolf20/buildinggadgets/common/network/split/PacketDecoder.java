@@ -1,84 +1,194 @@
 package com.direwolf20.buildinggadgets.common.network.split;
 
 import com.direwolf20.buildinggadgets.common.BuildingGadgets;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.google.common.base.Preconditions;
+import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import net.minecraft.network.FriendlyByteBuf;
 
-import java.util.LinkedList;
-import java.util.List;
-import java.util.ListIterator;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+import static com.direwolf20.buildinggadgets.common.network.split.PacketSplitManager.SPLIT_BORDER;
+
+/**
+ * Reassembles split messages. As every part carries the amount of parts, each session puts them into an array of that size
+ * as they arrive in any order, and the complete message is read from a composite view of all parts rather than a copy.
+ * <p>
+ * Sessions are kept per sender, as every connection counts its sessions on its own. To protect against senders which
+ * never complete their sessions, a sender may only have {@link Config.CategoryGeneral#maxSplitPacketSessions} sessions
+ * with at most {@link Config.CategoryGeneral#maxSplitPacketSize} MiB combined at once. As many senders could each stay
+ * within these limits, all senders together are limited to {@link Config.CategoryGeneral#maxTotalSplitPacketSessions}
+ * sessions and {@link Config.CategoryGeneral#maxTotalSplitPacketSize} MiB as well. Sessions which didn't receive a part for
+ * {@link Config.CategoryGeneral#splitPacketTimeout} seconds are discarded, and so are the sessions of players logging out.
+ * Decoding may be called from the network threads of multiple connections at once, hence it is synchronized.
+ */
 final class PacketDecoder<MSG> {
-    private final Cache<Short, PendingPacket> pendingPackets;
+    private final Map<SessionKey, PendingPacket> pendingPackets;
     private final Function<FriendlyByteBuf, MSG> decoder;
 
     PacketDecoder(Function<FriendlyByteBuf, MSG> decoder) {
-        pendingPackets = CacheBuilder.newBuilder()
-                .expireAfterAccess(1, TimeUnit.MINUTES)
-                .build();
+        this.pendingPackets = new LinkedHashMap<>();
         this.decoder = decoder;
     }
 
-    Optional<MSG> decode(SplitPacket packet) {
+    /**
+     * @param sender the player who sent the packet, or null if it was sent by the server
+     */
+    Optional<MSG> decode(SplitPacket packet, @Nullable UUID sender) {
+        SessionKey key = new SessionKey(sender, packet.getSessionId());
+        PendingPacket complete;
+        synchronized (this) {
+            long now = System.nanoTime();
+            expire(now);
+            try {
+                PendingPacket pending = pendingPackets.get(key);
+                if (pending == null) {
+                    pending = new PendingPacket(checkNewSession(packet, sender));
+                    pendingPackets.put(key, pending);
+                }
+                checkSize(packet, sender);
+                if (! pending.add(packet, now))
+                    return Optional.empty();
+                pendingPackets.remove(key);
+                complete = pending;
+            } catch (Exception e) {
+                BuildingGadgets.LOG.error("An error occurred whilst assembling packet {} in session {} of {} with index {} of {}. Discarding.",
+                        packet.getId(), packet.getSessionId(), sender != null ? sender : "the server", packet.getIndex(), packet.getCount(), e);
+                pendingPackets.remove(key);
+                return Optional.empty();
+            }
+        }
         try {
-            return pendingPackets.get(packet.getSessionId(), PendingPacket::new).add(packet);
+            return Optional.of(complete.assemble());
         } catch (Exception e) {
-            BuildingGadgets.LOG.error("An error occurred whilst assembling packet {} ins session {} with index {} which {}. Discarding.",
-                    packet.getId(), packet.getSessionId(), packet.getIndex(), packet.hasMore() ? "has follow up packets" : "no follow up packets", e);
-            pendingPackets.invalidate(packet.getSessionId());
+            BuildingGadgets.LOG.error("An error occurred whilst decoding packet {} from session {} of {}. Discarding.",
+                    packet.getId(), packet.getSessionId(), sender != null ? sender : "the server", e);
             return Optional.empty();
         }
     }
 
-    private final class PendingPacket {
-        private final List<SplitPacket> partialPackets;
-        private boolean receivedLast;
+    /**
+     * Discards the sessions which timed out, even if no further part arrives which would do so.
+     */
+    synchronized void expire() {
+        expire(System.nanoTime());
+    }
 
-        private PendingPacket() {
-            partialPackets = new LinkedList<>();
-        }
+    /**
+     * Discards all sessions of the given sender, as they can't complete anymore once it disconnected.
+     *
+     * @param sender the player whose sessions to discard, or null for those sent by the server
+     */
+    synchronized void discard(@Nullable UUID sender) {
+        pendingPackets.keySet().removeIf(key -> key.isFrom(sender));
+    }
 
-        private Optional<MSG> add(SplitPacket packet) {
-            if (! packet.hasMore())
-                receivedLast = true;
-            ListIterator<SplitPacket> it = partialPackets.listIterator();
-            while (it.hasNext() && packet != null) {
-                SplitPacket curPacket = it.next();
-                if (packet.getIndex() < curPacket.getIndex()) {
-                    it.set(packet);
-                    it.add(curPacket);
-                    packet = null;
-                }
+    private void expire(long now) {
+        long timeout = TimeUnit.SECONDS.toNanos(Config.GENERAL.splitPacketTimeout.get());
+        Iterator<Map.Entry<SessionKey, PendingPacket>> it = pendingPackets.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<SessionKey, PendingPacket> entry = it.next();
+            if (now - entry.getValue().lastReceived > timeout) {
+                BuildingGadgets.LOG.warn("Discarding session {} of {} after receiving {} of {} parts, as it timed out.",
+                        entry.getKey().session(), entry.getKey().sender() != null ? entry.getKey().sender() : "the server",
+                        entry.getValue().received, entry.getValue().parts.length);
+                it.remove();
             }
-            if (packet != null)
-                partialPackets.add(packet);
-            if (receivedLast)
-                return checkComplete();
-            return Optional.empty();
         }
+    }
 
-        private Optional<MSG> checkComplete() {
-            int index = 0;
-            for (SplitPacket packet : partialPackets) {
-                if (packet.getIndex() != index++)
-                    return Optional.empty();
-            }
-            return assemble();
+    /**
+     * @return the amount of parts of the new session
+     */
+    private int checkNewSession(SplitPacket packet, @Nullable UUID sender) {
+        int sessions = 0;
+        for (SessionKey key : pendingPackets.keySet()) {
+            if (key.isFrom(sender))
+                sessions++;
         }
+        int maxSessions = Config.GENERAL.maxSplitPacketSessions.get();
+        Preconditions.checkArgument(sessions < maxSessions, "Cannot have more than %s pending sessions at once!", maxSessions);
+        int maxTotalSessions = Config.GENERAL.maxTotalSplitPacketSessions.get();
+        Preconditions.checkArgument(pendingPackets.size() < maxTotalSessions,
+                "Cannot have more than %s pending sessions of all senders at once!", maxTotalSessions);
+        long maxParts = maxBytes() / SPLIT_BORDER + 1;
+        Preconditions.checkArgument(packet.getCount() > 0 && packet.getCount() <= maxParts,
+                "Cannot split a packet into %s parts, at most %s are allowed!", packet.getCount(), maxParts);
+        return packet.getCount();
+    }
 
-        private Optional<MSG> assemble() {
-            FriendlyByteBuf payloadBuffer = new FriendlyByteBuf(Unpooled.buffer(Short.MAX_VALUE, Integer.MAX_VALUE));
-            for (SplitPacket packet : partialPackets) {
-                FriendlyByteBuf payload = packet.getPayload();
-                payloadBuffer.writeBytes(payload);
-            }
-            return Optional.of(decoder.apply(payloadBuffer));
+    private void checkSize(SplitPacket packet, @Nullable UUID sender) {
+        Preconditions.checkArgument(packet.getPayload().readableBytes() <= SPLIT_BORDER,
+                "Part of %s bytes exceeds the maximum of %s!", packet.getPayload().readableBytes(), SPLIT_BORDER);
+        long bytes = packet.getPayload().readableBytes();
+        long totalBytes = bytes;
+        for (Map.Entry<SessionKey, PendingPacket> entry : pendingPackets.entrySet()) {
+            if (entry.getKey().isFrom(sender))
+                bytes += entry.getValue().bytes;
+            totalBytes += entry.getValue().bytes;
         }
+        Preconditions.checkArgument(bytes <= maxBytes(), "Pending sessions would exceed the maximum of %s bytes!", maxBytes());
+        Preconditions.checkArgument(totalBytes <= maxTotalBytes(),
+                "Pending sessions of all senders would exceed the maximum of %s bytes!", maxTotalBytes());
+    }
+
+    private static long maxBytes() {
+        return Config.GENERAL.maxSplitPacketSize.get() * 1024L * 1024L;
+    }
+
+    private static long maxTotalBytes() {
+        return Config.GENERAL.maxTotalSplitPacketSize.get() * 1024L * 1024L;
+    }
+
+    private record SessionKey(@Nullable UUID sender, short session) {
+        private boolean isFrom(@Nullable UUID sender) {
+            return sender != null ? sender.equals(this.sender) : this.sender == null;
+        }
+    }
 
+    private final class PendingPacket {
+        private final ByteBuf[] parts;
+        private int received;
+        private long bytes;
+        private long lastReceived;
+
+        private PendingPacket(int count) {
+            this.parts = new ByteBuf[count];
+            this.received = 0;
+            this.bytes = 0;
+        }
+
+        /**
+         * @return whether all parts have been received
+         */
+        private boolean add(SplitPacket packet, long now) {
+            Preconditions.checkArgument(packet.getCount() == parts.length,
+                    "Part claims the session has %s parts, but it has %s!", packet.getCount(), parts.length);
+            Preconditions.checkArgument(packet.getIndex() >= 0 && packet.getIndex() < parts.length,
+                    "Index %s is out of bounds for %s parts!", packet.getIndex(), parts.length);
+            Preconditions.checkArgument(parts[packet.getIndex()] == null, "Received part %s twice!", packet.getIndex());
+            parts[packet.getIndex()] = packet.getPayload();
+            received++;
+            bytes += packet.getPayload().readableBytes();
+            lastReceived = now;
+            return received == parts.length;
+        }
+
+        private MSG assemble() {
+            ByteBuf payload = Unpooled.wrappedBuffer(parts.length, parts);
+            try {
+                return decoder.apply(new FriendlyByteBuf(payload));
+            } finally {
+                payload.release();
+            }
+        }
     }
 }
@@ -1,12 +1,11 @@
 package com.direwolf20.buildinggadgets.common.network.split;
 
-import com.google.common.collect.AbstractIterator;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
 import net.minecraft.network.FriendlyByteBuf;
 
-import javax.annotation.Nonnull;
-import java.util.Iterator;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import static com.direwolf20.buildinggadgets.common.network.split.PacketSplitManager.SPLIT_BORDER;
 
@@ -21,41 +20,27 @@ final class PacketEncoder<MSG> {
         this.curSession = 0;
     }
 
-    Iterable<SplitPacket> encode(MSG msg) {
-        return new Iterable<SplitPacket>() { //save some memory by evaluating the copied buffers lazily
-            private short curSession = PacketEncoder.this.curSession++;
-
-            @Override
-            @Nonnull
-            public Iterator<SplitPacket> iterator() {
-                return new AbstractIterator<SplitPacket>() {
-                    private FriendlyByteBuf messageBuffer = new FriendlyByteBuf(Unpooled.buffer(Short.MAX_VALUE, Integer.MAX_VALUE));
-                    private int index = 0;
-
-                    {
-                        messageBuffer.markReaderIndex();
-                        messageBuffer.markWriterIndex();
-                        messageEncoder.accept(msg, messageBuffer);
-                        messageBuffer.resetReaderIndex();
-                    }
-
-                    @Override
-                    protected SplitPacket computeNext() {
-                        if (messageBuffer == null)
-                            return endOfData();
-                        FriendlyByteBuf payload;
-                        boolean hasMore = messageBuffer.readableBytes() > SPLIT_BORDER;
-                        if (hasMore) {
-                            payload = new FriendlyByteBuf(messageBuffer.copy(messageBuffer.readerIndex(), SPLIT_BORDER));
-                            messageBuffer.readerIndex(messageBuffer.readerIndex() + SPLIT_BORDER);
-                        } else {
-                            payload = new FriendlyByteBuf(messageBuffer.copy());
-                            messageBuffer = null; //we are finished - hand it to the GC
-                        }
-                        return new SplitPacket(id, index++, curSession, hasMore, payload);
-                    }
-                };
+    /**
+     * Encodes the message into a pooled buffer and passes slices of it to the consumer, instead of copying every part into
+     * a buffer of its own. The slices are only valid while the consumer is called - the channel encodes them into its own
+     * packet right away - and the pooled buffer is released once all of them were handed out.
+     */
+    void encode(MSG msg, Consumer<SplitPacket> consumer) {
+        short session = curSession++;
+        ByteBuf messageBuffer = PooledByteBufAllocator.DEFAULT.buffer(SPLIT_BORDER);
+        try {
+            messageEncoder.accept(msg, new FriendlyByteBuf(messageBuffer));
+            int count = Math.max(1, (messageBuffer.readableBytes() + SPLIT_BORDER - 1) / SPLIT_BORDER);
+            for (int index = 0; index < count; index++) {
+                ByteBuf payload = messageBuffer.readRetainedSlice(Math.min(messageBuffer.readableBytes(), SPLIT_BORDER));
+                try {
+                    consumer.accept(new SplitPacket(id, index, count, session, new FriendlyByteBuf(payload)));
+                } finally {
+                    payload.release();
+                }
             }
-        };
+        } finally {
+            messageBuffer.release();
+        }
     }
 }
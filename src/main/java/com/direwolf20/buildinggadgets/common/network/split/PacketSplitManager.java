@@ -9,9 +9,11 @@ import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.network.NetworkEvent;
 import net.minecraftforge.network.PacketDistributor;
 
+import javax.annotation.Nullable;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -55,6 +57,24 @@ public final class PacketSplitManager {
         handler.splitPackets(message, packetConsumer);
     }
 
+    /**
+     * Discards the sessions of all split packets which timed out.
+     */
+    public void expireSessions() {
+        for (PacketSplitHandler<?> handler : classToHandlerMap.values())
+            handler.decoder.expire();
+    }
+
+    /**
+     * Discards the partially received split packets of the given sender.
+     *
+     * @param sender the player whose packets to discard, or null for those sent by the server
+     */
+    public void discardSessionsOf(@Nullable UUID sender) {
+        for (PacketSplitHandler<?> handler : classToHandlerMap.values())
+            handler.decoder.discard(sender);
+    }
+
     public void encode(SplitPacket msg, FriendlyByteBuf buf) {
         msg.writeTo(buf);
     }
@@ -81,7 +101,8 @@ public final class PacketSplitManager {
         }
 
         private void handleSplit(SplitPacket msg, Supplier<NetworkEvent.Context> ctx) {
-            Optional<MSG> msgOpt = decoder.decode(msg);
+            ServerPlayer sender = ctx.get().getSender();
+            Optional<MSG> msgOpt = decoder.decode(msg, sender != null ? sender.getUUID() : null);
             msgOpt.ifPresent(packet -> {
                 handler.accept(packet, ctx);
                 ctx.get().setPacketHandled(true);
@@ -89,7 +110,7 @@ public final class PacketSplitManager {
         }
 
         private void splitPackets(MSG msg, Consumer<SplitPacket> consumer) {
-            encoder.encode(msg).forEach(consumer);
+            encoder.encode(msg, consumer);
         }
     }
 
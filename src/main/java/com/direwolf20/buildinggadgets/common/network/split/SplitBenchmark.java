@@ -0,0 +1,189 @@
+package com.direwolf20.buildinggadgets.common.network.split;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocatorMetric;
+import io.netty.buffer.Unpooled;
+import net.minecraft.network.FriendlyByteBuf;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static com.direwolf20.buildinggadgets.common.network.split.PacketSplitManager.SPLIT_BORDER;
+
+/**
+ * Compares splitting a payload by copying every part out of an unpooled buffer - as the {@link PacketEncoder} used to -
+ * with the slices of a pooled buffer it hands out now. Every part is written into the same output buffer, like the channel
+ * would encode it into a packet. Both are run once to warm up and then {@value ROUNDS} more times for the measurement.
+ * <p>
+ * Heap allocations are measured per thread, which is only supported on HotSpot - they are reported as -1 elsewhere. They
+ * don't include pooled or direct buffers, so the peak amount of buffer memory in use above what was in use before each
+ * round is measured as well, every time a part is handed to the channel. Buffer memory is taken from the metrics of the
+ * {@link PooledByteBufAllocator#DEFAULT default pooled allocator} and from the JVM's direct buffer pool, whichever grew more,
+ * as the same memory may show up in both. Pooled memory which stays reserved from an earlier round is reused without growing
+ * them, so it only shows up if a payload needs more than that.
+ */
+public final class SplitBenchmark {
+    private static final int ROUNDS = 5;
+
+    private SplitBenchmark() {}
+
+    public static Result run(int payloadBytes) {
+        byte[] payload = new byte[payloadBytes];
+        new Random(payloadBytes).nextBytes(payload);
+        ByteBuf out = Unpooled.buffer(SPLIT_BORDER + 16);
+        BufferMemory bufferMemory = new BufferMemory();
+        Consumer<SplitPacket> channel = packet -> {
+            bufferMemory.sample();
+            out.clear();
+            packet.writeTo(new FriendlyByteBuf(out));
+        };
+        PacketEncoder<byte[]> encoder = new PacketEncoder<>((msg, buf) -> buf.writeBytes(msg), 0);
+
+        copying(payload, channel);
+        encoder.encode(payload, channel);
+        Measurement copying = measure(() -> copying(payload, channel), bufferMemory);
+        Measurement slicing = measure(() -> encoder.encode(payload, channel), bufferMemory);
+        return new Result(payloadBytes, Math.max(1, (payloadBytes + SPLIT_BORDER - 1) / SPLIT_BORDER), copying, slicing);
+    }
+
+    private static void copying(byte[] msg, Consumer<SplitPacket> consumer) {
+        FriendlyByteBuf messageBuffer = new FriendlyByteBuf(Unpooled.buffer(Short.MAX_VALUE, Integer.MAX_VALUE));
+        messageBuffer.writeBytes(msg);
+        int count = Math.max(1, (messageBuffer.readableBytes() + SPLIT_BORDER - 1) / SPLIT_BORDER);
+        for (int index = 0; index < count; index++) {
+            FriendlyByteBuf part = new FriendlyByteBuf(messageBuffer.copy(messageBuffer.readerIndex(), Math.min(messageBuffer.readableBytes(), SPLIT_BORDER)));
+            messageBuffer.skipBytes(part.readableBytes());
+            consumer.accept(new SplitPacket(0, index, count, (short) 0, part));
+        }
+    }
+
+    private static Measurement measure(Runnable run, BufferMemory bufferMemory) {
+        long allocatedBefore = allocatedBytes();
+        long nanos = 0;
+        long peakBufferBytes = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            bufferMemory.reset();
+            long start = System.nanoTime();
+            run.run();
+            nanos += System.nanoTime() - start;
+            peakBufferBytes = Math.max(peakBufferBytes, bufferMemory.getPeakGrowth());
+        }
+        long allocatedAfter = allocatedBytes();
+        return new Measurement(nanos / ROUNDS, allocatedBefore >= 0 && allocatedAfter >= 0 ? (allocatedAfter - allocatedBefore) / ROUNDS : - 1, peakBufferBytes);
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemoryEnabled())
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return - 1;
+    }
+
+    /**
+     * Tracks the peak growth of the buffer memory in use since the last {@link #reset()}.
+     */
+    private static final class BufferMemory {
+        private final PooledByteBufAllocatorMetric pooled;
+        private final BufferPoolMXBean direct;
+        private long pooledBase;
+        private long directBase;
+        private long peakGrowth;
+
+        private BufferMemory() {
+            this.pooled = PooledByteBufAllocator.DEFAULT.metric();
+            this.direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                    .filter(pool -> "direct".equals(pool.getName()))
+                    .findFirst()
+                    .orElse(null);
+        }
+
+        private void reset() {
+            pooledBase = pooledBytes();
+            directBase = directBytes();
+            peakGrowth = 0;
+        }
+
+        private void sample() {
+            peakGrowth = Math.max(peakGrowth, Math.max(pooledBytes() - pooledBase, directBytes() - directBase));
+        }
+
+        private long getPeakGrowth() {
+            return peakGrowth;
+        }
+
+        private long pooledBytes() {
+            return pooled.usedHeapMemory() + pooled.usedDirectMemory();
+        }
+
+        private long directBytes() {
+            return direct != null ? direct.getMemoryUsed() : 0;
+        }
+    }
+
+    public static final class Measurement {
+        private final long nanos;
+        private final long allocatedBytes;
+        private final long bufferBytes;
+
+        private Measurement(long nanos, long allocatedBytes, long bufferBytes) {
+            this.nanos = nanos;
+            this.allocatedBytes = allocatedBytes;
+            this.bufferBytes = bufferBytes;
+        }
+
+        /**
+         * @return the average time it took to split the payload once
+         */
+        public double getMillis() {
+            return nanos / 1e6;
+        }
+
+        /**
+         * @return the average bytes allocated on the heap to split the payload once, or -1 if this cannot be measured
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return the most pooled or direct buffer memory in use at once to split the payload, above what was in use before
+         */
+        public long getBufferBytes() {
+            return bufferBytes;
+        }
+    }
+
+    public static final class Result {
+        private final int payloadBytes;
+        private final int parts;
+        private final Measurement copying;
+        private final Measurement slicing;
+
+        private Result(int payloadBytes, int parts, Measurement copying, Measurement slicing) {
+            this.payloadBytes = payloadBytes;
+            this.parts = parts;
+            this.copying = copying;
+            this.slicing = slicing;
+        }
+
+        public int getPayloadBytes() {
+            return payloadBytes;
+        }
+
+        public int getParts() {
+            return parts;
+        }
+
+        public Measurement getCopying() {
+            return copying;
+        }
+
+        public Measurement getSlicing() {
+            return slicing;
+        }
+    }
+}
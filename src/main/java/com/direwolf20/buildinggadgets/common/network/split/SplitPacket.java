@@ -6,34 +6,35 @@ import net.minecraft.network.FriendlyByteBuf;
 public final class SplitPacket {
     private final int id;
     private final int index;
+    private final int count;
     private final short sessionId;
-    private final boolean hasMore;
     private final FriendlyByteBuf payload;
 
     static SplitPacket readFrom(FriendlyByteBuf buffer) {
         int id = buffer.readVarInt();
         int index = buffer.readVarInt();
+        int count = buffer.readVarInt();
         short sessionId = buffer.readShort();
-        boolean hasMore = buffer.readBoolean();
         FriendlyByteBuf payload = new FriendlyByteBuf(Unpooled.buffer(buffer.readableBytes(), Integer.MAX_VALUE));
         buffer.readBytes(payload);
-        return new SplitPacket(id, index, sessionId, hasMore, payload);
+        return new SplitPacket(id, index, count, sessionId, payload);
     }
 
-    SplitPacket(int id, int index, short sessionId, boolean hasMore, FriendlyByteBuf payload) {
+    SplitPacket(int id, int index, int count, short sessionId, FriendlyByteBuf payload) {
         this.id = id;
         this.index = index;
+        this.count = count;
         this.sessionId = sessionId;
-        this.hasMore = hasMore;
         this.payload = payload;
     }
 
     void writeTo(FriendlyByteBuf buffer) {
         buffer.writeVarInt(id);
         buffer.writeVarInt(index);
+        buffer.writeVarInt(count);
         buffer.writeShort(sessionId);
-        buffer.writeBoolean(hasMore);
-        buffer.writeBytes(payload);
+        //don't move the reader index, so that the same packet can be written more than once
+        buffer.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
     }
 
     public int getId() {
@@ -44,12 +45,19 @@ public final class SplitPacket {
         return index;
     }
 
+    /**
+     * @return how many parts the message was split into
+     */
+    public int getCount() {
+        return count;
+    }
+
     public short getSessionId() {
         return sessionId;
     }
 
     public boolean hasMore() {
-        return hasMore;
+        return index < count - 1;
     }
 
     public FriendlyByteBuf getPayload() {
@@ -0,0 +1,119 @@
+package com.direwolf20.buildinggadgets.common.tainted.building;
+
+import com.direwolf20.buildinggadgets.common.tainted.template.SerialisationSupport;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.shorts.ShortOpenHashSet;
+import it.unimi.dsi.fastutil.shorts.ShortSet;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.network.protocol.game.ClientboundSectionBlocksUpdatePacket;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.level.block.DoorBlock;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.levelgen.Heightmap;
+import net.minecraft.world.level.lighting.LevelLightEngine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes {@link BlockState BlockStates} directly into the {@link LevelChunkSection} palettes, bypassing {@link net.minecraft.world.level.Level#setBlock(BlockPos, BlockState, int)}.
+ * Writes are buffered per section and applied on {@link #flush()}: each touched section is written in one go, its light checks
+ * are queued afterwards and the changes are sent to clients as one {@link ClientboundSectionBlocksUpdatePacket} per section.
+ * <p>
+ * No neighbour or shape updates are performed for written blocks. Only states without a {@link net.minecraft.world.level.block.entity.BlockEntity}
+ * can be written this way, see {@link #canWrite(BlockState, BlockData)}.
+ */
+public final class BulkSectionWriter {
+    private static final Heightmap.Types[] HEIGHTMAPS = {
+            Heightmap.Types.MOTION_BLOCKING,
+            Heightmap.Types.MOTION_BLOCKING_NO_LEAVES,
+            Heightmap.Types.OCEAN_FLOOR,
+            Heightmap.Types.WORLD_SURFACE
+    };
+
+    /**
+     * @param current the {@link BlockState} currently at the target position
+     * @param data    the {@link BlockData} to write
+     * @return whether the given {@link BlockData} can replace the given {@link BlockState} via a bulk write
+     */
+    public static boolean canWrite(BlockState current, BlockData data) {
+        BlockState state = data.getState();
+        return ! current.hasBlockEntity() && ! state.hasBlockEntity()
+                && data.getTileData().getSerializer() == SerialisationSupport.dummyDataSerializer()
+                && ! (state.getBlock() instanceof DoorBlock);
+    }
+
+    private final ServerLevel level;
+    private final Long2ObjectMap<List<PlacementTarget>> pending;
+    private int written;
+
+    public BulkSectionWriter(ServerLevel level) {
+        this.level = level;
+        this.pending = new Long2ObjectLinkedOpenHashMap<>();
+        this.written = 0;
+    }
+
+    public void write(PlacementTarget target) {
+        pending.computeIfAbsent(SectionPos.asLong(target.getPos()), k -> new ArrayList<>()).add(target);
+    }
+
+    /**
+     * @return the amount of blocks which were changed by this writer so far
+     */
+    public int getWritten() {
+        return written;
+    }
+
+    public void flush() {
+        for (Long2ObjectMap.Entry<List<PlacementTarget>> entry : pending.long2ObjectEntrySet())
+            writeSection(SectionPos.of(entry.getLongKey()), entry.getValue());
+        pending.clear();
+    }
+
+    private void writeSection(SectionPos sectionPos, List<PlacementTarget> targets) {
+        LevelChunk chunk = level.getChunk(sectionPos.x(), sectionPos.z());
+        LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionPos.y()));
+        boolean wasEmpty = section.hasOnlyAir();
+        ShortSet changed = new ShortOpenHashSet();
+        List<BlockPos> lightChecks = new ArrayList<>();
+        for (PlacementTarget target : targets) {
+            BlockPos pos = target.getPos();
+            BlockState state = target.getData().getState();
+            BlockState old = section.setBlockState(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15, state);
+            if (old == state)
+                continue;
+            changed.add(SectionPos.sectionRelativePos(pos));
+            for (Heightmap.Types type : HEIGHTMAPS)
+                chunk.getOrCreateHeightmapUnprimed(type).update(pos.getX() & 15, pos.getY(), pos.getZ() & 15, state);
+            level.onBlockStateChange(pos, old, state);
+            if (affectsLight(pos, old, state))
+                lightChecks.add(pos);
+        }
+        if (changed.isEmpty())
+            return;
+        written += changed.size();
+        chunk.setUnsaved(true);
+
+        LevelLightEngine lightEngine = level.getChunkSource().getLightEngine();
+        if (wasEmpty != section.hasOnlyAir())
+            lightEngine.updateSectionStatus(sectionPos, section.hasOnlyAir());
+        lightChecks.forEach(lightEngine::checkBlock);
+
+        ClientboundSectionBlocksUpdatePacket packet = new ClientboundSectionBlocksUpdatePacket(sectionPos, changed, section, false);
+        for (ServerPlayer player : level.getChunkSource().chunkMap.getPlayers(chunk.getPos(), false))
+            player.connection.send(packet);
+    }
+
+    // same condition as Level#setBlock uses to decide whether light needs to be re-checked
+    private boolean affectsLight(BlockPos pos, BlockState old, BlockState state) {
+        return old.getLightBlock(level, pos) != state.getLightBlock(level, pos)
+                || old.getLightEmission(level, pos) != state.getLightEmission(level, pos)
+                || old.useShapeForLightOcclusion()
+                || state.useShapeForLightOcclusion();
+    }
+}
@@ -6,13 +6,17 @@ import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.IItemIndex;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.InventoryHelper;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.MatchResult;
+import com.direwolf20.buildinggadgets.common.tainted.inventory.MaterialReservation;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.MaterialList;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.objects.IUniqueObject;
 import com.direwolf20.buildinggadgets.common.util.CommonUtils;
 import com.direwolf20.buildinggadgets.common.util.exceptions.CapabilityNotPresentException;
 import com.google.common.collect.ImmutableMultiset;
 import com.google.common.collect.Multiset;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction;
+import net.minecraft.nbt.CompoundTag;
 import net.minecraft.world.entity.player.Player;
 import net.minecraft.world.phys.HitResult;
 import net.minecraftforge.common.MinecraftForge;
@@ -22,7 +26,11 @@ import net.minecraftforge.energy.IEnergyStorage;
 import net.minecraftforge.event.ForgeEventFactory;
 import net.minecraftforge.event.level.BlockEvent;
 
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
 import java.util.function.ToIntFunction;
 
 /**
@@ -35,6 +43,10 @@ public final class PlacementChecker {
     private final IItemIndex index;
     private final boolean firePlaceEvents;
     private final BiPredicate<BuildContext, PlacementTarget> placeCheck;
+    @Nullable
+    private MaterialReservation reservation;
+    @Nullable
+    private BooleanSupplier persisted;
 
     public PlacementChecker(LazyOptional<IEnergyStorage> energyCap, ToIntFunction<PlacementTarget> energyFun, IItemIndex index, BiPredicate<BuildContext, PlacementTarget> placeCheck, boolean firePlaceEvents) {
         this.energyCap = energyCap;
@@ -42,6 +54,68 @@ public final class PlacementChecker {
         this.index = index;
         this.firePlaceEvents = firePlaceEvents;
         this.placeCheck = placeCheck;
+        this.reservation = null;
+        this.persisted = null;
+    }
+
+    /**
+     * Reserves the materials for all given {@link BlockData} in one bulk match, so that checking individual positions
+     * mostly only needs to deduct from the {@link MaterialReservation}. Server thread only.
+     *
+     * @param counts      how often each {@link BlockData} is going to be checked
+     * @param positions   an example position for each {@link BlockData}, to evaluate its required materials at
+     * @see #releaseReservation()
+     */
+    public void reserveMaterials(BuildContext context, Object2IntMap<BlockData> counts, Map<BlockData, BlockPos> positions) {
+        releaseReservation();
+        Map<BlockData, MaterialList> materials = new HashMap<>();
+        for (Map.Entry<BlockData, BlockPos> entry : positions.entrySet()) {
+            HitResult targetRayTrace = context.getPlayer() != null ? CommonUtils.fakeRayTrace(context.getPlayer().position(), entry.getValue()) : null;
+            materials.put(entry.getKey(), new PlacementTarget(entry.getValue(), entry.getKey()).getRequiredMaterials(context, targetRayTrace));
+        }
+        reservation = MaterialReservation.reserve(index, context.getPlayer(), materials, counts);
+        if (persisted != null)
+            reservation.setPersisted(persisted);
+    }
+
+    /**
+     * Restores the reservation saved with a checkpoint, so that a resumed placement doesn't lose it. Server thread only.
+     *
+     * @see #serializeReservation()
+     */
+    public void restoreReservation(BuildContext context, CompoundTag nbt) {
+        releaseReservation();
+        reservation = MaterialReservation.restore(index, context.getPlayer(), nbt);
+        if (persisted != null)
+            reservation.setPersisted(persisted);
+    }
+
+    /**
+     * @return the current reservation, to be saved with a checkpoint
+     */
+    public CompoundTag serializeReservation() {
+        return reservation != null ? reservation.serialize() : new CompoundTag();
+    }
+
+    /**
+     * Applies to the current and all future reservations of this checker.
+     *
+     * @see MaterialReservation#setPersisted(BooleanSupplier)
+     */
+    public void persistReservation(BooleanSupplier persisted) {
+        this.persisted = persisted;
+        if (reservation != null)
+            reservation.setPersisted(persisted);
+    }
+
+    /**
+     * Returns all items which are still reserved to the {@link IItemIndex}. Must be called once the placement is done.
+     */
+    public void releaseReservation() {
+        if (reservation != null) {
+            reservation.release();
+            reservation = null;
+        }
     }
 
     /**
@@ -59,13 +133,19 @@ public final class PlacementChecker {
         if (!isCreative && storage.extractPower(energy, true) != energy)
             return new CheckResult(MatchResult.failure(), insertedItems, false, false);
 
-        HitResult targetRayTrace = null;
-        if (context.getPlayer() != null) {
-            Player player = context.getPlayer();
-            targetRayTrace = CommonUtils.fakeRayTrace(player.position(), target.getPos());
+        MaterialList materials = reservation != null ? reservation.getMaterials(target.getData()) : null;
+        if (materials == null) {
+            HitResult targetRayTrace = null;
+            if (context.getPlayer() != null) {
+                Player player = context.getPlayer();
+                targetRayTrace = CommonUtils.fakeRayTrace(player.position(), target.getPos());
+            }
+            materials = target.getRequiredMaterials(context, targetRayTrace);
         }
-        MaterialList materials = target.getRequiredMaterials(context, targetRayTrace);
-        MatchResult match = index.tryMatch(materials);
+        MatchResult match = reservation != null ? reservation.tryMatch(materials) : null;
+        boolean reserved = match != null;
+        if (!reserved)
+            match = index.tryMatch(materials);
         boolean usePaste = false;
         if (!match.isSuccess()) {
             match = index.tryMatch(InventoryHelper.PASTE_LIST);
@@ -95,7 +175,7 @@ public final class PlacementChecker {
         boolean success = true;
         if (!isCreative)
             success = storage.extractPower(energy, false) == energy;
-        success = success && index.applyMatch(match);
+        success = success && (reserved ? reservation.applyMatch(match) : index.applyMatch(match));
         return new CheckResult(match, insertedItems, success, usePaste);
     }
 
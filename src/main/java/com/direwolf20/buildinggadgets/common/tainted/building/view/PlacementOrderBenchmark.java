@@ -0,0 +1,227 @@
+package com.direwolf20.buildinggadgets.common.tainted.building.view;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.tainted.building.Region;
+import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.TileSupport;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+
+/**
+ * Compares the order in which a copied template is placed - the order the copy produced, layer by layer across the whole
+ * area - with the order of a {@link SectionOrderedBuildView}. A cube with every other block set is used as the template.
+ * <p>
+ * For both orders the amount of chunk section and chunk switches between consecutive targets is counted, as every switch
+ * misses the chunk lookup cache and separates the light and heightmap updates of one section. For the section order
+ * the time it takes to sort the targets is measured as well.
+ * <p>
+ * Afterwards {@link #measurePlacement(Result, ServerLevel, BlockPos)} places the part of the cube within the first
+ * {@value #MAX_PLACED_SIZE} blocks of each axis in both orders into the world and times the
+ * {@link ServerLevel#setBlock(BlockPos, BlockState, int)} calls, including their chunk lookups. Only positions which are air
+ * are placed, and they are reset to air after each order. Neither the placement nor the reset notifies neighbours or clients,
+ * so falling blocks and fluids next to the cube don't react, but light is still recomputed for the changed positions.
+ */
+public final class PlacementOrderBenchmark {
+    private static final BlockState PLACED = Blocks.STONE.defaultBlockState();
+    private static final BlockState CLEARED = Blocks.AIR.defaultBlockState();
+    /**
+     * The edge length of the part of the cube which is placed into the world. Every position is set six times, so this keeps
+     * the work done synchronously on the server thread at around a hundred thousand block changes.
+     */
+    public static final int MAX_PLACED_SIZE = 32;
+    private static final int FLAGS = Block.UPDATE_INVISIBLE | Block.UPDATE_KNOWN_SHAPE;
+
+    private PlacementOrderBenchmark() {}
+
+    /**
+     * @param size    the edge length of the cube
+     * @param context the context of the created views, which are never placed
+     */
+    public static Result run(int size, BuildContext context) {
+        Map<BlockPos, BlockData> map = new LinkedHashMap<>();
+        BlockData data = new BlockData(PLACED, TileSupport.dummyTileEntityData());
+        Random random = new Random(size);
+        for (int y = 0; y < size; y++) {
+            for (int z = 0; z < size; z++) {
+                for (int x = 0; x < size; x++) {
+                    if (random.nextBoolean())
+                        map.put(new BlockPos(x, y, z), data);
+                }
+            }
+        }
+        IBuildView copyOrder = PositionalBuildView.createUnsafe(context, map, new Region(0, 0, 0, size - 1, size - 1, size - 1));
+
+        Switches copy = count(copyOrder.spliterator());
+        SectionOrderedBuildView sectionOrder = SectionOrderedBuildView.of(copyOrder.copy());
+        long start = System.nanoTime();
+        sectionOrder.sort(Runnable::run).join();
+        long sortNanos = System.nanoTime() - start;
+        Switches section = count(sectionOrder.spliterator());
+        return new Result(map.size(), size, copy, section, sortNanos);
+    }
+
+    /**
+     * Server thread only. Places the targets of both orders at the given origin - moved down if the cube wouldn't fit below
+     * the build height - and records the time spent per order in the result. Light updates are queued by the placement and
+     * processed later in the tick, so they aren't part of the measured time.
+     *
+     * @return false without changing anything if a chunk of the placed area isn't loaded, as the benchmark must neither load
+     * nor generate chunks
+     */
+    public static boolean measurePlacement(Result result, ServerLevel level, BlockPos origin) {
+        int placedSize = Math.min(result.size, MAX_PLACED_SIZE);
+        BlockPos min = new BlockPos(origin.getX(), Math.max(level.getMinBuildHeight(), Math.min(origin.getY(), level.getMaxBuildHeight() - placedSize)), origin.getZ());
+        if (! isLoaded(level, min, placedSize))
+            return false;
+        List<BlockPos> copyOrder = freePositions(result.copyOrder, level, min, placedSize);
+        List<BlockPos> sectionOrder = freePositions(result.sectionOrder, level, min, placedSize);
+        result.placedBlocks = copyOrder.size();
+        // untimed round, so that the first measured order doesn't pay for warming up
+        place(level, copyOrder);
+        result.copyOrder.placeNanos = place(level, copyOrder);
+        result.sectionOrder.placeNanos = place(level, sectionOrder);
+        return true;
+    }
+
+    private static boolean isLoaded(ServerLevel level, BlockPos min, int size) {
+        for (int x = SectionPos.blockToSectionCoord(min.getX()); x <= SectionPos.blockToSectionCoord(min.getX() + size - 1); x++) {
+            for (int z = SectionPos.blockToSectionCoord(min.getZ()); z <= SectionPos.blockToSectionCoord(min.getZ() + size - 1); z++) {
+                if (! level.hasChunk(x, z))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<BlockPos> freePositions(Switches order, ServerLevel level, BlockPos min, int size) {
+        List<BlockPos> res = new ArrayList<>();
+        for (BlockPos pos : order.positions) {
+            if (pos.getX() >= size || pos.getY() >= size || pos.getZ() >= size)
+                continue;
+            BlockPos target = pos.offset(min);
+            if (level.getBlockState(target).isAir())
+                res.add(target);
+        }
+        return res;
+    }
+
+    private static long place(ServerLevel level, List<BlockPos> positions) {
+        long start = System.nanoTime();
+        for (BlockPos pos : positions)
+            level.setBlock(pos, PLACED, FLAGS);
+        long res = System.nanoTime() - start;
+        for (BlockPos pos : positions)
+            level.setBlock(pos, CLEARED, FLAGS);
+        return res;
+    }
+
+    private static Switches count(Spliterator<PlacementTarget> targets) {
+        Switches res = new Switches();
+        targets.forEachRemaining(target -> {
+            BlockPos pos = target.getPos();
+            res.positions.add(pos);
+            long section = SectionPos.asLong(SectionPos.blockToSectionCoord(pos.getX()), SectionPos.blockToSectionCoord(pos.getY()), SectionPos.blockToSectionCoord(pos.getZ()));
+            long chunk = SectionPos.asLong(SectionPos.blockToSectionCoord(pos.getX()), 0, SectionPos.blockToSectionCoord(pos.getZ()));
+            if (res.targets++ > 0) {
+                if (section != res.lastSection)
+                    res.sectionSwitches++;
+                if (chunk != res.lastChunk)
+                    res.chunkSwitches++;
+            }
+            res.lastSection = section;
+            res.lastChunk = chunk;
+        });
+        return res;
+    }
+
+    public static final class Switches {
+        private final List<BlockPos> positions;
+        private int targets;
+        private int sectionSwitches;
+        private int chunkSwitches;
+        private long lastSection;
+        private long lastChunk;
+        private long placeNanos;
+
+        private Switches() {
+            this.positions = new ArrayList<>();
+            this.placeNanos = - 1;
+        }
+
+        /**
+         * @return how often two consecutive targets were in different chunk sections
+         */
+        public int getSectionSwitches() {
+            return sectionSwitches;
+        }
+
+        /**
+         * @return how often two consecutive targets were in different chunks
+         */
+        public int getChunkSwitches() {
+            return chunkSwitches;
+        }
+
+        /**
+         * @return how long placing the targets in this order took, or -1 if the placement wasn't measured
+         */
+        public double getPlaceMillis() {
+            return placeNanos >= 0 ? placeNanos / 1e6 : - 1;
+        }
+    }
+
+    public static final class Result {
+        private final int blocks;
+        private final int size;
+        private final Switches copyOrder;
+        private final Switches sectionOrder;
+        private final long sortNanos;
+        private int placedBlocks;
+
+        private Result(int blocks, int size, Switches copyOrder, Switches sectionOrder, long sortNanos) {
+            this.blocks = blocks;
+            this.size = size;
+            this.copyOrder = copyOrder;
+            this.sectionOrder = sectionOrder;
+            this.sortNanos = sortNanos;
+            this.placedBlocks = 0;
+        }
+
+        public int getBlocks() {
+            return blocks;
+        }
+
+        /**
+         * @return how many of the blocks were placed into the world, as the others weren't air
+         */
+        public int getPlacedBlocks() {
+            return placedBlocks;
+        }
+
+        public Switches getCopyOrder() {
+            return copyOrder;
+        }
+
+        public Switches getSectionOrder() {
+            return sectionOrder;
+        }
+
+        /**
+         * @return how long it took to sort the targets into section order
+         */
+        public double getSortMillis() {
+            return sortNanos / 1e6;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.direwolf20.buildinggadgets.common.tainted.building.view;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.Region;
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * An immutable copy of the {@link BlockState BlockStates} within a {@link Region} of a {@link Level}, backed by copies of the
+ * {@link PalettedContainer palettes} of all intersecting {@link LevelChunkSection LevelChunkSections}.
+ * <p>
+ * Capturing must happen on the server thread, but afterwards the snapshot can be read from any thread. {@link BlockEntity BlockEntities}
+ * can not be read off-thread, so whatever data is required from them has to be captured into {@link BlockData} when creating the snapshot.
+ * <p>
+ * Large regions can be captured across several ticks with a {@link Capture}. The sections are then copied at different
+ * times, so the snapshot is not consistent across sections and its users have to re-check the world before acting on it.
+ */
+public final class RegionSnapshot {
+    private static final BlockState AIR = Blocks.AIR.defaultBlockState();
+
+    /**
+     * @param level            The {@link Level} to capture. Chunks which are not loaded will be loaded.
+     * @param region           The {@link Region} to capture.
+     * @param blockEntityCapture Creates the {@link BlockData} to remember for a {@link BlockEntity}. Called on the server thread
+     *                         for all {@link BlockEntity BlockEntities} within the {@link Region}. May return null to ignore the
+     *                         {@link BlockEntity}.
+     */
+    public static RegionSnapshot capture(Level level, Region region, BiFunction<BlockState, BlockEntity, BlockData> blockEntityCapture) {
+        Capture capture = begin(level, region, blockEntityCapture);
+        capture.captureNext(Integer.MAX_VALUE);
+        return capture.build();
+    }
+
+    /**
+     * Like {@link #capture(Level, Region, BiFunction)}, but nothing is captured until {@link Capture#captureNext(int)} is called.
+     */
+    public static Capture begin(Level level, Region region, BiFunction<BlockState, BlockEntity, BlockData> blockEntityCapture) {
+        return new Capture(level, region, blockEntityCapture);
+    }
+
+    private final Region region;
+    private final Long2ObjectMap<PalettedContainer<BlockState>> sections;
+    private final Long2ObjectMap<BlockData> blockEntityData;
+
+    private RegionSnapshot(Region region, Long2ObjectMap<PalettedContainer<BlockState>> sections, Long2ObjectMap<BlockData> blockEntityData) {
+        this.region = region;
+        this.sections = sections;
+        this.blockEntityData = blockEntityData;
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    public BlockState getBlockState(int x, int y, int z) {
+        PalettedContainer<BlockState> states = sections.get(SectionPos.asLong(
+                SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(y), SectionPos.blockToSectionCoord(z)));
+        if (states == null)
+            return AIR;
+        return states.get(x & 15, y & 15, z & 15);
+    }
+
+    /**
+     * @return The {@link BlockData} captured for the {@link BlockEntity} at the given position or null if there was none.
+     */
+    @Nullable
+    public BlockData getBlockEntityData(int x, int y, int z) {
+        return blockEntityData.get(BlockPos.asLong(x, y, z));
+    }
+
+    /**
+     * Captures a {@link RegionSnapshot} section by section, column after column. Server thread only.
+     */
+    public static final class Capture {
+        private final Level level;
+        private final Region region;
+        private final BiFunction<BlockState, BlockEntity, BlockData> blockEntityCapture;
+        private final Long2ObjectMap<PalettedContainer<BlockState>> sections;
+        private final Long2ObjectMap<BlockData> blockEntityData;
+        private final int minSectionX;
+        private final int minSectionY;
+        private final int minSectionZ;
+        private final int sectionsX;
+        private final int sectionsY;
+        private final int total;
+        private int next;
+
+        private Capture(Level level, Region region, BiFunction<BlockState, BlockEntity, BlockData> blockEntityCapture) {
+            this.level = level;
+            this.region = region;
+            this.blockEntityCapture = blockEntityCapture;
+            this.sections = new Long2ObjectOpenHashMap<>();
+            this.blockEntityData = new Long2ObjectOpenHashMap<>();
+            this.minSectionX = SectionPos.blockToSectionCoord(region.getMinX());
+            this.minSectionY = SectionPos.blockToSectionCoord(Math.max(region.getMinY(), level.getMinBuildHeight()));
+            this.minSectionZ = SectionPos.blockToSectionCoord(region.getMinZ());
+            this.sectionsX = SectionPos.blockToSectionCoord(region.getMaxX()) - minSectionX + 1;
+            this.sectionsY = Math.max(0, SectionPos.blockToSectionCoord(Math.min(region.getMaxY(), level.getMaxBuildHeight() - 1)) - minSectionY + 1);
+            int sectionsZ = SectionPos.blockToSectionCoord(region.getMaxZ()) - minSectionZ + 1;
+            this.total = sectionsX * sectionsY * sectionsZ;
+            this.next = 0;
+        }
+
+        /**
+         * Captures up to the given amount of sections. The {@link BlockEntity BlockEntities} of a chunk are captured
+         * together with its lowest section.
+         *
+         * @return whether everything was captured
+         */
+        public boolean captureNext(int maxSections) {
+            for (int i = 0; i < maxSections && next < total; i++, next++) {
+                int column = next / sectionsY;
+                int sx = minSectionX + column % sectionsX;
+                int sy = minSectionY + next % sectionsY;
+                int sz = minSectionZ + column / sectionsX;
+                LevelChunk chunk = level.getChunk(sx, sz);
+                if (sy == minSectionY)
+                    captureBlockEntities(chunk);
+                LevelChunkSection section = chunk.getSection(level.getSectionIndexFromSectionY(sy));
+                if (! section.hasOnlyAir())
+                    sections.put(SectionPos.asLong(sx, sy, sz), section.getStates().copy());
+            }
+            return isDone();
+        }
+
+        private void captureBlockEntities(LevelChunk chunk) {
+            for (Map.Entry<BlockPos, BlockEntity> entry : chunk.getBlockEntities().entrySet()) {
+                if (! region.contains(entry.getKey()))
+                    continue;
+                BlockData data = blockEntityCapture.apply(entry.getValue().getBlockState(), entry.getValue());
+                if (data != null)
+                    blockEntityData.put(entry.getKey().asLong(), data);
+            }
+        }
+
+        public boolean isDone() {
+            return next >= total;
+        }
+
+        public RegionSnapshot build() {
+            Preconditions.checkState(isDone(), "Cannot build a partially captured snapshot!");
+            return new RegionSnapshot(region, sections, blockEntityData);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.direwolf20.buildinggadgets.common.tainted.building.view;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.tainted.building.Region;
+import it.unimi.dsi.fastutil.Arrays;
+import net.minecraft.core.BlockPos;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link IBuildView} which produces the {@link PlacementTarget PlacementTargets} of another {@link IBuildView} grouped by
+ * chunk section: chunk column by chunk column, bottom-up and within one y-level ordered by z and then x. Placing blocks in
+ * this order keeps consecutive writes in the same chunk section, so chunk lookups stay cached and the light and heightmap
+ * updates of one section happen together.
+ * <p>
+ * The targets of the backing view are collected and sorted once and reused by every {@link #spliterator()} until the view
+ * is translated. As that is expensive for large views, the sort can be started on another thread via {@link #sort(Executor)},
+ * otherwise the first {@link #spliterator()} call sorts on the calling thread.
+ */
+public final class SectionOrderedBuildView implements IBuildView {
+    private static final int COORD_OFFSET = 1 << 21;
+    private static final int Y_OFFSET = 1 << 11;
+
+    public static SectionOrderedBuildView of(IBuildView view) {
+        if (view instanceof SectionOrderedBuildView)
+            return (SectionOrderedBuildView) view;
+        return new SectionOrderedBuildView(Objects.requireNonNull(view));
+    }
+
+    /**
+     * Packs chunk x (22 bits), chunk z (22 bits), y (12 bits) and the position within the chunk (4 bits each) so that the
+     * unsigned order of the keys is the placement order.
+     */
+    public static long sortKey(BlockPos pos) {
+        return ((long) ((pos.getX() >> 4) + COORD_OFFSET) << 42)
+                | ((long) ((pos.getZ() >> 4) + COORD_OFFSET) << 20)
+                | ((long) ((pos.getY() + Y_OFFSET) & 0xFFF) << 8)
+                | ((pos.getZ() & 15) << 4)
+                | (pos.getX() & 15);
+    }
+
+    private final IBuildView view;
+    @Nullable
+    private CompletableFuture<PlacementTarget[]> sorted;
+
+    private SectionOrderedBuildView(IBuildView view) {
+        this.view = view;
+        this.sorted = null;
+    }
+
+    @Override
+    public Spliterator<PlacementTarget> spliterator() {
+        return Spliterators.spliterator(sorted(Runnable::run).join(), Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    /**
+     * Starts sorting the targets on the given {@link Executor}, unless they are already sorted or being sorted. The backing
+     * view must be safe to iterate from that {@link Executor}, as is the case for views of a
+     * {@link com.direwolf20.buildinggadgets.common.tainted.template.Template}.
+     *
+     * @return a future completing once {@link #spliterator()} no longer needs to sort
+     */
+    public CompletableFuture<?> sort(Executor executor) {
+        return sorted(executor);
+    }
+
+    private synchronized CompletableFuture<PlacementTarget[]> sorted(Executor executor) {
+        if (sorted == null)
+            sorted = CompletableFuture.supplyAsync(this::collectSorted, executor);
+        return sorted;
+    }
+
+    private PlacementTarget[] collectSorted() {
+        List<PlacementTarget> collected = new ArrayList<>(Math.max(view.estimateSize(), 16));
+        view.spliterator().forEachRemaining(collected::add);
+        PlacementTarget[] targets = collected.toArray(new PlacementTarget[0]);
+        long[] keys = new long[targets.length];
+        for (int i = 0; i < targets.length; i++)
+            keys[i] = sortKey(targets[i].getPos());
+        Arrays.quickSort(0, targets.length, (a, b) -> Long.compareUnsigned(keys[a], keys[b]), (a, b) -> {
+            long key = keys[a];
+            keys[a] = keys[b];
+            keys[b] = key;
+            PlacementTarget target = targets[a];
+            targets[a] = targets[b];
+            targets[b] = target;
+        });
+        return targets;
+    }
+
+    @Override
+    public synchronized SectionOrderedBuildView translateTo(BlockPos pos) {
+        view.translateTo(pos);
+        sorted = null;
+        return this;
+    }
+
+    @Override
+    public int estimateSize() {
+        return view.estimateSize();
+    }
+
+    @Override
+    public SectionOrderedBuildView copy() {
+        return new SectionOrderedBuildView(view.copy());
+    }
+
+    @Override
+    public Region getBoundingBox() {
+        return view.getBoundingBox();
+    }
+
+    @Override
+    public BuildContext getContext() {
+        return view.getContext();
+    }
+}
@@ -0,0 +1,85 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.server.ServerLifecycleHooks;
+
+/**
+ * Scales the configured step counts of all {@link SteppedScheduler SteppedSchedulers} according to the servers rolling
+ * average tick time. While the server is below the configured scale-up MSPT the factor slowly grows, once it exceeds the
+ * back-off MSPT the factor is halved. In between the factor is kept as is, so that it doesn't oscillate around a single threshold.
+ * As the average lags behind the actual tick times, the factor is changed at most once per {@value AVERAGE_TICKS} ticks - the
+ * ticks the average is taken over - so that the average reflects the previous change before the next one is made. Otherwise a
+ * single lag spike would drive the factor down to the floor and a quiet server would drive it up to the ceiling before
+ * the first additional work even shows up in the average.
+ * <p>
+ * The factor is updated lazily at most once per tick and only ever accessed from the server thread.
+ */
+final class AdaptiveStepController {
+    private static final double SCALE_UP = 1.1;
+    private static final double BACK_OFF = 0.5;
+    // the amount of ticks MinecraftServer#getAverageTickTime averages over
+    private static final int AVERAGE_TICKS = 100;
+
+    private static int currentTick = - 1;
+    private static int lastChangeTick = - AVERAGE_TICKS;
+    private static double factor = 1;
+    private static boolean reportedInconsistent = false;
+
+    private AdaptiveStepController() {}
+
+    /**
+     * @return whether adaptive steps are enabled and configured consistently. An inconsistent configuration is reported once.
+     */
+    static boolean isEnabled() {
+        if (! Config.GADGETS.ADAPTIVE_STEPS.enabled.get())
+            return false;
+        double scaleUp = Config.GADGETS.ADAPTIVE_STEPS.scaleUpMspt.get();
+        double backOff = Config.GADGETS.ADAPTIVE_STEPS.backOffMspt.get();
+        if (scaleUp > backOff) {
+            if (! reportedInconsistent)
+                BuildingGadgets.LOG.error("Adaptive steps are disabled, as 'Scale Up MSPT' ({}) is above 'Back Off MSPT' ({})!", scaleUp, backOff);
+            reportedInconsistent = true;
+            return false;
+        }
+        reportedInconsistent = false;
+        return true;
+    }
+
+    /**
+     * Forgets the factor of the stopped server.
+     */
+    static void reset() {
+        currentTick = - 1;
+        lastChangeTick = - AVERAGE_TICKS;
+        factor = 1;
+    }
+
+    /**
+     * @param steps The configured amount of steps
+     * @return the amount of steps to perform in this tick, at least 1
+     */
+    static int scale(int steps) {
+        update();
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.round(steps * factor)));
+    }
+
+    private static void update() {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null || server.getTickCount() == currentTick)
+            return;
+        currentTick = server.getTickCount();
+        if (currentTick - lastChangeTick < AVERAGE_TICKS)
+            return;
+        double mspt = server.getAverageTickTime();
+        if (mspt >= Config.GADGETS.ADAPTIVE_STEPS.backOffMspt.get())
+            factor *= BACK_OFF;
+        else if (mspt < Config.GADGETS.ADAPTIVE_STEPS.scaleUpMspt.get())
+            factor *= SCALE_UP;
+        else
+            return;
+        lastChangeTick = currentTick;
+        factor = Math.max(Config.GADGETS.ADAPTIVE_STEPS.floor.get(), Math.min(Config.GADGETS.ADAPTIVE_STEPS.ceiling.get(), factor));
+    }
+}
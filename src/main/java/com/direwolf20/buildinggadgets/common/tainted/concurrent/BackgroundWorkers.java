@@ -0,0 +1,36 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shared pool of daemon threads for work which doesn't need to touch the world, like scanning snapshots or
+ * computing material lists. Tasks submitted here must never access live world state!
+ */
+public final class BackgroundWorkers {
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            PARALLELISM,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("BuildingGadgets-Worker-%d")
+                    .setDaemon(true)
+                    .setUncaughtExceptionHandler((t, e) -> BuildingGadgets.LOG.error("Uncaught exception in {}!", t.getName(), e))
+                    .build()
+    );
+
+    private BackgroundWorkers() {}
+
+    public static ExecutorService executor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * @return the amount of threads of the pool, to decide into how many tasks work should be split
+     */
+    public static int parallelism() {
+        return PARALLELISM;
+    }
+}
@@ -16,13 +16,15 @@ import java.util.Spliterator;
 import java.util.function.BiConsumer;
 
 public final class CopyScheduler extends SteppedScheduler {
-    public static void scheduleCopy(BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher, IBuildView worldView, int steps) {
+    public static CopyScheduler scheduleCopy(BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher, IBuildView worldView, int steps) {
         Preconditions.checkArgument(steps > 0);
-        ServerTickingScheduler.runTicked(new CopyScheduler(
+        CopyScheduler res = new CopyScheduler(
                 Objects.requireNonNull(finisher),
                 Objects.requireNonNull(worldView),
                 steps
-        ));
+        );
+        ServerTickingScheduler.runTicked(ownerOf(worldView.getContext()), "Copy", res);
+        return res;
     }
 
     private final BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher;
@@ -32,7 +34,7 @@ public final class CopyScheduler extends SteppedScheduler {
     private final BuildContext context;
 
     private CopyScheduler(BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher, IBuildView worldView, int steps) {
-        super(steps);
+        super(steps, worldView.estimateSize());
         this.finisher = finisher;
         this.targets = worldView.spliterator();
         this.builder = ImmutableMap.builder();
@@ -54,6 +56,9 @@ public final class CopyScheduler extends SteppedScheduler {
 
     @Override
     protected void onFinish() {
+        // a cancelled copy would only produce a partial Template
+        if (isCancelled())
+            return;
         finisher.accept(builder.build(), regionBuilder != null ? regionBuilder.build() : Region.singleZero());
     }
 }
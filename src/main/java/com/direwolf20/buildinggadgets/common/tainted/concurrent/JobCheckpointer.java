@@ -0,0 +1,181 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.Checkpoint;
+import com.direwolf20.buildinggadgets.common.tainted.save.SaveManager;
+import com.direwolf20.buildinggadgets.common.tainted.save.Undo;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Persists the progress of a running job into the {@link JobCheckpointSave} every {@code Job Checkpoint Interval} steps.
+ * If the job records an {@link Undo}, everything recorded since the last checkpoint is written as a new segment on the
+ * {@link BackgroundWorkers}, so the cost of a checkpoint only depends on the amount of work done since the previous one.
+ * <p>
+ * When the server is stopping, all active checkpointers write a final checkpoint synchronously.
+ */
+@EventBusSubscriber
+public final class JobCheckpointer {
+    private static final Set<JobCheckpointer> ACTIVE = new HashSet<>();
+
+    private final UUID id;
+    private final ServerLevel level;
+    @Nullable
+    private final Undo.Builder undoBuilder;
+    private int cursor;
+    private int segments;
+    private int sinceLastCheckpoint;
+    private boolean failed;
+    private CompletableFuture<Void> writes;
+    @Nullable
+    private Supplier<CompoundTag> reservation;
+
+    /**
+     * @param undoBuilder The builder recording the job's undo data, which must already {@link Undo.Builder#trackDelta() track its delta}.
+     *                    Null if the job doesn't record anything.
+     */
+    JobCheckpointer(Checkpoint checkpoint, ServerLevel level, @Nullable Undo.Builder undoBuilder) {
+        this.id = checkpoint.getId();
+        this.level = level;
+        this.undoBuilder = undoBuilder;
+        this.cursor = checkpoint.getCursor();
+        this.segments = checkpoint.getSegments();
+        this.sinceLastCheckpoint = 0;
+        this.failed = false;
+        this.writes = CompletableFuture.completedFuture(null);
+        this.reservation = null;
+        ACTIVE.add(this);
+    }
+
+    /**
+     * Saves the materials reserved by the job with every checkpoint. Must be called again whenever the job reserved
+     * different materials, so that they are saved right away instead of only with the next checkpoint.
+     */
+    void trackReservation(Supplier<CompoundTag> reservation) {
+        this.reservation = reservation;
+        checkpoint(false);
+    }
+
+    /**
+     * @return whether the job's checkpoints are still being saved
+     */
+    boolean isPersisting() {
+        return ! failed;
+    }
+
+    /**
+     * Called after each completed step of the job.
+     */
+    void step() {
+        cursor++;
+        int interval = Config.GADGETS.checkpointInterval.get();
+        if (++ sinceLastCheckpoint >= interval && interval > 0)
+            checkpoint(false);
+    }
+
+    /**
+     * Called once the job completed. Removes the checkpoint and all of its data.
+     */
+    void finish() {
+        ACTIVE.remove(this);
+        JobCheckpointSave save = SaveManager.INSTANCE.getJobCheckpointSave();
+        if (save != null)
+            save.remove(id);
+        MinecraftServer server = level.getServer();
+        writes.whenCompleteAsync((v, e) -> JobCheckpointSave.deleteSegments(server, id), BackgroundWorkers.executor());
+    }
+
+    private void checkpoint(boolean sync) {
+        sinceLastCheckpoint = 0;
+        if (failed)
+            return;
+        MinecraftServer server = level.getServer();
+        int cursorAt = cursor;
+        CompoundTag reservedAt = reservation != null ? reservation.get() : null;
+        Undo delta = undoBuilder != null ? undoBuilder.drainDelta(level) : null;
+        if (delta == null || delta.getUndoData().isEmpty()) {
+            int segmentsAt = segments;
+            if (sync)
+                updateSave(cursorAt, segmentsAt, reservedAt);
+            else
+                writes = writes.thenRun(() -> server.execute(() -> updateSave(cursorAt, segmentsAt, reservedAt)));
+            return;
+        }
+        appendSegment(delta, cursorAt, reservedAt, sync);
+    }
+
+    /**
+     * Writes the given {@link Undo} as the next segment, independent of the delta recorded by the job. Used by jobs which
+     * know all of their undo data up front.
+     */
+    void appendSegment(Undo undo) {
+        if (! failed)
+            appendSegment(undo, cursor, reservation != null ? reservation.get() : null, false);
+    }
+
+    private void appendSegment(Undo delta, int cursorAt, @Nullable CompoundTag reservedAt, boolean sync) {
+        MinecraftServer server = level.getServer();
+        int index = segments++;
+        int segmentsAt = segments;
+        if (sync) {
+            writes.join();
+            if (writeSegment(server, index, delta))
+                updateSave(cursorAt, segmentsAt, reservedAt);
+            return;
+        }
+        writes = writes.thenRunAsync(() -> {
+            if (writeSegment(server, index, delta))
+                server.execute(() -> updateSave(cursorAt, segmentsAt, reservedAt));
+        }, BackgroundWorkers.executor());
+    }
+
+    private boolean writeSegment(MinecraftServer server, int index, Undo delta) {
+        try {
+            JobCheckpointSave.writeSegment(server, id, index, delta);
+            return true;
+        } catch (IOException e) {
+            BuildingGadgets.LOG.error("Failed to write checkpoint segment {} of job {}. The job will no longer be checkpointed!", index, id, e);
+            server.execute(() -> {
+                failed = true;
+                JobCheckpointSave save = SaveManager.INSTANCE.getJobCheckpointSave();
+                if (save != null)
+                    save.remove(id);
+            });
+            return false;
+        }
+    }
+
+    private void updateSave(int cursorAt, int segmentsAt, @Nullable CompoundTag reservedAt) {
+        JobCheckpointSave save = SaveManager.INSTANCE.getJobCheckpointSave();
+        if (save != null && ! failed)
+            save.update(id, cursorAt, segmentsAt, reservedAt);
+    }
+
+    @SubscribeEvent
+    public static void onServerStopping(ServerStoppingEvent event) {
+        for (JobCheckpointer checkpointer : new ArrayList<>(ACTIVE)) {
+            try {
+                checkpointer.writes.join();
+            } catch (RuntimeException e) {
+                BuildingGadgets.LOG.error("Failed to finish writing checkpoints of job {}.", checkpointer.id, e);
+            }
+            checkpointer.checkpoint(true);
+        }
+        ACTIVE.clear();
+    }
+}
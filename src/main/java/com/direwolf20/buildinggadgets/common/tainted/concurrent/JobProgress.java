@@ -0,0 +1,83 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+/**
+ * Progress of a {@link ProgressingJob}: how many of its estimated total steps were processed, the throughput since it
+ * started and from that the estimated time until it completes.
+ * <p>
+ * The total is only an estimate (see {@link com.direwolf20.buildinggadgets.common.tainted.building.view.IBuildView#estimateSize()}),
+ * so the processed amount may exceed it. A total of 0 means that the total is unknown.
+ */
+public final class JobProgress {
+    private final int total;
+    private final long startNanos;
+    private int processed;
+    private int skipped;
+
+    JobProgress(int total) {
+        this.total = Math.max(total, 0);
+        this.startNanos = System.nanoTime();
+        this.processed = 0;
+        this.skipped = 0;
+    }
+
+    void step() {
+        processed++;
+    }
+
+    /**
+     * Sets the processed amount, for jobs which don't advance in single steps on the server thread.
+     */
+    void advanceTo(int processed) {
+        this.processed = Math.max(this.processed, processed);
+    }
+
+    /**
+     * Counts steps which were already processed before this job started (for example by a resumed job), without them
+     * affecting the throughput.
+     */
+    void skip(int steps) {
+        processed += steps;
+        skipped += steps;
+    }
+
+    public int getProcessed() {
+        return processed;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the processed fraction in the range [0, 1], or 0 if the total is unknown
+     */
+    public float getFraction() {
+        return total > 0 ? Math.min(1f, processed / (float) total) : 0f;
+    }
+
+    /**
+     * @return the average amount of steps processed per second since the job started
+     */
+    public double getThroughput() {
+        long elapsed = System.nanoTime() - startNanos;
+        return elapsed > 0 ? (processed - skipped) * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * @return the estimated milliseconds until this job completes or -1 if no estimate can be given yet
+     */
+    public long getEtaMillis() {
+        double throughput = getThroughput();
+        if (total <= 0 || throughput <= 0)
+            return -1;
+        return (long) (Math.max(total - processed, 0) * 1000 / throughput);
+    }
+
+    @Override
+    public String toString() {
+        return "JobProgress{" +
+                "processed=" + processed +
+                ", total=" + total +
+                '}';
+    }
+}
@@ -0,0 +1,176 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.items.AbstractGadget;
+import com.direwolf20.buildinggadgets.common.items.GadgetCopyPaste;
+import com.direwolf20.buildinggadgets.common.tainted.inventory.MaterialReservation;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.Checkpoint;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.JobType;
+import com.direwolf20.buildinggadgets.common.tainted.save.Undo;
+import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
+import com.google.common.collect.ImmutableList;
+import net.minecraft.core.registries.Registries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.resources.ResourceKey;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.server.level.ServerPlayer;
+import net.minecraft.world.item.Item;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.registries.ForgeRegistries;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Resumes the jobs found in the {@link JobCheckpointSave} after the server started. The partial undo data of each job is
+ * read on the {@link BackgroundWorkers} and the job itself is resumed as soon as its owner is online.
+ * <p>
+ * If the job cannot be resumed (for example because the gadget which started it is no longer in its owner's inventory),
+ * whatever the job had done up to its last checkpoint is pushed to the gadget's undo history instead.
+ */
+public final class JobResumer implements BooleanSupplier {
+    private static final int CHECK_INTERVAL = 20;
+
+    public static void resumeAll(MinecraftServer server, JobCheckpointSave save) {
+        ImmutableList<Checkpoint> checkpoints = save.getCheckpoints();
+        if (checkpoints.isEmpty())
+            return;
+        BuildingGadgets.LOG.info("Found {} interrupted jobs, they will be resumed once their owners are online.", checkpoints.size());
+        List<PendingJob> pending = new ArrayList<>(checkpoints.size());
+        for (Checkpoint checkpoint : checkpoints)
+            pending.add(new PendingJob(checkpoint, CompletableFuture.supplyAsync(() -> readSegments(server, checkpoint), BackgroundWorkers.executor())));
+        ServerTickingScheduler.runTicked(null, "Job Resumer", new JobResumer(server, save, pending));
+    }
+
+    private static List<Undo> readSegments(MinecraftServer server, Checkpoint checkpoint) {
+        try {
+            return JobCheckpointSave.readSegments(server, checkpoint);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private final MinecraftServer server;
+    private final JobCheckpointSave save;
+    private final List<PendingJob> pending;
+
+    private JobResumer(MinecraftServer server, JobCheckpointSave save, List<PendingJob> pending) {
+        this.server = server;
+        this.save = save;
+        this.pending = pending;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        if (server.getTickCount() % CHECK_INTERVAL != 0)
+            return true;
+        for (Iterator<PendingJob> it = pending.iterator(); it.hasNext(); ) {
+            PendingJob job = it.next();
+            if (! save.contains(job.checkpoint.getId())) {
+                it.remove();
+                continue;
+            }
+            if (! job.segments.isDone())
+                continue;
+            ServerPlayer player = server.getPlayerList().getPlayer(job.checkpoint.getOwner());
+            if (player == null)
+                continue;
+            it.remove();
+            resume(player, job);
+        }
+        return ! pending.isEmpty();
+    }
+
+    private void resume(ServerPlayer player, PendingJob job) {
+        Checkpoint checkpoint = job.checkpoint;
+        List<Undo> segments;
+        try {
+            segments = job.segments.join();
+        } catch (CompletionException e) {
+            BuildingGadgets.LOG.error("Failed to read the checkpoint data of job {}. It will be discarded!", checkpoint.getId(), e);
+            discard(player, checkpoint);
+            return;
+        }
+        Item item = ForgeRegistries.ITEMS.getValue(checkpoint.getGadgetItem());
+        ServerLevel level = server.getLevel(ResourceKey.create(Registries.DIMENSION, checkpoint.getDim()));
+        if (! (item instanceof AbstractGadget) || level == null) {
+            BuildingGadgets.LOG.warn("Cannot resume job {}, as {} or {} no longer exist. It will be discarded!",
+                    checkpoint.getId(), checkpoint.getGadgetItem(), checkpoint.getDim());
+            discard(player, checkpoint);
+            return;
+        }
+        AbstractGadget gadget = (AbstractGadget) item;
+        ItemStack stack = findGadget(player, gadget, checkpoint.getGadgetId());
+        boolean resumed = false;
+        if (stack != null) {
+            if (checkpoint.getType() == JobType.PLACEMENT && gadget instanceof GadgetCopyPaste)
+                resumed = ((GadgetCopyPaste) gadget).resumePlacement(level, player, stack, checkpoint, segments);
+            else if (checkpoint.getType() == JobType.UNDO && ! segments.isEmpty())
+                resumed = gadget.resumeUndo(level, player, stack, checkpoint, segments.get(0));
+        }
+        if (resumed) {
+            BuildingGadgets.LOG.debug("Resumed {} job {} of {} at step {}.", checkpoint.getType(), checkpoint.getId(), player.getGameProfile().getName(), checkpoint.getCursor());
+            return;
+        }
+        BuildingGadgets.LOG.debug("Could not resume {} job {}, pushing its partial undo instead.", checkpoint.getType(), checkpoint.getId());
+        Undo undo = partialUndo(level, checkpoint, segments);
+        if (undo != null)
+            gadget.pushUndo(checkpoint.getGadgetId(), undo);
+        discard(player, checkpoint);
+    }
+
+    /**
+     * @return what the job had done (for placements) or still had to do (for undos) at its last checkpoint
+     */
+    @Nullable
+    private static Undo partialUndo(ServerLevel level, Checkpoint checkpoint, List<Undo> segments) {
+        if (segments.isEmpty())
+            return null;
+        if (checkpoint.getType() == JobType.UNDO)
+            return UndoScheduler.remaining(segments.get(0), checkpoint.getCursor());
+        Undo.Builder builder = Undo.builder();
+        segments.forEach(builder::merge);
+        return builder.build(level);
+    }
+
+    @Nullable
+    private static ItemStack findGadget(ServerPlayer player, AbstractGadget gadget, UUID gadgetId) {
+        for (int i = 0; i < player.getInventory().getContainerSize(); i++) {
+            ItemStack stack = player.getInventory().getItem(i);
+            if (stack.getItem() != gadget)
+                continue;
+            CompoundTag nbt = stack.getTag();
+            if (nbt != null && nbt.hasUUID(NBTKeys.GADGET_UUID) && gadgetId.equals(nbt.getUUID(NBTKeys.GADGET_UUID)))
+                return stack;
+        }
+        return null;
+    }
+
+    /**
+     * Also gives the materials reserved by the job back to its owner, as nothing is going to consume them anymore.
+     */
+    private void discard(ServerPlayer player, Checkpoint checkpoint) {
+        MaterialReservation.giveBack(player, checkpoint.getReserved());
+        save.remove(checkpoint.getId());
+        BackgroundWorkers.executor().execute(() -> JobCheckpointSave.deleteSegments(server, checkpoint.getId()));
+    }
+
+    private static final class PendingJob {
+        private final Checkpoint checkpoint;
+        private final CompletableFuture<List<Undo>> segments;
+
+        private PendingJob(Checkpoint checkpoint, CompletableFuture<List<Undo>> segments) {
+            this.checkpoint = checkpoint;
+            this.segments = segments;
+        }
+    }
+}
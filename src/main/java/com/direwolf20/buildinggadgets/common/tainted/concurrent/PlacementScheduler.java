@@ -1,62 +1,214 @@
 package com.direwolf20.buildinggadgets.common.tainted.concurrent;
 
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
 import com.direwolf20.buildinggadgets.common.blocks.EffectBlock;
 import com.direwolf20.buildinggadgets.common.blocks.EffectBlock.Mode;
+import com.direwolf20.buildinggadgets.common.config.Config;
 import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.BulkSectionWriter;
 import com.direwolf20.buildinggadgets.common.tainted.building.PlacementChecker;
 import com.direwolf20.buildinggadgets.common.tainted.building.PlacementChecker.CheckResult;
 import com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget;
 import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.TileSupport;
 import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
 import com.direwolf20.buildinggadgets.common.tainted.building.view.IBuildView;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.SectionOrderedBuildView;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.Checkpoint;
 import com.direwolf20.buildinggadgets.common.tainted.save.Undo;
 import com.direwolf20.buildinggadgets.common.tainted.save.Undo.Builder;
 import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.block.DoorBlock;
 import net.minecraft.world.level.block.state.properties.BlockStateProperties;
 import net.minecraft.world.level.block.state.properties.DoubleBlockHalf;
 
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
 public final class PlacementScheduler extends SteppedScheduler {
     public static PlacementScheduler schedulePlacement(IBuildView view, PlacementChecker checker, int steps) {
+        return schedulePlacement(view, checker, steps, Config.GADGETS.sectionOrderedPlacement.get());
+    }
+
+    public static PlacementScheduler schedulePlacement(IBuildView view, PlacementChecker checker, int steps, boolean sectionOrdered) {
         Preconditions.checkArgument(steps > 0);
 
+        Objects.requireNonNull(view);
         PlacementScheduler res = new PlacementScheduler(
-                Objects.requireNonNull(view),
+                sectionOrdered ? SectionOrderedBuildView.of(view) : view,
                 Objects.requireNonNull(checker),
-                steps);
+                steps,
+                sectionOrdered);
 
-        ServerTickingScheduler.runTicked(res);
+        ServerTickingScheduler.runTicked(ownerOf(res.view.getContext()), "Placement", res);
         return res;
     }
 
     private final IBuildView view;
-    private final Spliterator<PlacementTarget> spliterator;
+    // sorting a section ordered view happens on the BackgroundWorkers, the targets are only iterated once that is done
+    private final CompletableFuture<?> prepared;
+    @Nullable
+    private Spliterator<PlacementTarget> spliterator;
+    private int resumeCursor;
     private final PlacementChecker checker;
     private boolean lastWasSuccess;
     private Consumer<PlacementScheduler> finisher;
     private Undo.Builder undoBuilder;
+    private final boolean sectionOrdered;
+    private final long startNanos;
+    private int ticks;
+    private int placed;
+    private int processed;
+    @Nullable
+    private JobCheckpointer checkpointer;
+    @Nullable
+    private CompletableFuture<MaterialCounts> materialCounts;
+    @Nullable
+    private BulkSectionWriter bulkWriter;
 
-    private PlacementScheduler(IBuildView view, PlacementChecker checker, int steps) {
-        super(steps);
+    private PlacementScheduler(IBuildView view, PlacementChecker checker, int steps, boolean sectionOrdered) {
+        super(steps, view.estimateSize());
         this.checker = checker;
         this.view = view;
-        this.spliterator = view.spliterator();
+        this.prepared = view instanceof SectionOrderedBuildView ? ((SectionOrderedBuildView) view).sort(BackgroundWorkers.executor()) : CompletableFuture.completedFuture(null);
+        this.spliterator = null;
+        this.resumeCursor = 0;
         this.undoBuilder = Undo.builder();
         this.finisher = p -> {};
+        this.sectionOrdered = sectionOrdered;
+        this.startNanos = System.nanoTime();
+        this.ticks = 0;
+        this.placed = 0;
+        this.processed = 0;
+        this.checkpointer = null;
+        this.materialCounts = null;
+        this.bulkWriter = null;
+    }
+
+    /**
+     * Places blocks without a {@link net.minecraft.world.level.block.entity.BlockEntity} directly into the chunk sections
+     * instead of spawning an {@link EffectBlock} for each of them (see {@link BulkSectionWriter}). Place events are still
+     * fired and the placement is still recorded for undo.
+     */
+    public PlacementScheduler withBulkWrites() {
+        this.bulkWriter = new BulkSectionWriter(view.getContext().getServerWorld());
+        return this;
+    }
+
+    /**
+     * Aggregates the materials required by this placement on the {@link BackgroundWorkers} and reserves them in one bulk match
+     * before the first block is placed (see {@link PlacementChecker#reserveMaterials(BuildContext, Object2IntMap, Map)}).
+     * The {@link IBuildView} must be safe to iterate from another thread, as is the case for views of a
+     * {@link com.direwolf20.buildinggadgets.common.tainted.template.Template}.
+     * <p>
+     * Must be called before this scheduler is run for the first time and after {@link #withCheckpoint(Checkpoint, List)}.
+     */
+    public PlacementScheduler withMaterialPrePass() {
+        Preconditions.checkState(ticks == 0, "Cannot pre-pass an already started placement!");
+        int skip = resumeCursor;
+        materialCounts = prepared.thenApplyAsync(v -> MaterialCounts.count(view, skip), BackgroundWorkers.executor());
+        return this;
     }
+
+    /**
+     * Persists the progress of this placement into the given {@link Checkpoint}. If the {@link Checkpoint} already has progress
+     * (because the placement is being resumed), the targets processed before are skipped and the given partial {@link Undo Undos}
+     * are merged into this placements {@link Undo}. Materials reserved by the {@link PlacementChecker} are saved with the
+     * {@link Checkpoint} and restored from it, as they are no longer in the player's inventory.
+     * <p>
+     * Must be called before this scheduler is run for the first time.
+     */
+    public PlacementScheduler withCheckpoint(Checkpoint checkpoint, List<Undo> restoredUndos) {
+        Preconditions.checkState(checkpointer == null && ticks == 0, "Cannot checkpoint an already started placement!");
+        resumeCursor = checkpoint.getCursor();
+        restoredUndos.forEach(undoBuilder::merge);
+        undoBuilder.trackDelta();
+        checkpointer = new JobCheckpointer(checkpoint, view.getContext().getServerWorld(), undoBuilder);
+        if (! checkpoint.getReserved().isEmpty())
+            checker.restoreReservation(view.getContext(), checkpoint.getReserved());
+        checker.persistReservation(checkpointer::isPersisting);
+        checkpointer.trackReservation(checker::serializeReservation);
+        return this;
+    }
+
+    public boolean isSectionOrdered() {
+        return sectionOrdered;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        ticks++;
+        if (spliterator == null && ! isCancelled()) {
+            if (! prepared.isDone())
+                return true;
+            openSpliterator();
+        }
+        if (materialCounts != null) {
+            if (! materialCounts.isDone() && ! isCancelled())
+                return true;
+            reserveMaterials();
+        }
+        boolean res = super.getAsBoolean();
+        if (bulkWriter != null)
+            bulkWriter.flush();
+        return res;
+    }
+
+    /**
+     * Skips the targets processed before, if this placement is being resumed.
+     */
+    private void openSpliterator() {
+        spliterator = view.spliterator();
+        while (processed < resumeCursor && spliterator.tryAdvance(t -> {}))
+            processed++;
+        getProgress().skip(processed);
+    }
+
+    private void reserveMaterials() {
+        CompletableFuture<MaterialCounts> future = materialCounts;
+        materialCounts = null;
+        if (isCancelled())
+            return;
+        try {
+            MaterialCounts counts = future.join();
+            checker.reserveMaterials(view.getContext(), counts.counts, counts.positions);
+            if (checkpointer != null)
+                checkpointer.trackReservation(checker::serializeReservation);
+        } catch (CompletionException e) {
+            BuildingGadgets.LOG.error("Failed to aggregate required materials, falling back to per block matching.", e);
+        }
+    }
+
     @Override
     protected void onFinish() {
+        BuildingGadgets.LOG.debug("Placement of {} blocks ({}) took {} ticks and {} ms.", placed,
+                sectionOrdered ? "section ordered" : "unordered", ticks, (System.nanoTime() - startNanos) / 1_000_000);
+        checker.releaseReservation();
+        if (bulkWriter != null) {
+            bulkWriter.flush();
+            BuildingGadgets.LOG.debug("Wrote {} blocks directly into chunk sections.", bulkWriter.getWritten());
+        }
+        if (checkpointer != null)
+            checkpointer.finish();
         finisher.accept(this);
     }
 
     @Override
     protected StepResult advance() {
-        if (! spliterator.tryAdvance(this::checkTarget))
+        if (spliterator == null || ! spliterator.tryAdvance(this::checkTarget))
             return StepResult.END;
+        processed++;
+        if (checkpointer != null)
+            checkpointer.step();
         return lastWasSuccess ? StepResult.SUCCESS : StepResult.FAILURE;
     }
 
@@ -73,7 +225,12 @@ public final class PlacementScheduler extends SteppedScheduler {
         CheckResult res = checker.checkPositionWithResult(view.getContext(), target, false);
         lastWasSuccess = res.isSuccess();
         if (lastWasSuccess) {
+            placed++;
             undoBuilder.record(view.getContext().getWorld(), target.getPos(), target.getData(), res.getMatch().getChosenOption(), res.getInsertedItems());
+            if (bulkWriter != null && ! res.isUsingPaste() && BulkSectionWriter.canWrite(view.getContext().getWorld().getBlockState(target.getPos()), target.getData())) {
+                bulkWriter.write(target);
+                return;
+            }
             EffectBlock.spawnEffectBlock(view.getContext(), target, Mode.PLACE, res.isUsingPaste());
 
             BuildContext context = view.getContext();
@@ -83,4 +240,24 @@ public final class PlacementScheduler extends SteppedScheduler {
             }
         }
     }
+
+    private static final class MaterialCounts {
+        /**
+         * Worker thread.
+         */
+        private static MaterialCounts count(IBuildView view, int skip) {
+            MaterialCounts res = new MaterialCounts();
+            Spliterator<PlacementTarget> targets = view.spliterator();
+            for (int i = 0; i < skip && targets.tryAdvance(t -> {}); i++)
+                ;
+            targets.forEachRemaining(t -> {
+                if (res.counts.addTo(t.getData(), 1) == 0)
+                    res.positions.put(t.getData(), t.getPos());
+            });
+            return res;
+        }
+
+        private final Object2IntOpenHashMap<BlockData> counts = new Object2IntOpenHashMap<>();
+        private final Map<BlockData, BlockPos> positions = new HashMap<>();
+    }
 }
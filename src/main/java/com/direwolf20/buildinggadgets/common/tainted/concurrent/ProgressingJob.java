@@ -0,0 +1,16 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * A job which reports its {@link JobProgress} to the owning player and can be cancelled by them. Other than arbitrary jobs,
+ * these are notified when {@link ServerTickingScheduler.Job#cancel() cancelled}, so that they can finish cleanly.
+ */
+public interface ProgressingJob extends BooleanSupplier {
+    JobProgress getProgress();
+
+    /**
+     * Stops this job at the next opportunity. It is still run until it returns false, so that it can clean up.
+     */
+    void cancel();
+}
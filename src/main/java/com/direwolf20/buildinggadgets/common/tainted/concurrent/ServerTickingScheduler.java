@@ -1,24 +1,49 @@
 package com.direwolf20.buildinggadgets.common.tainted.concurrent;
 
-import net.minecraftforge.common.MinecraftForge;
+import com.google.common.collect.ImmutableList;
 import net.minecraftforge.event.TickEvent.Phase;
 import net.minecraftforge.event.TickEvent.ServerTickEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
 
-import java.util.EnumSet;
+import javax.annotation.Nullable;
+import java.util.*;
 import java.util.function.BooleanSupplier;
 
+/**
+ * Central executor for all jobs which need to run on the server thread over multiple ticks. Instead of registering one
+ * event handler per job, all jobs are kept in one queue, which is drained by a single {@link ServerTickEvent} handler.
+ * <p>
+ * Jobs without an owner are run every tick. Jobs owned by a player are run round-robin: each tick every player gets one of
+ * his/her jobs advanced and the player served first changes every tick, so that no player can starve others by starting
+ * lots of jobs (especially relevant if a {@link TickTimeBudget} is configured).
+ * <p>
+ * All methods of this class must only be called from the server thread.
+ */
+@EventBusSubscriber
 public final class ServerTickingScheduler {
-    public static void runTicked(BooleanSupplier runUntilFalse) {
-        new ServerTickingScheduler(runUntilFalse, EnumSet.of(Phase.START));
+    private static final List<Job> UNOWNED_JOBS = new ArrayList<>();
+    private static final Map<UUID, Deque<Job>> OWNED_JOBS = new LinkedHashMap<>();
+    private static final List<Job> PENDING_JOBS = new ArrayList<>();
+    private static int nextId = 0;
+    private static int rotation = 0;
+    private static boolean ticking = false;
+
+    public static Job runTicked(BooleanSupplier runUntilFalse) {
+        return runTicked(null, "Task", runUntilFalse);
+    }
+
+    public static Job runTicked(@Nullable UUID owner, String name, BooleanSupplier runUntilFalse) {
+        return schedule(new Job(owner, name, runUntilFalse, EnumSet.of(Phase.START)));
     }
 
-    public static void runTickedAtEnd(BooleanSupplier runUntilFalse) {
-        new ServerTickingScheduler(runUntilFalse, EnumSet.of(Phase.END));
+    public static Job runTickedAtEnd(BooleanSupplier runUntilFalse) {
+        return schedule(new Job(null, "Task", runUntilFalse, EnumSet.of(Phase.END)));
     }
 
-    public static void runTickedStartAndEnd(BooleanSupplier runUntilFalse) {
-        new ServerTickingScheduler(runUntilFalse, EnumSet.allOf(Phase.class));
+    public static Job runTickedStartAndEnd(BooleanSupplier runUntilFalse) {
+        return schedule(new Job(null, "Task", runUntilFalse, EnumSet.allOf(Phase.class)));
     }
 
     public static void runOnServerOnce(Runnable runnable) {
@@ -28,20 +53,188 @@ public final class ServerTickingScheduler {
         });
     }
 
-    private final BooleanSupplier runnable;
-    private final EnumSet<Phase> phases;
+    /**
+     * @return all jobs which are currently scheduled, including paused ones
+     */
+    public static ImmutableList<Job> getJobs() {
+        ImmutableList.Builder<Job> builder = ImmutableList.builder();
+        builder.addAll(UNOWNED_JOBS);
+        OWNED_JOBS.values().forEach(builder::addAll);
+        builder.addAll(PENDING_JOBS);
+        return builder.build();
+    }
+
+    public static ImmutableList<Job> getJobs(UUID owner) {
+        ImmutableList.Builder<Job> builder = ImmutableList.builder();
+        Deque<Job> jobs = OWNED_JOBS.get(owner);
+        if (jobs != null)
+            builder.addAll(jobs);
+        PENDING_JOBS.stream()
+                .filter(job -> owner.equals(job.getOwner()))
+                .forEach(builder::add);
+        return builder.build();
+    }
+
+    public static Optional<Job> getJob(int id) {
+        return getJobs().stream()
+                .filter(job -> job.getId() == id)
+                .findFirst();
+    }
+
+    private static Job schedule(Job job) {
+        if (ticking)
+            PENDING_JOBS.add(job);
+        else
+            enqueue(job);
+        return job;
+    }
 
-    private ServerTickingScheduler(BooleanSupplier runnable, EnumSet<Phase> phases) {
-        this.runnable = runnable;
-        MinecraftForge.EVENT_BUS.register(this);
-        this.phases = phases;
+    private static void enqueue(Job job) {
+        if (job.getOwner() == null)
+            UNOWNED_JOBS.add(job);
+        else
+            OWNED_JOBS.computeIfAbsent(job.getOwner(), k -> new ArrayDeque<>()).addLast(job);
     }
 
     @SubscribeEvent
-    public void tick(ServerTickEvent event) {
-        if (! phases.contains(event.phase))
+    public static void onServerTick(ServerTickEvent event) {
+        ticking = true;
+        try {
+            UNOWNED_JOBS.removeIf(job -> ! job.run(event.phase));
+
+            if (! OWNED_JOBS.isEmpty()) {
+                List<Deque<Job>> queues = new ArrayList<>(OWNED_JOBS.values());
+                int start = Math.floorMod(rotation, queues.size());
+                for (int i = 0; i < queues.size(); i++)
+                    runNextOf(queues.get((start + i) % queues.size()), event.phase);
+                OWNED_JOBS.values().removeIf(Deque::isEmpty);
+            }
+        } finally {
+            ticking = false;
+        }
+        if (event.phase == Phase.START)
+            rotation++;
+        PENDING_JOBS.forEach(ServerTickingScheduler::enqueue);
+        PENDING_JOBS.clear();
+    }
+
+    /**
+     * Runs the first job in the queue which is interested in the given phase and not paused and then moves it to the
+     * end of the queue, so that the next one gets its turn next tick.
+     */
+    private static void runNextOf(Deque<Job> queue, Phase phase) {
+        for (Iterator<Job> it = queue.iterator(); it.hasNext(); ) {
+            Job job = it.next();
+            if (job.isCancelled()) {
+                it.remove();
+                continue;
+            }
+            if (job.isPaused() || ! job.phases.contains(phase))
+                continue;
+            it.remove();
+            if (job.run(phase))
+                queue.addLast(job);
             return;
-        if (! runnable.getAsBoolean())
-            MinecraftForge.EVENT_BUS.unregister(this);
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        UNOWNED_JOBS.clear();
+        OWNED_JOBS.clear();
+        PENDING_JOBS.clear();
+        AdaptiveStepController.reset();
+    }
+
+    private ServerTickingScheduler() {}
+
+    /**
+     * Handle to a job scheduled with the {@link ServerTickingScheduler}, allowing it to be paused, resumed and cancelled.
+     */
+    public static final class Job {
+        private final int id;
+        @Nullable
+        private final UUID owner;
+        private final String name;
+        private final BooleanSupplier runnable;
+        private final EnumSet<Phase> phases;
+        private boolean paused;
+        private boolean cancelled;
+
+        private Job(@Nullable UUID owner, String name, BooleanSupplier runnable, EnumSet<Phase> phases) {
+            this.id = nextId++;
+            this.owner = owner;
+            this.name = Objects.requireNonNull(name);
+            this.runnable = Objects.requireNonNull(runnable);
+            this.phases = phases;
+            this.paused = false;
+            this.cancelled = false;
+        }
+
+        private boolean run(Phase phase) {
+            if (cancelled)
+                return false;
+            if (paused || ! phases.contains(phase))
+                return true;
+            return runnable.getAsBoolean();
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        @Nullable
+        public UUID getOwner() {
+            return owner;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BooleanSupplier getRunnable() {
+            return runnable;
+        }
+
+        public boolean isPaused() {
+            return paused;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void setPaused(boolean paused) {
+            this.paused = paused;
+        }
+
+        /**
+         * Removes this job from the scheduler before its next execution. A {@link ProgressingJob} is {@link ProgressingJob#cancel() cancelled}
+         * cleanly (and resumed if paused, so that it can finish), all other jobs will not be notified.
+         */
+        public void cancel() {
+            if (runnable instanceof ProgressingJob) {
+                ((ProgressingJob) runnable).cancel();
+                this.paused = false;
+            } else
+                this.cancelled = true;
+        }
+
+        /**
+         * @return the progress of this job, if it reports any
+         */
+        public Optional<JobProgress> getProgress() {
+            return runnable instanceof ProgressingJob ? Optional.of(((ProgressingJob) runnable).getProgress()) : Optional.empty();
+        }
+
+        @Override
+        public String toString() {
+            return "Job{" +
+                    "id=" + id +
+                    ", owner=" + owner +
+                    ", name='" + name + '\'' +
+                    ", paused=" + paused +
+                    '}';
+        }
     }
 }
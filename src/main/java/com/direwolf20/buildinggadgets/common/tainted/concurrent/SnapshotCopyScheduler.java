@@ -0,0 +1,193 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.blocks.OurBlocks;
+import com.direwolf20.buildinggadgets.common.items.GadgetCopyPaste;
+import com.direwolf20.buildinggadgets.common.items.OurItems;
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.Region;
+import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.ITileEntityData;
+import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.TileSupport;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.RegionSnapshot;
+import com.direwolf20.buildinggadgets.common.tainted.inventory.InventoryHelper;
+import com.direwolf20.buildinggadgets.common.tileentities.ConstructionBlockTileEntity;
+import com.direwolf20.buildinggadgets.common.util.lang.MessageTranslation;
+import com.direwolf20.buildinggadgets.common.util.lang.Styles;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Alternative to the {@link CopyScheduler}, which doesn't read the world block by block on the server thread. Instead a
+ * {@link RegionSnapshot} of the copied {@link Region} is taken on the server thread over several ticks, copying as many chunk
+ * sections per tick as fit into the step count (capturing only {@link BlockEntity} data block by block), and the snapshot is
+ * then scanned and filtered on the {@link BackgroundWorkers}. Once the scan completes, the finisher is called back on the
+ * server thread. If the scan fails, the player is notified and the finisher is not called.
+ * <p>
+ * The scanned layers are reported as {@link JobProgress}. Cancelling stops the scan after the current layer and the finisher
+ * is not called, as a partial scan would only produce a partial Template.
+ * <p>
+ * The produced {@link BlockData} is equivalent to what {@link InventoryHelper#getSafeBlockData(net.minecraft.world.entity.player.Player, BlockPos, net.minecraft.world.InteractionHand)}
+ * would produce.
+ */
+public final class SnapshotCopyScheduler implements ProgressingJob {
+    // blocks per chunk section, the snapshot copies whole sections
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+
+    /**
+     * @param steps the amount of blocks which may be captured per tick, rounded to whole chunk sections (but at least one)
+     */
+    public static void scheduleCopy(BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher, BuildContext context, Region region, boolean isCopyPasteGadget, int steps) {
+        Preconditions.checkArgument(steps > 0);
+        ServerTickingScheduler.runTicked(SteppedScheduler.ownerOf(context), "Copy", new SnapshotCopyScheduler(
+                Objects.requireNonNull(finisher),
+                Objects.requireNonNull(context),
+                Objects.requireNonNull(region),
+                isCopyPasteGadget,
+                Math.max(1, steps / SECTION_VOLUME)
+        ));
+    }
+
+    private final BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher;
+    private final BuildContext context;
+    private final Region region;
+    private final boolean isCopyPasteGadget;
+    private final int sectionsPerTick;
+    private final JobProgress progress;
+    private final AtomicInteger scannedLayers;
+    private volatile boolean cancelled;
+    @Nullable
+    private RegionSnapshot.Capture capture;
+    @Nullable
+    private CompletableFuture<ScanResult> scan;
+
+    private SnapshotCopyScheduler(BiConsumer<ImmutableMap<BlockPos, BlockData>, Region> finisher, BuildContext context, Region region, boolean isCopyPasteGadget, int sectionsPerTick) {
+        this.finisher = finisher;
+        this.context = context;
+        this.region = region;
+        this.isCopyPasteGadget = isCopyPasteGadget;
+        this.sectionsPerTick = sectionsPerTick;
+        this.progress = new JobProgress(region.getYSize());
+        this.scannedLayers = new AtomicInteger();
+        this.cancelled = false;
+        this.capture = null;
+        this.scan = null;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        if (cancelled) {
+            capture = null;
+            return false;
+        }
+        if (scan == null) {
+            if (capture == null)
+                capture = RegionSnapshot.begin(context.getServerWorld(), region, SnapshotCopyScheduler::captureBlockEntity);
+            if (! capture.captureNext(sectionsPerTick))
+                return true;
+            RegionSnapshot snapshot = capture.build();
+            capture = null;
+            scan = CompletableFuture.supplyAsync(() -> scan(snapshot), BackgroundWorkers.executor());
+            return true;
+        }
+        progress.advanceTo(scannedLayers.get());
+        if (! scan.isDone())
+            return true;
+        try {
+            ScanResult result = scan.get();
+            finisher.accept(result.map, result.region);
+        } catch (InterruptedException | ExecutionException e) {
+            BuildingGadgets.LOG.error("Failed to scan {} for copy!", region, e);
+            Player player = context.getPlayer();
+            if (player != null)
+                player.displayClientMessage(MessageTranslation.AREA_COPIED_FAILED.componentTranslation().setStyle(Styles.RED), true);
+        } finally {
+            scan = null;
+        }
+        return false;
+    }
+
+    @Override
+    public JobProgress getProgress() {
+        return progress;
+    }
+
+    @Override
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    /**
+     * Server thread only.
+     */
+    private static BlockData captureBlockEntity(BlockState state, BlockEntity te) {
+        if (state.getBlock() == OurBlocks.CONSTRUCTION_BLOCK.get() && te instanceof ConstructionBlockTileEntity)
+            return ((ConstructionBlockTileEntity) te).getConstructionBlockData();
+        return new BlockData(state, TileSupport.createTileData(te));
+    }
+
+    /**
+     * Worker thread, may only access the snapshot and the thread safe progress and cancellation state.
+     */
+    private ScanResult scan(RegionSnapshot snapshot) {
+        GadgetCopyPaste gadget = (GadgetCopyPaste) OurItems.COPY_PASTE_GADGET_ITEM.get();
+        Region region = snapshot.getRegion();
+        ImmutableMap.Builder<BlockPos, BlockData> builder = ImmutableMap.builder();
+        Region.Builder regionBuilder = null;
+        // templates tend to contain lots of identical states, share the BlockData for those without a BlockEntity
+        Map<BlockState, Optional<BlockData>> plainData = new HashMap<>();
+        for (int y = region.getMinY(); y <= region.getMaxY() && ! cancelled; y++) {
+            for (int z = region.getMinZ(); z <= region.getMaxZ(); z++) {
+                for (int x = region.getMinX(); x <= region.getMaxX(); x++) {
+                    BlockState state = snapshot.getBlockState(x, y, z);
+                    if (state.isAir())
+                        continue;
+                    BlockData teData = snapshot.getBlockEntityData(x, y, z);
+                    Optional<BlockData> data;
+                    if (teData == null)
+                        data = plainData.computeIfAbsent(state, s -> InventoryHelper.getSafeBlockState(s, isCopyPasteGadget)
+                                .map(safe -> new BlockData(safe, TileSupport.dummyTileEntityData())));
+                    else if (state.getBlock() == OurBlocks.CONSTRUCTION_BLOCK.get())
+                        data = Optional.of(teData);
+                    else {
+                        ITileEntityData tileData = teData.getTileData();
+                        data = InventoryHelper.getSafeBlockState(state, isCopyPasteGadget)
+                                .map(safe -> new BlockData(safe, tileData));
+                    }
+                    if (data.isPresent() && ! data.get().getState().isAir() && gadget.isAllowedBlock(data.get().getState())) {
+                        builder.put(new BlockPos(x, y, z), data.get());
+                        if (regionBuilder == null)
+                            regionBuilder = Region.enclosingBuilder();
+                        regionBuilder.enclose(x, y, z);
+                    }
+                }
+            }
+            scannedLayers.incrementAndGet();
+        }
+        return new ScanResult(builder.build(), regionBuilder != null ? regionBuilder.build() : Region.singleZero());
+    }
+
+    private static final class ScanResult {
+        private final ImmutableMap<BlockPos, BlockData> map;
+        private final Region region;
+
+        private ScanResult(ImmutableMap<BlockPos, BlockData> map, Region region) {
+            this.map = map;
+            this.region = region;
+        }
+    }
+}
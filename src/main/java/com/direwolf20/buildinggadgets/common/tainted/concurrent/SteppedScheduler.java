@@ -1,8 +1,11 @@
 package com.direwolf20.buildinggadgets.common.tainted.concurrent;
 
-import java.util.function.BooleanSupplier;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
 
-public abstract class SteppedScheduler implements BooleanSupplier {
+import javax.annotation.Nullable;
+import java.util.UUID;
+
+public abstract class SteppedScheduler implements ProgressingJob {
     protected enum StepResult {
         SUCCESS,
         FAILURE,
@@ -13,20 +16,48 @@ public abstract class SteppedScheduler implements BooleanSupplier {
         }
     }
     private final int steps;
+    private final JobProgress progress;
     private boolean finished;
+    private boolean cancelled;
 
     public SteppedScheduler(int steps) {
+        this(steps, 0);
+    }
+
+    /**
+     * @param estimatedTotal the estimated total amount of steps this scheduler will perform, used for reporting its {@link JobProgress}
+     */
+    public SteppedScheduler(int steps, int estimatedTotal) {
         this.steps = steps;
+        this.progress = new JobProgress(estimatedTotal);
         this.finished = false;
+        this.cancelled = false;
+    }
+
+    @Override
+    public JobProgress getProgress() {
+        return progress;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stops this scheduler before its next step. Other than {@link ServerTickingScheduler.Job#cancel() cancelling} an arbitrary
+     * job, the scheduler is still finished cleanly: {@link #onFinish()} is called, so that for example a placement still
+     * pushes the undo for everything placed so far.
+     */
+    @Override
+    public void cancel() {
+        this.cancelled = true;
     }
 
     @Override
     public boolean getAsBoolean() {
         if (finished)
             return false;
-        for (int i = 0; advance() != StepResult.END && i < steps - 1; ++ i)
-            ;
-        boolean res = advance() != StepResult.END;
+        boolean res = ! cancelled && (TickTimeBudget.isEnabled() ? runBudgeted() : runSteps());
         if (! res) {
             this.finished = true;
             onFinish();
@@ -34,6 +65,42 @@ public abstract class SteppedScheduler implements BooleanSupplier {
         return res;
     }
 
+    private boolean runSteps() {
+        int steps = AdaptiveStepController.isEnabled() ? AdaptiveStepController.scale(this.steps) : this.steps;
+        for (int i = 0; step() != StepResult.END && i < steps - 1; ++ i)
+            ;
+        return step() != StepResult.END;
+    }
+
+    /**
+     * Advances until either the end is reached or the shared {@link TickTimeBudget} is used up. At least one step is
+     * always performed, so that a job can't be starved by others running before it in the same tick.
+     */
+    private boolean runBudgeted() {
+        long start = System.nanoTime();
+        long deadline = start + TickTimeBudget.remaining();
+        boolean res;
+        long now;
+        do {
+            res = step() != StepResult.END;
+            now = System.nanoTime();
+        } while (res && now - deadline < 0);
+        TickTimeBudget.consume(now - start);
+        return res;
+    }
+
+    private StepResult step() {
+        StepResult res = advance();
+        if (res != StepResult.END)
+            progress.step();
+        return res;
+    }
+
+    @Nullable
+    protected static UUID ownerOf(BuildContext context) {
+        return context.getPlayer() != null ? context.getPlayer().getUUID() : null;
+    }
+
     protected abstract StepResult advance();
 
     protected abstract void onFinish();
@@ -0,0 +1,42 @@
+package com.direwolf20.buildinggadgets.common.tainted.concurrent;
+
+import com.direwolf20.buildinggadgets.common.config.Config;
+import net.minecraft.server.MinecraftServer;
+import net.minecraftforge.server.ServerLifecycleHooks;
+
+/**
+ * Tracks the amount of time all {@link SteppedScheduler SteppedSchedulers} may still spend in the current server tick.
+ * The budget is shared between all running jobs and refilled lazily, as soon as the first job asks for it in a new tick.
+ * <p>
+ * Only ever accessed from the server thread.
+ */
+final class TickTimeBudget {
+    private static int currentTick = - 1;
+    private static long remainingNanos = 0;
+
+    private TickTimeBudget() {}
+
+    /**
+     * @return whether a time budget is configured, in which case the per job step counts are ignored
+     */
+    static boolean isEnabled() {
+        return Config.GADGETS.tickTimeBudget.get() > 0;
+    }
+
+    /**
+     * @return the nanoseconds left for the current tick, refilling the budget if a new tick started since the last call
+     */
+    static long remaining() {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        int tick = server != null ? server.getTickCount() : 0;
+        if (tick != currentTick) {
+            currentTick = tick;
+            remainingNanos = Config.GADGETS.tickTimeBudget.get();
+        }
+        return remainingNanos;
+    }
+
+    static void consume(long nanos) {
+        remainingNanos -= nanos;
+    }
+}
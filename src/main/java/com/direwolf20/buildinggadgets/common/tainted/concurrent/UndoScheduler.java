@@ -1,28 +1,57 @@
 package com.direwolf20.buildinggadgets.common.tainted.concurrent;
 
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
 import com.direwolf20.buildinggadgets.common.blocks.EffectBlock;
 import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
 import com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget;
 import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.TileSupport;
 import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.RegionSnapshot;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.SectionOrderedBuildView;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.IItemIndex;
 import com.direwolf20.buildinggadgets.common.tainted.inventory.MatchResult;
+import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.objects.IUniqueObject;
 import com.direwolf20.buildinggadgets.common.blocks.OurBlocks;
+import com.direwolf20.buildinggadgets.common.tainted.save.JobCheckpointSave.Checkpoint;
 import com.direwolf20.buildinggadgets.common.tainted.save.Undo;
 import com.direwolf20.buildinggadgets.common.tainted.save.Undo.BlockInfo;
 import com.direwolf20.buildinggadgets.common.tileentities.ConstructionBlockTileEntity;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
 import net.minecraft.world.level.block.state.BlockState;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.core.BlockPos;
 import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.event.level.BlockEvent;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
 
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Spliterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 
+/**
+ * Undoes an {@link Undo} over multiple ticks. If produced items were taken back in bulk by a plan, those of the entries
+ * which weren't undone yet are given back when the server stops, as a resumed undo plans and takes them again.
+ */
+@EventBusSubscriber
 public final class UndoScheduler extends SteppedScheduler {
+    // how many chunk sections are copied into the snapshot of a planned undo per tick
+    private static final int SNAPSHOT_SECTIONS_PER_TICK = 32;
+    // undos currently holding the produced items of their remaining entries
+    private static final Set<UndoScheduler> HOLDING_PRODUCED = new HashSet<>();
+
     public static UndoScheduler scheduleUndo(Undo undo, IItemIndex index, BuildContext context, int steps) {
         Preconditions.checkArgument(steps > 0);
 
@@ -33,32 +62,208 @@ public final class UndoScheduler extends SteppedScheduler {
                 steps
         );
 
-        ServerTickingScheduler.runTicked(res);
+        ServerTickingScheduler.runTicked(ownerOf(context), "Undo", res);
         return res;
     }
 
-    private final Spliterator<Map.Entry<BlockPos, BlockInfo>> spliterator;
+    /**
+     * @return the entries of the given {@link Undo} in the order in which a checkpointed {@link UndoScheduler} processes them.
+     * The order only depends on the positions, so that it is stable across server restarts.
+     */
+    public static List<Map.Entry<BlockPos, BlockInfo>> sortedEntries(Undo undo) {
+        List<Map.Entry<BlockPos, BlockInfo>> entries = new ArrayList<>(undo.getUndoData().entrySet());
+        entries.sort((e1, e2) -> Long.compareUnsigned(SectionOrderedBuildView.sortKey(e1.getKey()), SectionOrderedBuildView.sortKey(e2.getKey())));
+        return entries;
+    }
+
+    /**
+     * @return an {@link Undo} containing only the entries which a checkpointed {@link UndoScheduler} hasn't processed yet at the given cursor
+     */
+    public static Undo remaining(Undo undo, int cursor) {
+        List<Map.Entry<BlockPos, BlockInfo>> entries = sortedEntries(undo);
+        Map<BlockPos, BlockInfo> remaining = new LinkedHashMap<>();
+        for (Map.Entry<BlockPos, BlockInfo> entry : entries.subList(Math.min(cursor, entries.size()), entries.size()))
+            remaining.put(entry.getKey(), entry.getValue());
+        return new Undo(undo.getDimension(), remaining, undo.getBoundingBox());
+    }
+
+    private final Undo undo;
+    private List<Map.Entry<BlockPos, BlockInfo>> entries;
+    private int position;
     private boolean lastWasSuccess;
     private final BuildContext context;
     private final IItemIndex index;
+    @Nullable
+    private JobCheckpointer checkpointer;
+    private Consumer<UndoScheduler> finisher;
+    @Nullable
+    private Undo remainingUndo;
+    private boolean planRequested;
+    @Nullable
+    private RegionSnapshot.Capture capture;
+    @Nullable
+    private CompletableFuture<UndoPlan> planning;
+    @Nullable
+    private UndoPlan plan;
+    private final Multiset<IUniqueObject<?>> pendingReturns;
 
     private UndoScheduler(Undo undo, IItemIndex index, BuildContext context, int steps) {
-        super(steps);
+        super(steps, undo.getUndoData().size());
         assert context.getPlayer() != null;
         assert ! context.getStack().isEmpty();
 
-        this.spliterator = undo.getUndoData().entrySet().spliterator();
+        this.undo = undo;
+        this.entries = new ArrayList<>(undo.getUndoData().entrySet());
+        this.position = 0;
         this.index = index;
         this.context = context;
+        this.checkpointer = null;
+        this.finisher = s -> {};
+        this.remainingUndo = null;
+        this.planRequested = false;
+        this.capture = null;
+        this.planning = null;
+        this.plan = null;
+        this.pendingReturns = HashMultiset.create();
+    }
+
+    public UndoScheduler withFinisher(Consumer<UndoScheduler> finisher) {
+        this.finisher = Objects.requireNonNull(finisher);
+        return this;
+    }
+
+    /**
+     * Validates the {@link Undo} against a {@link RegionSnapshot} on the {@link BackgroundWorkers} before the first block is
+     * undone. The snapshot is captured across several ticks, {@value #SNAPSHOT_SECTIONS_PER_TICK} chunk sections at a time.
+     * Entries whose block no longer matches {@link BlockInfo#getPlacedData()} are dropped by the plan and the items
+     * produced by all remaining entries are taken back in one bulk match, so that undoing a block on the server thread only
+     * has to check that it is still the planned block, post the {@link BlockEvent.BreakEvent} and spawn the effect.
+     * <p>
+     * Must be called before this scheduler is run for the first time.
+     */
+    public UndoScheduler withPlanning() {
+        Preconditions.checkState(planning == null && plan == null, "Cannot plan an already started undo!");
+        this.planRequested = true;
+        return this;
+    }
+
+    /**
+     * @return an {@link Undo} of all entries which weren't processed, because this scheduler was {@link #cancel() cancelled}.
+     * Empty until this scheduler finished.
+     */
+    public Undo getRemainingUndo() {
+        return remainingUndo != null ? remainingUndo : new Undo(undo.getDimension(), ImmutableMap.of(), undo.getBoundingBox());
+    }
+
+    /**
+     * Persists the progress of this undo into the given {@link Checkpoint}. The {@link Undo} itself is written as the first
+     * segment of the {@link Checkpoint}, unless it was already written (because the undo is being resumed), in which case the
+     * entries processed before are skipped.
+     * <p>
+     * Must be called before this scheduler is run for the first time.
+     */
+    public UndoScheduler withCheckpoint(Checkpoint checkpoint) {
+        Preconditions.checkState(checkpointer == null, "Cannot checkpoint an undo twice!");
+        this.entries = sortedEntries(undo);
+        this.position = Math.min(checkpoint.getCursor(), entries.size());
+        getProgress().skip(position);
+        this.checkpointer = new JobCheckpointer(checkpoint, context.getServerWorld(), null);
+        if (checkpoint.getSegments() == 0)
+            checkpointer.appendSegment(undo);
+        return this;
+    }
+
+    @Override
+    public boolean getAsBoolean() {
+        if (planRequested) {
+            if (planning == null && ! isCancelled()) {
+                if (capture == null)
+                    capture = RegionSnapshot.begin(context.getServerWorld(), undo.getBoundingBox(), UndoScheduler::captureBlockEntity);
+                if (! capture.captureNext(SNAPSHOT_SECTIONS_PER_TICK))
+                    return true;
+                RegionSnapshot snapshot = capture.build();
+                capture = null;
+                List<Map.Entry<BlockPos, BlockInfo>> toPlan = entries.subList(position, entries.size());
+                planning = CompletableFuture.supplyAsync(() -> UndoPlan.create(snapshot, toPlan), BackgroundWorkers.executor());
+                return true;
+            }
+            if (planning != null && ! planning.isDone() && ! isCancelled())
+                return true;
+            applyPlan();
+        }
+        boolean res = super.getAsBoolean();
+        flushReturns();
+        return res;
+    }
+
+    private void applyPlan() {
+        planRequested = false;
+        capture = null;
+        if (isCancelled())
+            return;
+        try {
+            plan = planning.join();
+        } catch (CompletionException e) {
+            BuildingGadgets.LOG.error("Failed to plan undo, falling back to checking block by block.", e);
+            return;
+        }
+        plan.start = position;
+        if (! plan.produced.isEmpty()) {
+            MatchResult match = index.tryMatch(plan.produced);
+            plan.producedTaken = match.isSuccess() && index.applyMatch(match);
+            if (plan.producedTaken)
+                HOLDING_PRODUCED.add(this);
+        }
+        BuildingGadgets.LOG.debug("Planned undo of {} blocks, {} no longer match and were dropped. Produced items taken in bulk: {}.",
+                plan.expected.length, plan.dropped, plan.producedTaken);
+    }
+
+    /**
+     * Server thread only.
+     */
+    @Nullable
+    private static BlockData captureBlockEntity(BlockState state, BlockEntity te) {
+        if (state.getBlock() == OurBlocks.CONSTRUCTION_BLOCK.get() && te instanceof ConstructionBlockTileEntity)
+            return ((ConstructionBlockTileEntity) te).getConstructionBlockData();
+        return null;
     }
 
     @Override
     protected StepResult advance() {
-        if (! spliterator.tryAdvance(this::undoBlock))
+        if (position >= entries.size())
             return StepResult.END;
+        Map.Entry<BlockPos, BlockInfo> entry = entries.get(position++);
+        if (plan != null)
+            lastWasSuccess = undoPlannedBlock(entry, plan.expected[position - 1 - plan.start]);
+        else
+            undoBlock(entry);
+        if (checkpointer != null)
+            checkpointer.step();
         return lastWasSuccess ? StepResult.SUCCESS : StepResult.FAILURE;
     }
 
+    private boolean undoPlannedBlock(Map.Entry<BlockPos, BlockInfo> entry, @Nullable BlockState expected) {
+        if (expected == null)
+            return false;
+        // the block may have been replaced after the snapshot was taken, other state changes are fine just like for unplanned undos
+        BlockState state = context.getWorld().getBlockState(entry.getKey());
+        if (state.getBlock() != expected.getBlock() || (! state.isAir() && MinecraftForge.EVENT_BUS.post(
+                new BlockEvent.BreakEvent(context.getServerWorld(), entry.getKey(), state, context.getPlayer())))) {
+            if (plan.producedTaken)
+                pendingReturns.addAll(entry.getValue().getProducedItems());
+            return false;
+        }
+        if (! plan.producedTaken && ! entry.getValue().getProducedItems().isEmpty()) {
+            MatchResult matchResult = index.tryMatch(entry.getValue().getProducedItems());
+            if (! matchResult.isSuccess())
+                return false;
+            index.applyMatch(matchResult);
+        }
+        pendingReturns.addAll(entry.getValue().getUsedItems());
+        EffectBlock.spawnUndoBlock(context, new PlacementTarget(entry.getKey(), entry.getValue().getRecordedData()));
+        return true;
+    }
+
     private void undoBlock(Map.Entry<BlockPos, BlockInfo> entry) {
         //if the block that was placed is no longer there, we should not undo anything
         BlockState state = context.getWorld().getBlockState(entry.getKey());
@@ -88,8 +293,93 @@ public final class UndoScheduler extends SteppedScheduler {
         }
     }
 
+    private void flushReturns() {
+        if (pendingReturns.isEmpty())
+            return;
+        index.insert(pendingReturns);
+        pendingReturns.clear();
+    }
+
     @Override
     protected void onFinish() {
+        if (checkpointer != null)
+            checkpointer.finish();
+        // these will be taken again once the remaining undo is undone
+        returnTakenProduced();
+        Map<BlockPos, BlockInfo> remaining = new LinkedHashMap<>();
+        for (int i = position; i < entries.size(); i++) {
+            Map.Entry<BlockPos, BlockInfo> entry = entries.get(i);
+            remaining.put(entry.getKey(), entry.getValue());
+        }
+        remainingUndo = new Undo(undo.getDimension(), remaining, undo.getBoundingBox());
+        finisher.accept(this);
+    }
+
+    /**
+     * Gives back the produced items which the plan took in bulk for all entries which weren't processed yet. Afterwards
+     * the remaining entries match their produced items block by block again.
+     */
+    private void returnTakenProduced() {
+        HOLDING_PRODUCED.remove(this);
+        if (plan != null && plan.producedTaken) {
+            for (int i = position; i < entries.size(); i++) {
+                if (plan.expected[i - plan.start] != null)
+                    pendingReturns.addAll(entries.get(i).getValue().getProducedItems());
+            }
+            plan.producedTaken = false;
+        }
+        flushReturns();
+    }
+
+    @SubscribeEvent
+    public static void onServerStopping(ServerStoppingEvent event) {
+        // the job queues are cleared without finishing their jobs, a checkpointed undo plans and takes these again once resumed
+        for (UndoScheduler scheduler : new ArrayList<>(HOLDING_PRODUCED))
+            scheduler.returnTakenProduced();
+        HOLDING_PRODUCED.clear();
+    }
+
+    /**
+     * The result of diffing the entries of an {@link Undo} against a {@link RegionSnapshot}.
+     */
+    private static final class UndoPlan {
+        /**
+         * Worker thread, may only access the snapshot.
+         */
+        private static UndoPlan create(RegionSnapshot snapshot, List<Map.Entry<BlockPos, BlockInfo>> entries) {
+            BlockState[] expected = new BlockState[entries.size()];
+            Multiset<IUniqueObject<?>> produced = HashMultiset.create();
+            int dropped = 0;
+            for (int i = 0; i < expected.length; i++) {
+                BlockPos pos = entries.get(i).getKey();
+                BlockInfo info = entries.get(i).getValue();
+                BlockState state = snapshot.getBlockState(pos.getX(), pos.getY(), pos.getZ());
+                BlockData teData = snapshot.getBlockEntityData(pos.getX(), pos.getY(), pos.getZ());
+                BlockState current = teData != null ? teData.getState() : state;
+                //if the block that was placed is no longer there, we should not undo anything
+                if (current.getBlock() != info.getPlacedData().getState().getBlock()) {
+                    dropped++;
+                    continue;
+                }
+                expected[i] = state;
+                produced.addAll(info.getProducedItems());
+            }
+            return new UndoPlan(expected, produced, dropped);
+        }
+
+        // the state each entry had in the snapshot, only its block is expected to still match when undone. Null for entries which were dropped
+        private final BlockState[] expected;
+        private final Multiset<IUniqueObject<?>> produced;
+        private final int dropped;
+        private int start;
+        private boolean producedTaken;
 
+        private UndoPlan(BlockState[] expected, Multiset<IUniqueObject<?>> produced, int dropped) {
+            this.expected = expected;
+            this.produced = produced;
+            this.dropped = dropped;
+            this.start = 0;
+            this.producedTaken = false;
+        }
     }
 }
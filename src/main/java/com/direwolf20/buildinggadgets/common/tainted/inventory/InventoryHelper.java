@@ -281,6 +281,20 @@ public class InventoryHelper {
                 return Optional.of(((ConstructionBlockTileEntity) te).getConstructionBlockData());
         }
 
+        return getSafeBlockState(state, isCopyPasteGadget)
+                .map(placeState -> new BlockData(placeState, TileSupport.createTileData(world, pos)));
+    }
+
+    /**
+     * Strips all properties from the given {@link BlockState} which may not be copied. Does not access the world and
+     * may therefore be called from any thread.
+     *
+     * @return The {@link BlockState} to place or empty if the state cannot be copied at all.
+     */
+    public static Optional<BlockState> getSafeBlockState(BlockState state, boolean isCopyPasteGadget) {
+        if (state.getBlock() instanceof LiquidBlock)
+            return Optional.empty();
+
         // Support doors
         if (state.getBlock() instanceof DoorBlock && state.getValue(BlockStateProperties.DOUBLE_BLOCK_HALF) == DoubleBlockHalf.UPPER) {
             return Optional.empty();
@@ -294,7 +308,7 @@ public class InventoryHelper {
             placeState = applyProperty(placeState, state, prop);
         }
 
-        return Optional.of(new BlockData(placeState, TileSupport.createTileData(world, pos)));
+        return Optional.of(placeState);
     }
 
     //proper generics...
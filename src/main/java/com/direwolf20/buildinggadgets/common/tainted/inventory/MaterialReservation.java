@@ -0,0 +1,234 @@
+package com.direwolf20.buildinggadgets.common.tainted.inventory;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.MaterialList;
+import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.objects.IUniqueObject;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multiset.Entry;
+import com.google.common.collect.PeekingIterator;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.entity.item.ItemEntity;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.item.ItemStack;
+import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.eventbus.api.SubscribeEvent;
+import net.minecraftforge.fml.common.Mod.EventBusSubscriber;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Items extracted from an {@link IItemIndex} up front in one bulk match, for a placement whose material requirements were
+ * aggregated before it started. Matching a block against the reservation then only requires decrementing counters instead
+ * of searching the inventory.
+ * <p>
+ * Only {@link MaterialList MaterialLists} with exactly one option are reserved, everything else (and everything for which
+ * not enough items were available) still has to be matched against the {@link IItemIndex} block by block.
+ * <p>
+ * Whatever remains reserved when the placement ends must be {@link #release() released} back into the index, anything
+ * which doesn't fit is dropped at the player. A reservation of a checkpointed placement is {@link #serialize() saved}
+ * with each checkpoint and restored when the placement is resumed, so that neither a crash nor a restart loses it. All
+ * other reservations still active when the server stops are released automatically.
+ */
+@EventBusSubscriber
+public final class MaterialReservation {
+    private static final Set<MaterialReservation> ACTIVE = new HashSet<>();
+
+    /**
+     * Server thread only.
+     *
+     * @param materials the required materials per distinct {@link BlockData}
+     * @param counts    how often each {@link BlockData} is going to be placed
+     */
+    public static MaterialReservation reserve(IItemIndex index, @Nullable Player player, Map<BlockData, MaterialList> materials, Object2IntMap<BlockData> counts) {
+        Multiset<IUniqueObject<?>> required = HashMultiset.create();
+        for (Object2IntMap.Entry<BlockData> entry : counts.object2IntEntrySet()) {
+            MaterialList list = materials.get(entry.getKey());
+            ImmutableMultiset<IUniqueObject<?>> option = list != null ? singleOption(list) : null;
+            if (option == null)
+                continue;
+            for (Entry<IUniqueObject<?>> item : option.entrySet())
+                required.add(item.getElement(), item.getCount() * entry.getIntValue());
+        }
+        MatchResult match = index.tryMatch(required);
+        // not everything is available, reserve what is and let the rest fail block by block
+        if (! match.isSuccess())
+            match = index.tryMatch(match.getFoundItems());
+        MaterialReservation reservation = new MaterialReservation(index, player, materials);
+        if (match.isSuccess() && index.applyMatch(match)) {
+            for (Entry<IUniqueObject<?>> item : match.getChosenOption().entrySet())
+                reservation.reserved.addTo(item.getElement(), item.getCount());
+        } else
+            BuildingGadgets.LOG.debug("Failed to reserve {} for placement, falling back to per block matching.", required);
+        ACTIVE.add(reservation);
+        return reservation;
+    }
+
+    /**
+     * Restores a reservation saved by {@link #serialize()}, whose items were already extracted from the {@link IItemIndex}
+     * before. Server thread only.
+     */
+    public static MaterialReservation restore(IItemIndex index, @Nullable Player player, CompoundTag nbt) {
+        MaterialReservation reservation = new MaterialReservation(index, player, ImmutableMap.of());
+        for (Entry<IUniqueObject<?>> item : deserialize(nbt).entrySet())
+            reservation.reserved.addTo(item.getElement(), item.getCount());
+        ACTIVE.add(reservation);
+        return reservation;
+    }
+
+    /**
+     * Gives the items of a reservation saved by {@link #serialize()} back to the given player, for placements which cannot
+     * be resumed.
+     */
+    public static void giveBack(Player player, CompoundTag nbt) {
+        forEachStack(deserialize(nbt), player.getInventory()::placeItemBackInInventory);
+    }
+
+    private static void forEachStack(Multiset<IUniqueObject<?>> items, Consumer<ItemStack> consumer) {
+        for (Entry<IUniqueObject<?>> item : items.entrySet()) {
+            int remaining = item.getCount();
+            while (remaining > 0) {
+                ItemStack stack = item.getElement().createStack(remaining);
+                if (stack.isEmpty())
+                    break;
+                stack.setCount(Math.min(remaining, stack.getMaxStackSize()));
+                remaining -= stack.getCount();
+                consumer.accept(stack);
+            }
+        }
+    }
+
+    private static Multiset<IUniqueObject<?>> deserialize(CompoundTag nbt) {
+        if (nbt.isEmpty())
+            return ImmutableMultiset.of();
+        ImmutableMultiset<IUniqueObject<?>> option = singleOption(MaterialList.deserialize(nbt, true));
+        return option != null ? option : ImmutableMultiset.of();
+    }
+
+    @Nullable
+    private static ImmutableMultiset<IUniqueObject<?>> singleOption(MaterialList list) {
+        PeekingIterator<ImmutableMultiset<IUniqueObject<?>>> it = list.iterator();
+        if (! it.hasNext())
+            return ImmutableMultiset.of();
+        ImmutableMultiset<IUniqueObject<?>> option = it.next();
+        return it.hasNext() ? null : option;
+    }
+
+    private final IItemIndex index;
+    @Nullable
+    private final Player player;
+    private final Map<BlockData, MaterialList> materials;
+    private final Object2IntOpenHashMap<IUniqueObject<?>> reserved;
+    @Nullable
+    private BooleanSupplier persisted;
+
+    private MaterialReservation(IItemIndex index, @Nullable Player player, Map<BlockData, MaterialList> materials) {
+        this.index = index;
+        this.player = player;
+        this.materials = materials;
+        this.reserved = new Object2IntOpenHashMap<>();
+        this.persisted = null;
+    }
+
+    /**
+     * @param persisted whether the reservation is currently saved with a checkpoint, in which case it is left to that
+     *                  checkpoint instead of being released when the server stops
+     */
+    public void setPersisted(BooleanSupplier persisted) {
+        this.persisted = persisted;
+    }
+
+    /**
+     * @return everything which is still reserved, to be restored by {@link #restore(IItemIndex, Player, CompoundTag)}
+     */
+    public CompoundTag serialize() {
+        Multiset<IUniqueObject<?>> remaining = getRemaining();
+        if (remaining.isEmpty())
+            return new CompoundTag();
+        MaterialList.SimpleBuilder builder = MaterialList.simpleBuilder();
+        for (Entry<IUniqueObject<?>> item : remaining.entrySet())
+            builder.addItem(item.getElement(), item.getCount());
+        return builder.build().serialize(true);
+    }
+
+    /**
+     * @return the {@link MaterialList} computed for the given {@link BlockData} during the pre-pass, or null if it wasn't part of it
+     */
+    @Nullable
+    public MaterialList getMaterials(BlockData data) {
+        return materials.get(data);
+    }
+
+    /**
+     * @return a successful {@link MatchResult} if the given {@link MaterialList} can be served entirely from this reservation,
+     * null if it has to be matched against the {@link IItemIndex} instead
+     */
+    @Nullable
+    public MatchResult tryMatch(MaterialList list) {
+        ImmutableMultiset<IUniqueObject<?>> option = singleOption(list);
+        if (option == null)
+            return null;
+        for (Entry<IUniqueObject<?>> item : option.entrySet()) {
+            if (reserved.getInt(item.getElement()) < item.getCount())
+                return null;
+        }
+        return MatchResult.success(list, option, option);
+    }
+
+    /**
+     * Deducts a {@link MatchResult} produced by {@link #tryMatch(MaterialList)} from this reservation.
+     */
+    public boolean applyMatch(MatchResult match) {
+        for (Entry<IUniqueObject<?>> item : match.getChosenOption().entrySet()) {
+            if (reserved.addTo(item.getElement(), - item.getCount()) < item.getCount())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Inserts everything which is still reserved back into the {@link IItemIndex}, dropping whatever doesn't fit at the player.
+     */
+    public void release() {
+        ACTIVE.remove(this);
+        Multiset<IUniqueObject<?>> remaining = getRemaining();
+        reserved.clear();
+        if (remaining.isEmpty())
+            return;
+        Multiset<IUniqueObject<?>> leftover = index.insert(remaining);
+        if (leftover.isEmpty())
+            return;
+        if (player == null) {
+            BuildingGadgets.LOG.warn("Lost reserved materials {}, as they didn't fit back and there is no player to drop them at.", leftover);
+            return;
+        }
+        forEachStack(leftover, stack -> player.level.addFreshEntity(new ItemEntity(player.level, player.getX(), player.getY(), player.getZ(), stack)));
+    }
+
+    private Multiset<IUniqueObject<?>> getRemaining() {
+        Multiset<IUniqueObject<?>> remaining = HashMultiset.create();
+        for (Object2IntMap.Entry<IUniqueObject<?>> entry : reserved.object2IntEntrySet()) {
+            if (entry.getIntValue() > 0)
+                remaining.add(entry.getKey(), entry.getIntValue());
+        }
+        return remaining;
+    }
+
+    @SubscribeEvent
+    public static void onServerStopping(ServerStoppingEvent event) {
+        for (MaterialReservation reservation : new ArrayList<>(ACTIVE)) {
+            if (reservation.persisted != null && reservation.persisted.getAsBoolean())
+                ACTIVE.remove(reservation);
+            else
+                reservation.release();
+        }
+    }
+}
@@ -126,6 +126,26 @@ public final class MaterialList implements Iterable<ImmutableMultiset<IUniqueObj
         return simpleEntry.getItems();
     }
 
+    /**
+     * @return a {@code MaterialList} requiring everything this list requires the given amount of times. Lists without any
+     * options are scaled directly, all others are repeated, as every repetition may choose a different option.
+     */
+    public MaterialList times(int count) {
+        Preconditions.checkArgument(count >= 0, "Cannot require a MaterialList %s times!", count);
+        if (count == 1)
+            return this;
+        if (rootEntry instanceof SimpleMaterialListEntry) {
+            SimpleBuilder builder = simpleBuilder();
+            for (Multiset.Entry<IUniqueObject<?>> entry : ((SimpleMaterialListEntry) rootEntry).getItems().entrySet())
+                builder.addItem(entry.getElement(), (int) Math.min(Integer.MAX_VALUE, (long) entry.getCount() * count));
+            return builder.build();
+        }
+        SubEntryBuilder builder = andBuilder();
+        for (int i = 0; i < count; i++)
+            builder.add(this);
+        return builder.build();
+    }
+
     public CompoundTag serialize(boolean persisted) {
         return writeEntry(rootEntry, persisted);
     }
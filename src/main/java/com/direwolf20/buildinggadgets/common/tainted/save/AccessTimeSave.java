@@ -0,0 +1,73 @@
+package com.direwolf20.buildinggadgets.common.tainted.save;
+
+import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.LongArrayTag;
+import net.minecraft.world.level.saveddata.SavedData;
+
+import java.util.UUID;
+
+/**
+ * Records the access times of the values of a {@link TimedDataSave}, so that reading a value doesn't require the whole
+ * {@link TimedDataSave} to be rewritten. Only access times recorded since the {@link TimedDataSave} was last written are kept,
+ * stored as two flat long arrays.
+ */
+public final class AccessTimeSave extends SavedData {
+    private final Object2LongMap<UUID> accessTimes;
+
+    public AccessTimeSave() {
+        this.accessTimes = new Object2LongOpenHashMap<>();
+    }
+
+    public static AccessTimeSave loads(CompoundTag tag) {
+        AccessTimeSave save = new AccessTimeSave();
+        long[] ids = tag.getLongArray(NBTKeys.KEY_ID);
+        long[] times = tag.getLongArray(NBTKeys.WORLD_SAVE_TIME);
+        for (int i = 0; i < times.length && 2 * i + 1 < ids.length; i++)
+            save.accessTimes.put(new UUID(ids[2 * i], ids[2 * i + 1]), times[i]);
+        return save;
+    }
+
+    public void record(UUID id, long time) {
+        accessTimes.put(id, time);
+        setDirty();
+    }
+
+    public void remove(UUID id) {
+        if (accessTimes.containsKey(id)) {
+            accessTimes.removeLong(id);
+            setDirty();
+        }
+    }
+
+    public Object2LongMap<UUID> getAccessTimes() {
+        return accessTimes;
+    }
+
+    /**
+     * Called once the {@link TimedDataSave} was written, as it then contains all recorded access times itself.
+     */
+    public void clear() {
+        if (! accessTimes.isEmpty()) {
+            accessTimes.clear();
+            setDirty();
+        }
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag compound) {
+        long[] ids = new long[accessTimes.size() * 2];
+        long[] times = new long[accessTimes.size()];
+        int i = 0;
+        for (Object2LongMap.Entry<UUID> entry : accessTimes.object2LongEntrySet()) {
+            ids[2 * i] = entry.getKey().getMostSignificantBits();
+            ids[2 * i + 1] = entry.getKey().getLeastSignificantBits();
+            times[i++] = entry.getLongValue();
+        }
+        compound.put(NBTKeys.KEY_ID, new LongArrayTag(ids));
+        compound.put(NBTKeys.WORLD_SAVE_TIME, new LongArrayTag(times));
+        return compound;
+    }
+}
@@ -0,0 +1,245 @@
+package com.direwolf20.buildinggadgets.common.tainted.save;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.direwolf20.buildinggadgets.common.util.helpers.NBTHelper;
+import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
+import com.direwolf20.buildinggadgets.common.util.ref.Reference;
+import com.direwolf20.buildinggadgets.common.util.tools.NbtCodec;
+import com.google.common.collect.ImmutableList;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.saveddata.SavedData;
+import net.minecraft.world.level.storage.LevelResource;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Keeps track of long running build and undo jobs, so that they can be resumed after a server restart.
+ * <p>
+ * This save only holds the small per job metadata (owner, gadget, cursor, ...). The partial {@link Undo} data of a job is
+ * written incrementally as separate segment files next to the world's data folder (see {@link #writeSegment(MinecraftServer, UUID, int, Undo)}),
+ * so that a checkpoint never requires re-writing what was already written.
+ */
+public final class JobCheckpointSave extends SavedData {
+    private static final String SEGMENT_FOLDER = Reference.MODID + "_jobs";
+
+    public static JobCheckpointSave loads(CompoundTag tag) {
+        JobCheckpointSave save = new JobCheckpointSave();
+        Tag list = tag.get(NBTKeys.WORD_SAVE_DATA_MAP);
+        if (list instanceof ListTag)
+            NBTHelper.deserializeUUIDMap((ListTag) list, save.checkpoints, inbt -> Checkpoint.read((CompoundTag) inbt));
+        return save;
+    }
+
+    private final Map<UUID, Checkpoint> checkpoints;
+
+    public JobCheckpointSave() {
+        this.checkpoints = new LinkedHashMap<>();
+    }
+
+    public Checkpoint create(JobType type, UUID owner, UUID gadgetId, ResourceLocation gadgetItem, ResourceLocation dim, CompoundTag data) {
+        UUID id = UUID.randomUUID();
+        Checkpoint checkpoint = new Checkpoint(id, type, owner, gadgetId, gadgetItem, dim, data, 0, 0, new CompoundTag());
+        checkpoints.put(id, checkpoint);
+        setDirty();
+        return checkpoint;
+    }
+
+    /**
+     * @param reserved the materials the job has reserved at the given cursor, or null if it doesn't reserve any
+     */
+    public void update(UUID id, int cursor, int segments, @Nullable CompoundTag reserved) {
+        Checkpoint checkpoint = checkpoints.get(id);
+        if (checkpoint != null && cursor >= checkpoint.cursor) {
+            checkpoint.cursor = cursor;
+            checkpoint.segments = Math.max(segments, checkpoint.segments);
+            if (reserved != null)
+                checkpoint.reserved = reserved;
+            setDirty();
+        }
+    }
+
+    public void remove(UUID id) {
+        if (checkpoints.remove(id) != null)
+            setDirty();
+    }
+
+    public boolean contains(UUID id) {
+        return checkpoints.containsKey(id);
+    }
+
+    public ImmutableList<Checkpoint> getCheckpoints() {
+        return ImmutableList.copyOf(checkpoints.values());
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag compound) {
+        compound.put(NBTKeys.WORD_SAVE_DATA_MAP, NBTHelper.serializeUUIDMap(checkpoints, Checkpoint::write));
+        return compound;
+    }
+
+    private static Path segmentFolder(MinecraftServer server, UUID id) {
+        return server.getWorldPath(LevelResource.ROOT).resolve("data").resolve(SEGMENT_FOLDER).resolve(id.toString());
+    }
+
+    /**
+     * Writes one segment of partial undo data. May be called from any thread, as long as the {@link Undo} isn't modified concurrently.
+     */
+    public static void writeSegment(MinecraftServer server, UUID id, int index, Undo undo) throws IOException {
+        Path folder = segmentFolder(server, id);
+        Files.createDirectories(folder);
+        Path tmp = folder.resolve(index + ".dat.tmp");
+        Config.GENERAL.diskCompression.get().write(undo.serialize(), tmp);
+        Files.move(tmp, folder.resolve(index + ".dat"), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public static List<Undo> readSegments(MinecraftServer server, Checkpoint checkpoint) throws IOException {
+        Path folder = segmentFolder(server, checkpoint.getId());
+        List<Undo> res = new ArrayList<>(checkpoint.getSegments());
+        for (int i = 0; i < checkpoint.getSegments(); i++)
+            res.add(Undo.deserialize(NbtCodec.read(folder.resolve(i + ".dat"))));
+        return res;
+    }
+
+    public static void deleteSegments(MinecraftServer server, UUID id) {
+        Path folder = segmentFolder(server, id);
+        if (! Files.isDirectory(folder))
+            return;
+        try (Stream<Path> files = Files.list(folder)) {
+            for (Iterator<Path> it = files.iterator(); it.hasNext(); )
+                Files.deleteIfExists(it.next());
+            Files.deleteIfExists(folder);
+        } catch (IOException e) {
+            BuildingGadgets.LOG.warn("Failed to delete checkpoint data of job {}.", id, e);
+        }
+    }
+
+    public enum JobType {
+        PLACEMENT,
+        UNDO
+    }
+
+    public static final class Checkpoint {
+        private static final String KEY_TYPE = "type";
+        private static final String KEY_OWNER = "owner";
+        private static final String KEY_GADGET = "gadget";
+        private static final String KEY_GADGET_ITEM = "gadget_item";
+        private static final String KEY_CURSOR = "cursor";
+        private static final String KEY_SEGMENTS = "segments";
+        private static final String KEY_RESERVED = "reserved";
+
+        private static Checkpoint read(CompoundTag nbt) {
+            return new Checkpoint(
+                    nbt.getUUID(NBTKeys.KEY_ID),
+                    JobType.valueOf(nbt.getString(KEY_TYPE)),
+                    nbt.getUUID(KEY_OWNER),
+                    nbt.getUUID(KEY_GADGET),
+                    new ResourceLocation(nbt.getString(KEY_GADGET_ITEM)),
+                    new ResourceLocation(nbt.getString(NBTKeys.WORLD_SAVE_DIM)),
+                    nbt.getCompound(NBTKeys.KEY_DATA),
+                    nbt.getInt(KEY_CURSOR),
+                    nbt.getInt(KEY_SEGMENTS),
+                    nbt.getCompound(KEY_RESERVED));
+        }
+
+        private final UUID id;
+        private final JobType type;
+        private final UUID owner;
+        private final UUID gadgetId;
+        private final ResourceLocation gadgetItem;
+        private final ResourceLocation dim;
+        private final CompoundTag data;
+        private int cursor;
+        private int segments;
+        private CompoundTag reserved;
+
+        private Checkpoint(UUID id, JobType type, UUID owner, UUID gadgetId, ResourceLocation gadgetItem, ResourceLocation dim, CompoundTag data, int cursor, int segments, CompoundTag reserved) {
+            this.id = id;
+            this.type = type;
+            this.owner = owner;
+            this.gadgetId = gadgetId;
+            this.gadgetItem = gadgetItem;
+            this.dim = dim;
+            this.data = data;
+            this.cursor = cursor;
+            this.segments = segments;
+            this.reserved = reserved;
+        }
+
+        private CompoundTag write() {
+            CompoundTag nbt = new CompoundTag();
+            nbt.putUUID(NBTKeys.KEY_ID, id);
+            nbt.putString(KEY_TYPE, type.name());
+            nbt.putUUID(KEY_OWNER, owner);
+            nbt.putUUID(KEY_GADGET, gadgetId);
+            nbt.putString(KEY_GADGET_ITEM, gadgetItem.toString());
+            nbt.putString(NBTKeys.WORLD_SAVE_DIM, dim.toString());
+            nbt.put(NBTKeys.KEY_DATA, data);
+            nbt.putInt(KEY_CURSOR, cursor);
+            nbt.putInt(KEY_SEGMENTS, segments);
+            if (! reserved.isEmpty())
+                nbt.put(KEY_RESERVED, reserved);
+            return nbt;
+        }
+
+        public UUID getId() {
+            return id;
+        }
+
+        public JobType getType() {
+            return type;
+        }
+
+        public UUID getOwner() {
+            return owner;
+        }
+
+        public UUID getGadgetId() {
+            return gadgetId;
+        }
+
+        public ResourceLocation getGadgetItem() {
+            return gadgetItem;
+        }
+
+        public ResourceLocation getDim() {
+            return dim;
+        }
+
+        /**
+         * @return the job specific data, which was passed in on creation
+         */
+        public CompoundTag getData() {
+            return data;
+        }
+
+        /**
+         * @return the amount of steps the job had completed at the time of the last checkpoint
+         */
+        public int getCursor() {
+            return cursor;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        /**
+         * @return the materials the job had reserved at the time of the last checkpoint, see
+         * {@link com.direwolf20.buildinggadgets.common.tainted.inventory.MaterialReservation#serialize()}
+         */
+        public CompoundTag getReserved() {
+            return reserved;
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package com.direwolf20.buildinggadgets.common.tainted.save;
 
 import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.JobResumer;
+import com.direwolf20.buildinggadgets.common.tainted.save.TimedDataSave.ExpiryResult;
 import com.direwolf20.buildinggadgets.common.util.ref.Reference.SaveReference;
 import net.minecraft.server.level.ServerLevel;
 import net.minecraft.world.level.Level;
@@ -8,6 +10,7 @@ import net.minecraftforge.event.server.ServerStartedEvent;
 import net.minecraftforge.event.server.ServerStoppedEvent;
 
 import javax.annotation.Nullable;
+import java.nio.file.Path;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Objects;
@@ -19,6 +22,7 @@ public enum SaveManager {
     INSTANCE;
     private SaveTemplateProvider templateProvider;
     private TemplateSave templateSave;
+    private JobCheckpointSave jobCheckpointSave;
     private List<UndoSaveContainer> undoSaves;
 
     SaveManager() {
@@ -39,7 +43,9 @@ public enum SaveManager {
             c.acquire(world);
         }
         templateSave = getTemplateSave(world, SaveReference.TEMPLATE_SAVE_TEMPLATES);
+        jobCheckpointSave = world.getDataStorage().computeIfAbsent(JobCheckpointSave::loads, JobCheckpointSave::new, SaveReference.JOB_CHECKPOINTS);
         BuildingGadgets.LOG.debug("Finished Loading saves");
+        JobResumer.resumeAll(event.getServer(), jobCheckpointSave);
     }
 
     public void onServerStopped(ServerStoppedEvent event) {
@@ -48,15 +54,50 @@ public enum SaveManager {
             c.release();
         }
         templateSave = null;
+        jobCheckpointSave = null;
+        templateProvider.getSubscriptions().clear();
         BuildingGadgets.LOG.debug("Finished clearing save caches");
     }
 
     public static UndoWorldSave getUndoSave(ServerLevel world, IntSupplier maxLengthSupplier, String name) {
-        return world.getDataStorage().computeIfAbsent(UndoWorldSave::loads, () -> new UndoWorldSave(maxLengthSupplier), name);
+        UndoWorldSave save = world.getDataStorage().computeIfAbsent(UndoWorldSave::loads, () -> new UndoWorldSave(maxLengthSupplier), name);
+        save.trackAccess(getAccessTimeSave(world, name));
+        return save;
     }
 
     private static TemplateSave getTemplateSave(ServerLevel world, String name) {
-        return world.getDataStorage().computeIfAbsent(TemplateSave::loads, TemplateSave::new, name);
+        Path folder = TemplateSave.folderOf(world.getServer());
+        TemplateSave save = world.getDataStorage().computeIfAbsent(tag -> TemplateSave.loads(tag, folder), () -> new TemplateSave(folder), name);
+        save.trackAccess(getAccessTimeSave(world, name));
+        return save;
+    }
+
+    private static AccessTimeSave getAccessTimeSave(ServerLevel world, String name) {
+        return world.getDataStorage().computeIfAbsent(AccessTimeSave::loads, AccessTimeSave::new, name + SaveReference.ACCESS_TIMES_SUFFIX);
+    }
+
+    /**
+     * Removes all templates which weren't used since the given time.
+     */
+    public ExpiryResult expireTemplates(long time) {
+        return templateSave != null ? templateSave.removeUnusedSince(time) : new ExpiryResult(0, 0);
+    }
+
+    /**
+     * Removes the undo histories of all gadgets which weren't used since the given time.
+     */
+    public ExpiryResult expireUndoHistories(long time) {
+        int removed = 0;
+        long freedBytes = 0;
+        for (UndoSaveContainer c : undoSaves) {
+            UndoWorldSave save = c.getCurrentSave();
+            if (save == null)
+                continue;
+            ExpiryResult res = save.removeUnusedSince(time);
+            removed += res.getRemoved();
+            freedBytes += res.getFreedBytes();
+        }
+        return new ExpiryResult(removed, freedBytes);
     }
 
 //    private static <T extends SavedData> T get(ServerLevel world, Function<CompoundTag, T> loader, Supplier<T> supplier, String name) {
@@ -71,6 +112,11 @@ public enum SaveManager {
         return templateSave;
     }
 
+    @Nullable
+    public JobCheckpointSave getJobCheckpointSave() {
+        return jobCheckpointSave;
+    }
+
     private static final class UndoSaveContainer {
         private final Function<ServerLevel, UndoWorldSave> constructor;
         @Nullable
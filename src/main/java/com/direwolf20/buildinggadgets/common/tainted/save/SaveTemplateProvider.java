@@ -3,14 +3,18 @@ package com.direwolf20.buildinggadgets.common.tainted.save;
 import com.direwolf20.buildinggadgets.common.BuildingGadgets;
 import com.direwolf20.buildinggadgets.common.network.PacketHandler;
 import com.direwolf20.buildinggadgets.common.network.packets.PacketRequestTemplate;
+import com.direwolf20.buildinggadgets.common.network.packets.PacketUpdateTemplateHeader;
 import com.direwolf20.buildinggadgets.common.network.packets.SplitPacketUpdateTemplate;
 import com.direwolf20.buildinggadgets.common.tainted.template.ITemplateKey;
 import com.direwolf20.buildinggadgets.common.tainted.template.ITemplateProvider;
 import com.direwolf20.buildinggadgets.common.tainted.template.Template;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraftforge.network.PacketDistributor;
+import net.minecraftforge.server.ServerLifecycleHooks;
 import org.apache.logging.log4j.util.TriConsumer;
 
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.Set;
 import java.util.UUID;
@@ -18,19 +22,35 @@ import java.util.WeakHashMap;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+/**
+ * Provides the templates of the {@link TemplateSave} and keeps the clients' copies of them in sync. Updates and requests
+ * are answered by announcing the header together with the body version (see {@link TemplateSave#getBodyVersion(UUID)}).
+ * Clients which hold that body version - in memory or on disk - only replace the header, all others ask for the body,
+ * which is then sent in full.
+ * <p>
+ * Whenever a template is set, the update is announced to the players subscribed to it (see {@link TemplateSubscriptions})
+ * instead of every connected player. Updates targeted at a single player subscribe them, other targets only count towards
+ * the statistics.
+ */
 public final class SaveTemplateProvider implements ITemplateProvider {
     private final Supplier<TemplateSave> save;
     private final Set<IUpdateListener> updateListeners;
+    private final TemplateSubscriptions subscriptions;
 
     public SaveTemplateProvider(Supplier<TemplateSave> save) {
         this.save = save;
         this.updateListeners = Collections.newSetFromMap(new WeakHashMap<>());
+        this.subscriptions = new TemplateSubscriptions();
     }
 
     public TemplateSave getSave() {
         return save.get();
     }
 
+    public TemplateSubscriptions getSubscriptions() {
+        return subscriptions;
+    }
+
     @Override
     public Template getTemplateForKey(ITemplateKey key) {
         UUID id = getId(key);
@@ -39,8 +59,15 @@ public final class SaveTemplateProvider implements ITemplateProvider {
 
     @Override
     public void setTemplate(ITemplateKey key, Template template) {
-        getSave().setTemplate(key.getTemplateId(this::getFreeId), template);
-        notifyListeners(key, template, l -> l::onTemplateUpdate);
+        store(key, template, null);
+    }
+
+    /**
+     * Sets the template on behalf of the given player, who is announced the result together with all other subscribers.
+     */
+    public void setTemplate(ITemplateKey key, Template template, ServerPlayer player) {
+        subscriptions.subscribe(getId(key), player.getUUID());
+        store(key, template, null);
     }
 
     @Override
@@ -53,8 +80,7 @@ public final class SaveTemplateProvider implements ITemplateProvider {
         UUID id = getId(key);
         Template template = getSave().getTemplate(id);
         notifyListeners(key, template, l -> l::onTemplateUpdateSend);
-        PacketHandler.getSplitManager().send(new SplitPacketUpdateTemplate(id, template), PacketDistributor.ALL.noArg());
-        return true;
+        return announce(id, template, null);
     }
 
     @Override
@@ -72,18 +98,68 @@ public final class SaveTemplateProvider implements ITemplateProvider {
         return key.getTemplateId(this::getFreeId);
     }
 
+    /**
+     * Announces the template to the given player, who is subscribed to it from now on.
+     */
     public boolean requestRemoteUpdate(ITemplateKey key, ServerPlayer playerEntity) {
-        return requestRemoteUpdate(key, PacketDistributor.PLAYER.with(() -> playerEntity));
+        UUID id = getId(key);
+        Template template = getSave().getTemplate(id);
+        subscriptions.subscribe(id, playerEntity.getUUID());
+        push(id, template, PacketDistributor.PLAYER.with(() -> playerEntity));
+        subscriptions.onAnnounced(id, 1);
+        return true;
     }
 
+    /**
+     * Announces the template to the given target. Its receivers are unknown, so nobody is subscribed and the announcement
+     * is only counted as unattributed. Prefer {@link #requestRemoteUpdate(ITemplateKey, ServerPlayer)} for single players.
+     */
     @Override
     public boolean requestRemoteUpdate(ITemplateKey key, PacketDistributor.PacketTarget target) {
         UUID id = getId(key);
         Template template = getSave().getTemplate(id);
-        PacketHandler.getSplitManager().send(new SplitPacketUpdateTemplate(id, template), target);
+        push(id, template, target);
+        subscriptions.onAnnouncedUnattributed(id);
         return true;
     }
 
+    /**
+     * Answers a player asking for a template, by announcing it unless they already know they need its body.
+     *
+     * @param requireBody whether the player already knows it doesn't hold the body
+     */
+    public void sendUpdate(ITemplateKey key, ServerPlayer player, boolean requireBody) {
+        UUID id = getId(key);
+        Template template = getSave().getTemplate(id);
+        PacketDistributor.PacketTarget target = PacketDistributor.PLAYER.with(() -> player);
+        subscriptions.subscribe(id, player.getUUID());
+        if (requireBody) {
+            PacketHandler.getSplitManager().send(new SplitPacketUpdateTemplate(id, template, getSave().getBodyVersion(id)), target);
+            subscriptions.onBodySent(id, getSave().getBodySize(id));
+        } else {
+            push(id, template, target);
+            subscriptions.onAnnounced(id, 1);
+        }
+    }
+
+    /**
+     * Sets a template uploaded by the given player, who holds it from now on.
+     */
+    public void receiveTemplate(ITemplateKey key, Template template, ServerPlayer player) {
+        store(key, template, player.getUUID());
+        subscriptions.subscribe(getId(key), player.getUUID());
+    }
+
+    public void onPlayerLoggedOut(ServerPlayer player) {
+        subscriptions.unsubscribe(player.getUUID());
+    }
+
+    public long getBodyVersion(ITemplateKey key) {
+        UUID id = getId(key);
+        getSave().getTemplate(id);
+        return getSave().getBodyVersion(id);
+    }
+
     @Override
     public boolean requestUpdate(ITemplateKey key, PacketDistributor.PacketTarget target) {
         UUID id = getId(key);
@@ -95,6 +171,49 @@ public final class SaveTemplateProvider implements ITemplateProvider {
         getSave().getTemplate(allocated);
     }
 
+    /**
+     * Stores the template and announces it to all subscribed players, except the given one who already holds it.
+     */
+    private void store(ITemplateKey key, Template template, @Nullable UUID holder) {
+        UUID id = getId(key);
+        getSave().setTemplate(id, template);
+        notifyListeners(key, template, l -> l::onTemplateUpdate);
+        announce(id, getSave().getTemplate(id), holder);
+    }
+
+    /**
+     * Announces the template to all online subscribers except the given holder. Players who are online but not subscribed
+     * are counted as skipped.
+     */
+    private boolean announce(UUID id, Template template, @Nullable UUID holder) {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        if (server == null)
+            return false;
+        int online = 0;
+        int sent = 0;
+        for (UUID subscriber : subscriptions.getSubscribers(id)) {
+            ServerPlayer player = server.getPlayerList().getPlayer(subscriber);
+            if (player == null)
+                continue;
+            online++;
+            if (! subscriber.equals(holder)) {
+                push(id, template, PacketDistributor.PLAYER.with(() -> player));
+                sent++;
+            }
+        }
+        subscriptions.onAnnounced(id, sent);
+        subscriptions.onSkipped(id, server.getPlayerCount() - online);
+        return true;
+    }
+
+    /**
+     * Only announces the header and body version, targeted clients holding another body version ask for the body once
+     * they receive it - or once they need it, if they don't hold the template at all.
+     */
+    private void push(UUID id, Template template, PacketDistributor.PacketTarget target) {
+        PacketHandler.send(new PacketUpdateTemplateHeader(id, getSave().getBodyVersion(id), template.getHeader()), target);
+    }
+
     private UUID getFreeId() {
         UUID freeId = getSave().getFreeUUID();
         return freeId;
@@ -0,0 +1,116 @@
+package com.direwolf20.buildinggadgets.common.tainted.save;
+
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers;
+import com.direwolf20.buildinggadgets.common.util.ref.Reference;
+import com.direwolf20.buildinggadgets.common.util.tools.NbtCodec;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.storage.LevelResource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Stores the content-addressed template bodies of a {@link TemplateSave} as one file per hash within the world's data folder.
+ * Files are written on the {@link BackgroundWorkers}, one after another, and never change once written. Bodies which are
+ * still waiting to be written are served from memory.
+ */
+final class TemplateBodyStore {
+    private static final String FOLDER = Reference.MODID + "_templates";
+    private static final String EXTENSION = ".dat";
+
+    static Path folderOf(MinecraftServer server) {
+        return server.getWorldPath(LevelResource.ROOT).resolve("data").resolve(FOLDER);
+    }
+
+    private final Path folder;
+    private final Map<String, CompoundTag> pending;
+    private CompletableFuture<Void> writes;
+
+    TemplateBodyStore(Path folder) {
+        this.folder = folder;
+        this.pending = new ConcurrentHashMap<>();
+        this.writes = CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Reads the body from disk, unless it is still waiting to be written. May be called from any thread, as written files
+     * never change - but a body may be deleted concurrently if it is no longer referenced.
+     */
+    CompoundTag read(String hash) throws IOException {
+        CompoundTag body = pending.get(hash);
+        if (body != null)
+            return body;
+        return NbtCodec.read(file(hash));
+    }
+
+    /**
+     * Server thread only. Schedules the body to be written, if there is no file for it yet.
+     */
+    void write(String hash, CompoundTag body) {
+        if (pending.putIfAbsent(hash, body) != null)
+            return;
+        NbtCodec codec = Config.GENERAL.diskCompression.get();
+        writes = writes.handleAsync((v, e) -> {
+            try {
+                Path file = file(hash);
+                if (! Files.exists(file)) {
+                    Files.createDirectories(folder);
+                    Path tmp = folder.resolve(hash + EXTENSION + ".tmp");
+                    codec.write(body, tmp);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException ex) {
+                BuildingGadgets.LOG.error("Failed to write Template body {}!", hash, ex);
+            } finally {
+                pending.remove(hash);
+            }
+            return null;
+        }, BackgroundWorkers.executor());
+    }
+
+    /**
+     * Server thread only. Deletes the files of all bodies which aren't contained in the given set, after all writes scheduled
+     * so far completed.
+     */
+    void deleteUnreferenced(Set<String> referenced) {
+        Set<String> keep = Set.copyOf(referenced);
+        writes = writes.handleAsync((v, e) -> {
+            if (! Files.isDirectory(folder))
+                return null;
+            try (Stream<Path> files = Files.list(folder)) {
+                for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+                    Path file = it.next();
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(EXTENSION) && ! keep.contains(name.substring(0, name.length() - EXTENSION.length())))
+                        Files.deleteIfExists(file);
+                }
+            } catch (IOException ex) {
+                BuildingGadgets.LOG.error("Failed to delete unreferenced Template bodies!", ex);
+            }
+            return null;
+        }, BackgroundWorkers.executor());
+    }
+
+    /**
+     * Blocks until all writes scheduled so far completed, so that the index of a {@link TemplateSave} never refers to a body
+     * which isn't on disk.
+     */
+    void awaitWrites() {
+        writes.join();
+    }
+
+    private Path file(String hash) {
+        return folder.resolve(hash + EXTENSION);
+    }
+}
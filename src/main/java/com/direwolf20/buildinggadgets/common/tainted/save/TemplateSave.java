@@ -1,82 +1,405 @@
 package com.direwolf20.buildinggadgets.common.tainted.save;
 
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
+import com.direwolf20.buildinggadgets.common.config.Config;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers;
 import com.direwolf20.buildinggadgets.common.tainted.save.TemplateSave.TemplateInfo;
 import com.direwolf20.buildinggadgets.common.tainted.template.Template;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.server.MinecraftServer;
 
+import javax.annotation.Nullable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Stores the {@link Template} of every Template-Gadget and Template-Item. The bodies of the templates (everything but the
+ * {@link com.direwolf20.buildinggadgets.common.tainted.template.TemplateHeader}) are stored content-addressed by their SHA-256
+ * hash and reference counted, so that identical templates copied by many players are only kept and written once.
+ * <p>
+ * The bodies themselves live in one file each (see {@link TemplateBodyStore}), this save only holds the index. Templates are
+ * loaded when they are requested and kept in a least recently used cache bounded by {@link Config.CategoryGeneral#templateCacheSize}.
+ */
 public final class TemplateSave extends TimedDataSave<TemplateInfo> {
+    private final Map<String, StoredBody> bodies;
+    private final TemplateBodyStore bodyStore;
+    private final LinkedHashMap<UUID, TemplateInfo> loaded;
+    private long loadedBytes;
+    private boolean deleteAfterSave;
 
-    public TemplateSave() {
+    public TemplateSave(Path folder) {
         super();
+        this.bodies = new HashMap<>();
+        this.bodyStore = new TemplateBodyStore(folder);
+        this.loaded = new LinkedHashMap<>(16, 0.75f, true);
+        this.loadedBytes = 0;
+        this.deleteAfterSave = false;
     }
 
-    public static TemplateSave loads(CompoundTag tag) {
-        TemplateSave templateSave = new TemplateSave();
+    public static TemplateSave loads(CompoundTag tag, Path folder) {
+        TemplateSave templateSave = new TemplateSave(folder);
         templateSave.load(tag);
         return templateSave;
     }
 
+    static Path folderOf(MinecraftServer server) {
+        return TemplateBodyStore.folderOf(server);
+    }
+
     public Template getTemplate(UUID id) {
-        TemplateInfo info = get(id, uuid -> new TemplateInfo());
-        return markDirtyAndUpdate(info).getTemplate();
+        TemplateInfo info = touch(id, get(id));
+        if (info.template == null) {
+            try {
+                info.template = createTemplate(bodyStore.read(info.hash), info.header);
+            } catch (IOException | RuntimeException e) {
+                BuildingGadgets.LOG.error("Failed to load Template body {} for {}, replacing it with an empty Template!", info.hash, id, e);
+                store(info, new Template());
+                setDirty();
+            }
+        }
+        cache(id, info);
+        return info.template;
+    }
+
+    /**
+     * @return the first 64 bits of the body's hash, which identify the stored blocks of the template independent of its
+     * header. Rotating, mirroring or renaming a template therefore keeps this version, while copying something else changes it.
+     */
+    public long getBodyVersion(UUID id) {
+        return HexFormat.fromHexDigitsToLong(get(id).hash, 0, 16);
+    }
+
+    /**
+     * @return the uncompressed size of the template's body
+     */
+    public int getBodySize(UUID id) {
+        StoredBody body = bodies.get(get(id).hash);
+        return body != null ? body.size : 0;
     }
 
     void setTemplate(UUID id, Template template) {
-        markDirtyAndUpdate(get(id, uuid -> new TemplateInfo(template))).setTemplate(template);
+        TemplateInfo info = touch(id, get(id));
+        template = template.normalize(); //the stored body is always the normalized one
+        if (info.template != null && template.sharesStoredBlocks(info.template)) { //only the header changed, f.e. by rotating
+            info.header = template.getHeader().toNBT(true);
+            info.template = template;
+        } else
+            store(info, template);
+        setDirty();
+        cache(id, info);
     }
 
     void removeTemplate(UUID id) {
+        if (contains(id)) {
+            uncache(id);
+            release(get(id).hash);
+        }
         remove(id);
         setDirty();
     }
 
+    public Statistics getStatistics() {
+        int templates = 0;
+        long totalBytes = 0;
+        long storedBytes = 0;
+        for (StoredBody body : bodies.values()) {
+            templates += body.references;
+            totalBytes += (long) body.size * body.references;
+            storedBytes += body.size;
+        }
+        return new Statistics(templates, bodies.size(), totalBytes, storedBytes);
+    }
+
+    /**
+     * Reads up to the given amount of distinct bodies, largest first, on the {@link BackgroundWorkers}. Meant for benchmarks
+     * on real templates. Server thread only, but the returned future completes on a worker.
+     */
+    public CompletableFuture<List<CompoundTag>> sampleBodies(int max) {
+        List<Map.Entry<String, StoredBody>> entries = new ArrayList<>(bodies.entrySet());
+        entries.sort(Comparator.comparingInt((Map.Entry<String, StoredBody> e) -> e.getValue().size).reversed());
+        List<String> hashes = new ArrayList<>();
+        for (Map.Entry<String, StoredBody> entry : entries.subList(0, Math.min(max, entries.size())))
+            hashes.add(entry.getKey());
+        return CompletableFuture.supplyAsync(() -> {
+            List<CompoundTag> res = new ArrayList<>();
+            for (String hash : hashes) {
+                try {
+                    res.add(bodyStore.read(hash));
+                } catch (IOException e) {
+                    BuildingGadgets.LOG.warn("Failed to read Template body {}, skipping it.", hash, e);
+                }
+            }
+            return res;
+        }, BackgroundWorkers.executor());
+    }
+
+    /**
+     * The bodies which are no longer referenced are only deleted once the index without them has been written, see
+     * {@link #save(File)}, so that a crash in between can't leave the index referring to deleted bodies.
+     */
+    @Override
+    public ExpiryResult removeUnusedSince(long time) {
+        ExpiryResult res = super.removeUnusedSince(time);
+        if (res.getRemoved() > 0)
+            deleteAfterSave = true;
+        return res;
+    }
+
+    /**
+     * @return the size of the body, if this was the last template referencing it
+     */
+    @Override
+    protected long expire(UUID id) {
+        if (! contains(id))
+            return 0;
+        uncache(id);
+        StoredBody body = bodies.get(get(id).hash);
+        long freed = body != null && body.references <= 1 ? body.size : 0;
+        release(get(id).hash);
+        remove(id);
+        return freed;
+    }
+
+    @Override
+    public void load(CompoundTag nbt) {
+        bodies.clear();
+        loaded.clear();
+        loadedBytes = 0;
+        for (Tag inbt : nbt.getList(NBTKeys.KEY_BODIES, Tag.TAG_COMPOUND)) {
+            CompoundTag tag = (CompoundTag) inbt;
+            String hash = tag.getString(NBTKeys.KEY_HASH);
+            bodies.put(hash, new StoredBody(tag.getInt(NBTKeys.KEY_SIZE)));
+            if (tag.contains(NBTKeys.KEY_DATA, Tag.TAG_COMPOUND)) { //saved before bodies were moved into their own files
+                bodyStore.write(hash, tag.getCompound(NBTKeys.KEY_DATA));
+                setDirty();
+            }
+        }
+        super.load(nbt);
+        // bodies are only kept as long as some template references them
+        bodies.values().removeIf(body -> body.references <= 0);
+        bodyStore.deleteUnreferenced(bodies.keySet());
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag compound) {
+        bodyStore.awaitWrites();
+        compound = super.save(compound);
+        ListTag list = new ListTag();
+        for (Map.Entry<String, StoredBody> entry : bodies.entrySet()) {
+            CompoundTag tag = new CompoundTag();
+            tag.putString(NBTKeys.KEY_HASH, entry.getKey());
+            tag.putInt(NBTKeys.KEY_SIZE, entry.getValue().size);
+            list.add(tag);
+        }
+        compound.put(NBTKeys.KEY_BODIES, list);
+        return compound;
+    }
+
+    @Override
+    public void save(File file) {
+        super.save(file);
+        if (deleteAfterSave) {
+            deleteAfterSave = false;
+            bodyStore.deleteUnreferenced(bodies.keySet());
+        }
+    }
+
     @Override
     protected TemplateInfo createValue() {
-        return new TemplateInfo();
+        TemplateInfo info = new TemplateInfo();
+        store(info, new Template());
+        return info;
     }
 
     @Override
     protected TemplateInfo readValue(CompoundTag nbt) {
-        return new TemplateInfo(nbt);
+        TemplateInfo info = new TemplateInfo(nbt);
+        if (nbt.contains(NBTKeys.KEY_DATA, Tag.TAG_COMPOUND)) { //saved before bodies were deduplicated
+            CompoundTag data = nbt.getCompound(NBTKeys.KEY_DATA);
+            info.header = data.getCompound(NBTKeys.KEY_HEADER);
+            data.remove(NBTKeys.KEY_HEADER);
+            reference(info, data);
+            setDirty();
+        } else if (bodies.containsKey(nbt.getString(NBTKeys.KEY_HASH))) {
+            info.hash = nbt.getString(NBTKeys.KEY_HASH);
+            info.header = nbt.getCompound(NBTKeys.KEY_HEADER);
+            bodies.get(info.hash).references++;
+        } else {
+            BuildingGadgets.LOG.error("Template body {} is missing, replacing it with an empty Template!", nbt.getString(NBTKeys.KEY_HASH));
+            store(info, new Template());
+        }
+        return info;
     }
 
-    private TemplateInfo markDirtyAndUpdate(TemplateInfo info) {
-        setDirty();
-        return info.updateTime();
+    private void store(TemplateInfo info, Template template) {
+        template = template.normalize();
+        CompoundTag data = template.serialize(true);
+        CompoundTag header = data.getCompound(NBTKeys.KEY_HEADER);
+        data.remove(NBTKeys.KEY_HEADER);
+        String previous = info.hash;
+        reference(info, data);
+        info.header = header;
+        info.template = template;
+        if (previous != null)
+            release(previous);
     }
 
-    static final class TemplateInfo extends TimedDataSave.TimedValue { //for reasons I don't understand it doesn't compile if you leave the TimedDataSave out!
-        private Template template;
+    /**
+     * Also marks this dirty once the required items of the cached template are evaluated, as they are saved with its header.
+     */
+    private void cache(UUID id, TemplateInfo info) {
+        if (info.template != null)
+            info.template.setMaterialsListener(this::setDirty);
+        TemplateInfo previous = loaded.put(id, info);
+        if (previous != null)
+            loadedBytes -= previous.cachedSize;
+        info.cachedSize = bodies.get(info.hash).size;
+        loadedBytes += info.cachedSize;
+        long maxBytes = Config.GENERAL.templateCacheSize.get() * 1024L * 1024L;
+        for (Iterator<TemplateInfo> it = loaded.values().iterator(); loadedBytes > maxBytes && loaded.size() > 1; ) {
+            TemplateInfo eldest = it.next();
+            it.remove();
+            unload(eldest);
+        }
+    }
 
-        private TemplateInfo(CompoundTag nbt) {
-            super(nbt);
-            template = Template.deserialize(nbt.getCompound(NBTKeys.KEY_DATA), null, true);
+    private void uncache(UUID id) {
+        TemplateInfo info = loaded.remove(id);
+        if (info != null)
+            unload(info);
+    }
+
+    private void unload(TemplateInfo info) {
+        loadedBytes -= info.cachedSize;
+        if (info.template != null) {
+            info.template.setMaterialsListener(null);
+            info.header = info.template.getHeader().toNBT(true);
         }
+        info.template = null;
+    }
 
-        private TemplateInfo(Template template) {
-            super();
-            this.template = template;
+    private void reference(TemplateInfo info, CompoundTag body) {
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        MessageDigest digest = createDigest();
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(counter, digest))) {
+            body.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        String hash = HexFormat.of().formatHex(digest.digest());
+        StoredBody stored = bodies.computeIfAbsent(hash, h -> new StoredBody((int) counter.getCount()));
+        if (stored.references++ == 0)
+            bodyStore.write(hash, body);
+        info.hash = hash;
+    }
+
+    private void release(String hash) {
+        StoredBody body = bodies.get(hash);
+        if (body != null && --body.references <= 0)
+            bodies.remove(hash);
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required to be supported by every JVM!", e);
         }
+    }
 
-        private TemplateInfo(long lastUpdateTime, Template template) {
-            super(lastUpdateTime);
-            this.template = template;
+    private static Template createTemplate(CompoundTag body, CompoundTag header) {
+        // shallow, the template only reads from the body's tags
+        CompoundTag nbt = new CompoundTag();
+        for (String key : body.getAllKeys())
+            nbt.put(key, body.get(key));
+        nbt.put(NBTKeys.KEY_HEADER, header);
+        return Template.deserialize(nbt, null, true);
+    }
+
+    private static final class StoredBody {
+        private final int size;
+        private int references;
+
+        private StoredBody(int size) {
+            this.size = size;
+            this.references = 0;
         }
+    }
 
-        private TemplateInfo() {
-            this(new Template());
+    public static final class Statistics {
+        private final int templates;
+        private final int distinctBodies;
+        private final long totalBytes;
+        private final long storedBytes;
+
+        private Statistics(int templates, int distinctBodies, long totalBytes, long storedBytes) {
+            this.templates = templates;
+            this.distinctBodies = distinctBodies;
+            this.totalBytes = totalBytes;
+            this.storedBytes = storedBytes;
+        }
+
+        public int getTemplates() {
+            return templates;
+        }
+
+        public int getDistinctBodies() {
+            return distinctBodies;
+        }
+
+        /**
+         * @return the uncompressed size all templates would need without deduplication
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return the uncompressed size of the distinct bodies which are actually stored
+         */
+        public long getStoredBytes() {
+            return storedBytes;
         }
 
-        private Template getTemplate() {
-            return template;
+        public double getRatio() {
+            return storedBytes > 0 ? (double) totalBytes / storedBytes : 1;
         }
+    }
+
+    static final class TemplateInfo extends TimedDataSave.TimedValue { //for reasons I don't understand it doesn't compile if you leave the TimedDataSave out!
+        private String hash;
+        private CompoundTag header;
+        @Nullable
+        private Template template; //loaded from the body when requested, until evicted from the cache
+        private int cachedSize;
 
-        public TemplateInfo setTemplate(Template template) {
-            this.template = template;
-            return this;
+        private TemplateInfo(CompoundTag nbt) {
+            super(nbt);
+        }
+
+        private TemplateInfo() {
+            super();
         }
 
         @Override
@@ -87,7 +410,9 @@ public final class TemplateSave extends TimedDataSave<TemplateInfo> {
         @Override
         public CompoundTag write() {
             CompoundTag nbt = super.write();
-            nbt.put(NBTKeys.KEY_DATA, template.serialize(true));
+            nbt.putString(NBTKeys.KEY_HASH, hash);
+            // materials may have been evaluated since the template was stored
+            nbt.put(NBTKeys.KEY_HEADER, template != null ? template.getHeader().toNBT(true) : header);
             return nbt;
         }
     }
@@ -0,0 +1,134 @@
+package com.direwolf20.buildinggadgets.common.tainted.save;
+
+import java.util.*;
+
+/**
+ * Tracks which players hold a copy of which template, so that updates are only sent to them, together with how much was
+ * sent for every template. A player is subscribed to a template once they request it, upload it or are sent it, and to
+ * none anymore once they log out. Only accessed from the server thread.
+ */
+public final class TemplateSubscriptions {
+    private final Map<UUID, Set<UUID>> subscribers;
+    private final Map<UUID, DeliveryStatistics> statistics;
+
+    TemplateSubscriptions() {
+        this.subscribers = new HashMap<>();
+        this.statistics = new HashMap<>();
+    }
+
+    void subscribe(UUID templateId, UUID player) {
+        subscribers.computeIfAbsent(templateId, id -> new HashSet<>()).add(player);
+    }
+
+    void unsubscribe(UUID player) {
+        Iterator<Set<UUID>> it = subscribers.values().iterator();
+        while (it.hasNext()) {
+            Set<UUID> players = it.next();
+            players.remove(player);
+            if (players.isEmpty())
+                it.remove();
+        }
+    }
+
+    Set<UUID> getSubscribers(UUID templateId) {
+        return subscribers.getOrDefault(templateId, Collections.emptySet());
+    }
+
+    void onAnnounced(UUID templateId, int players) {
+        statisticsOf(templateId).announcements += players;
+    }
+
+    /**
+     * Counts an announcement to a target whose receivers aren't known.
+     */
+    void onAnnouncedUnattributed(UUID templateId) {
+        statisticsOf(templateId).unattributed++;
+    }
+
+    void onBodySent(UUID templateId, int bytes) {
+        DeliveryStatistics res = statisticsOf(templateId);
+        res.bodies++;
+        res.bodyBytes += bytes;
+    }
+
+    /**
+     * @param players how many players were online but not subscribed, and would have received the update if it were broadcast
+     */
+    void onSkipped(UUID templateId, int players) {
+        statisticsOf(templateId).skipped += players;
+    }
+
+    void clear() {
+        subscribers.clear();
+        statistics.clear();
+    }
+
+    /**
+     * @return the statistics of the templates which were sent the most bytes, most first
+     */
+    public List<DeliveryStatistics> getTopStatistics(int max) {
+        List<DeliveryStatistics> res = new ArrayList<>(statistics.values());
+        res.sort(Comparator.comparingLong(DeliveryStatistics::getBodyBytes)
+                .thenComparingInt(DeliveryStatistics::getAnnouncements)
+                .thenComparingInt(DeliveryStatistics::getUnattributed)
+                .reversed());
+        return res.subList(0, Math.min(max, res.size()));
+    }
+
+    private DeliveryStatistics statisticsOf(UUID templateId) {
+        return statistics.computeIfAbsent(templateId, DeliveryStatistics::new);
+    }
+
+    public final class DeliveryStatistics {
+        private final UUID templateId;
+        private int announcements;
+        private int bodies;
+        private long bodyBytes;
+        private int skipped;
+        private int unattributed;
+
+        private DeliveryStatistics(UUID templateId) {
+            this.templateId = templateId;
+        }
+
+        public UUID getTemplateId() {
+            return templateId;
+        }
+
+        public int getSubscribers() {
+            return TemplateSubscriptions.this.getSubscribers(templateId).size();
+        }
+
+        /**
+         * @return how often the header and body version were sent, counting every receiving player
+         */
+        public int getAnnouncements() {
+            return announcements;
+        }
+
+        public int getBodies() {
+            return bodies;
+        }
+
+        /**
+         * @return the uncompressed size of all bodies sent
+         */
+        public long getBodyBytes() {
+            return bodyBytes;
+        }
+
+        /**
+         * @return how often an update wasn't sent to a player, because they weren't subscribed
+         */
+        public int getSkipped() {
+            return skipped;
+        }
+
+        /**
+         * @return how often the header and body version were sent to a target whose receivers aren't known
+         */
+        public int getUnattributed() {
+            return unattributed;
+        }
+    }
+}
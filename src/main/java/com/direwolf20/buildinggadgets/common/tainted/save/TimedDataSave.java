@@ -5,23 +5,44 @@ import com.direwolf20.buildinggadgets.common.util.helpers.NBTHelper;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import it.unimi.dsi.fastutil.longs.Long2ObjectRBTreeMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectSortedMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.world.level.saveddata.SavedData;
 
+import javax.annotation.Nullable;
 import java.util.*;
 import java.util.function.Function;
 
 public abstract class TimedDataSave<T extends TimedValue> extends SavedData {
     private Map<UUID, T> idToValue;
     private Long2ObjectSortedMap<Set<UUID>> timeToId;
+    @Nullable
+    private AccessTimeSave accessTimes;
 
     public TimedDataSave() {
         super();
         this.idToValue = new HashMap<>();
         this.timeToId = new Long2ObjectRBTreeMap<>();
+        this.accessTimes = null;
+    }
+
+    /**
+     * Records access times in the given {@link AccessTimeSave} instead of marking this save dirty whenever a value is
+     * {@link #touch(UUID, TimedValue) touched}. Access times recorded there, but not yet written to this save, are applied.
+     */
+    public void trackAccess(AccessTimeSave accessTimes) {
+        for (Object2LongMap.Entry<UUID> entry : accessTimes.getAccessTimes().object2LongEntrySet()) {
+            T value = idToValue.get(entry.getKey());
+            if (value != null && value.getUpdateTime() < entry.getLongValue()) {
+                long previous = value.getUpdateTime();
+                value.setUpdateTime(entry.getLongValue());
+                reindex(entry.getKey(), previous, value.getUpdateTime());
+            }
+        }
+        this.accessTimes = accessTimes;
     }
 
     public UUID getFreeUUID() {
@@ -39,21 +60,82 @@ public abstract class TimedDataSave<T extends TimedValue> extends SavedData {
         return get(id, uuid -> createValue());
     }
 
+    /**
+     * @return the value for the given id, creating it if there is none yet. Only creating a value marks this save dirty,
+     * callers which modify the value have to {@link #setDirty()} themselves.
+     */
     protected T get(UUID id, Function<UUID, T> factory) {
-        setDirty();
-        return idToValue.computeIfAbsent(id, factory);
+        T value = idToValue.get(id);
+        if (value == null) {
+            value = factory.apply(id);
+            idToValue.put(id, value);
+            reindex(id, null, value.getUpdateTime());
+            setDirty();
+        }
+        return value;
+    }
+
+    /**
+     * Updates the access time of the given value. If an {@link AccessTimeSave} is {@link #trackAccess(AccessTimeSave) tracking}
+     * accesses, only the access time is recorded there, otherwise this save is marked dirty.
+     */
+    protected T touch(UUID id, T value) {
+        long previous = value.getUpdateTime();
+        value.updateTime();
+        reindex(id, previous, value.getUpdateTime());
+        if (accessTimes != null)
+            accessTimes.record(id, value.getUpdateTime());
+        else
+            setDirty();
+        return value;
     }
 
     protected void remove(UUID id) {
         T val = idToValue.remove(id);
-        if (val != null) {
-            Set<UUID> set = timeToId.get(val.getUpdateTime());
-            if (! set.isEmpty()) {
+        if (val != null)
+            reindex(id, val.getUpdateTime(), null);
+        if (accessTimes != null)
+            accessTimes.remove(id);
+    }
+
+    private void reindex(UUID id, @Nullable Long previousTime, @Nullable Long time) {
+        if (previousTime != null) {
+            Set<UUID> set = timeToId.get(previousTime.longValue());
+            if (set != null) {
                 set.remove(id);
                 if (set.isEmpty())
-                    timeToId.remove(val.getUpdateTime());
+                    timeToId.remove(previousTime.longValue());
             }
         }
+        if (time != null)
+            timeToId.computeIfAbsent(time.longValue(), i -> new HashSet<>()).add(id);
+    }
+
+    /**
+     * Removes all values which weren't accessed since the given time.
+     */
+    public ExpiryResult removeUnusedSince(long time) {
+        List<UUID> expired = new ArrayList<>();
+        for (Set<UUID> ids : timeToId.headMap(time).values())
+            expired.addAll(ids);
+        long freedBytes = 0;
+        for (UUID id : expired)
+            freedBytes += expire(id);
+        if (! expired.isEmpty())
+            setDirty();
+        return new ExpiryResult(expired.size(), freedBytes);
+    }
+
+    /**
+     * Removes an expired value.
+     *
+     * @return the amount of bytes freed by removing it
+     */
+    protected long expire(UUID id) {
+        T value = idToValue.get(id);
+        long size = value != null ? NBTHelper.sizeOf(value.write()) : 0;
+        remove(id);
+        return size;
     }
 
     protected boolean contains(UUID id) {
@@ -80,6 +162,8 @@ public abstract class TimedDataSave<T extends TimedValue> extends SavedData {
     public CompoundTag save(CompoundTag compound) {
         ListTag data = NBTHelper.serializeUUIDMap(idToValue, TimedValue::write);
         compound.put(NBTKeys.WORD_SAVE_DATA_MAP, data);
+        if (accessTimes != null)
+            accessTimes.clear();
         return compound;
     }
 
@@ -87,6 +171,27 @@ public abstract class TimedDataSave<T extends TimedValue> extends SavedData {
 
     protected abstract T readValue(CompoundTag nbt);
 
+    public static final class ExpiryResult {
+        private final int removed;
+        private final long freedBytes;
+
+        public ExpiryResult(int removed, long freedBytes) {
+            this.removed = removed;
+            this.freedBytes = freedBytes;
+        }
+
+        public int getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return the uncompressed size of the removed data
+         */
+        public long getFreedBytes() {
+            return freedBytes;
+        }
+    }
+
     public static class TimedValue {
         private long lastUpdateTime;
 
@@ -111,6 +216,10 @@ public abstract class TimedDataSave<T extends TimedValue> extends SavedData {
             return lastUpdateTime;
         }
 
+        private void setUpdateTime(long lastUpdateTime) {
+            this.lastUpdateTime = lastUpdateTime;
+        }
+
         public CompoundTag write() {
             CompoundTag nbt = new CompoundTag();
             nbt.putLong(NBTKeys.WORLD_SAVE_TIME, lastUpdateTime);
@@ -32,8 +32,10 @@ import net.minecraft.world.level.Level;
 import net.minecraft.world.level.block.entity.BlockEntity;
 import net.minecraft.world.level.block.state.BlockState;
 
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.function.IntFunction;
 import java.util.function.ToIntFunction;
@@ -113,6 +115,10 @@ public final class Undo {
         this.boundingBox = boundingBox;
     }
 
+    public ResourceKey<Level> getDimension() {
+        return dim;
+    }
+
     public Region getBoundingBox() {
         return boundingBox;
     }
@@ -203,10 +209,31 @@ public final class Undo {
     public static final class Builder {
         private final ImmutableMap.Builder<BlockPos, BlockInfo> mapBuilder;
         private Region.Builder regionBuilder;
+        @Nullable
+        private Map<BlockPos, BlockInfo> delta;
 
         private Builder() {
             mapBuilder = ImmutableMap.builder();
             regionBuilder = null;
+            delta = null;
+        }
+
+        /**
+         * Enables tracking of the entries recorded since the last call to {@link #drainDelta(Level)}.
+         */
+        public Builder trackDelta() {
+            if (delta == null)
+                delta = new LinkedHashMap<>();
+            return this;
+        }
+
+        /**
+         * Adds all entries of the given {@link Undo} to this {@code Builder}, without them being part of the next {@link #drainDelta(Level) delta}.
+         */
+        public Builder merge(Undo undo) {
+            for (Map.Entry<BlockPos, BlockInfo> entry : undo.dataMap.entrySet())
+                recordInfo(entry.getKey(), entry.getValue());
+            return this;
         }
 
         public Builder record(BlockGetter reader, BlockPos pos, BlockData placeData, Multiset<IUniqueObject<?>> requiredItems, Multiset<IUniqueObject<?>> producedItems) {
@@ -217,13 +244,37 @@ public final class Undo {
         }
 
         private Builder record(BlockPos pos, BlockData recordedData, BlockData placedData, Multiset<IUniqueObject<?>> requiredItems, Multiset<IUniqueObject<?>> producedItems) {
-            mapBuilder.put(pos, new BlockInfo(recordedData, placedData, requiredItems, producedItems));
+            BlockInfo info = new BlockInfo(recordedData, placedData, requiredItems, producedItems);
+            if (delta != null)
+                delta.put(pos, info);
+            return recordInfo(pos, info);
+        }
+
+        private Builder recordInfo(BlockPos pos, BlockInfo info) {
+            mapBuilder.put(pos, info);
             if (regionBuilder == null)
                 regionBuilder = Region.enclosingBuilder();
             regionBuilder.enclose(pos);
             return this;
         }
 
+        /**
+         * Creates an {@link Undo} of everything recorded since the last call to this Method (or since creation) and resets
+         * the delta. The recorded data is still part of the {@link Undo} created by {@link #build(Level)}.
+         */
+        public Undo drainDelta(Level dim) {
+            Preconditions.checkState(delta != null, "Cannot drain the delta of an Undo.Builder which doesn't track it!");
+            Region.Builder deltaRegion = null;
+            for (BlockPos pos : delta.keySet()) {
+                if (deltaRegion == null)
+                    deltaRegion = Region.enclosingBuilder();
+                deltaRegion.enclose(pos);
+            }
+            Undo res = new Undo(dim.dimension(), ImmutableMap.copyOf(delta), deltaRegion != null ? deltaRegion.build() : Region.singleZero());
+            delta.clear();
+            return res;
+        }
+
         public Undo build(Level dim) {
             return new Undo(dim.dimension(), mapBuilder.build(), regionBuilder != null ? regionBuilder.build() : Region.singleZero());
         }
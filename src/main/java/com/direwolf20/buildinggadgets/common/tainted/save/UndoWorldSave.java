@@ -32,10 +32,14 @@ public class UndoWorldSave extends TimedDataSave<UndoValue> {
     public void insertUndo(UUID uuid, Undo undo) {
         UndoValue val = getAndUpdateTime(uuid);
         val.getHistory().add(undo);
+        setDirty();
     }
 
     public Optional<Undo> getUndo(UUID uuid) {
-        return getAndUpdateTime(uuid).getHistory().get();
+        Optional<Undo> undo = getAndUpdateTime(uuid).getHistory().get();
+        if (undo.isPresent())
+            setDirty();
+        return undo;
     }
 
     public Optional<Undo> peekSnapshot(UUID uuid) {
@@ -44,12 +48,11 @@ public class UndoWorldSave extends TimedDataSave<UndoValue> {
 
     public void removeHistory(UUID uuid) {
         remove(uuid);
+        setDirty();
     }
 
     private UndoValue getAndUpdateTime(UUID uuid) {
-        UndoValue val = get(uuid);
-        val.updateTime();
-        return val;
+        return touch(uuid, get(uuid));
     }
 
     @Override
@@ -0,0 +1,74 @@
+package com.direwolf20.buildinggadgets.common.tainted.template;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
+import com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers;
+import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.MaterialList;
+import com.direwolf20.buildinggadgets.common.util.CommonUtils;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.BlockHitResult;
+import net.minecraft.world.phys.Vec3;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.IntFunction;
+
+/**
+ * Estimates the {@link MaterialList} of a {@link Template} once per distinct {@link BlockData} instead of once per block.
+ * Counting how often each {@link BlockData} occurs is split into ranges, which are counted on the {@link BackgroundWorkers}.
+ * Querying the materials of the (usually few) distinct {@link BlockData} happens on the thread asking for them, as that
+ * may touch the world.
+ */
+final class MaterialEstimation {
+    // smaller ranges cost more to schedule and merge than counting them takes
+    private static final int MIN_RANGE = 1 << 14;
+    private static final int RANGES_PER_WORKER = 4;
+
+    private MaterialEstimation() {}
+
+    /**
+     * @param size   the amount of blocks
+     * @param dataAt the {@link BlockData} of the n-th block, called concurrently from multiple workers
+     */
+    static CompletableFuture<Object2IntMap<BlockData>> count(int size, IntFunction<BlockData> dataAt) {
+        int ranges = Math.max(1, Math.min(BackgroundWorkers.parallelism() * RANGES_PER_WORKER, size / MIN_RANGE));
+        List<CompletableFuture<Object2IntMap<BlockData>>> parts = new ArrayList<>(ranges);
+        for (int i = 0; i < ranges; i++) {
+            int from = (int) ((long) size * i / ranges);
+            int to = (int) ((long) size * (i + 1) / ranges);
+            parts.add(CompletableFuture.supplyAsync(() -> countRange(dataAt, from, to), BackgroundWorkers.executor()));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).thenApply(v -> {
+            Object2IntOpenHashMap<BlockData> res = new Object2IntOpenHashMap<>();
+            for (CompletableFuture<Object2IntMap<BlockData>> part : parts) {
+                for (Object2IntMap.Entry<BlockData> entry : part.join().object2IntEntrySet())
+                    res.addTo(entry.getKey(), entry.getIntValue());
+            }
+            return res;
+        });
+    }
+
+    private static Object2IntMap<BlockData> countRange(IntFunction<BlockData> dataAt, int from, int to) {
+        Object2IntOpenHashMap<BlockData> res = new Object2IntOpenHashMap<>();
+        for (int i = from; i < to; i++)
+            res.addTo(dataAt.apply(i), 1);
+        return res;
+    }
+
+    /**
+     * Combines the materials of every distinct {@link BlockData}, multiplied by its count. As the positions are no longer
+     * known, the pick-block click is simulated at the given position for all of them.
+     */
+    static MaterialList toMaterialList(Object2IntMap<BlockData> counts, TemplateTransform transform, BuildContext context,
+                                       BlockPos pos, @Nullable Vec3 simulatePos) {
+        BlockHitResult target = simulatePos != null ? CommonUtils.fakeRayTrace(simulatePos, pos) : null;
+        MaterialList.SubEntryBuilder builder = MaterialList.andBuilder();
+        for (Object2IntMap.Entry<BlockData> entry : counts.object2IntEntrySet())
+            builder.add(transform.apply(entry.getKey()).getRequiredItems(context, target, pos).times(entry.getIntValue()));
+        return builder.build();
+    }
+}
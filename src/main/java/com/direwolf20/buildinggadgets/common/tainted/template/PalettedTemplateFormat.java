@@ -0,0 +1,334 @@
+package com.direwolf20.buildinggadgets.common.tainted.template;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.tainted.building.Region;
+import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.ITileDataSerializer;
+import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.TileSupport;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.IBuildView;
+import com.direwolf20.buildinggadgets.common.tainted.registry.Registries;
+import com.direwolf20.buildinggadgets.common.util.compression.DataCompressor;
+import com.direwolf20.buildinggadgets.common.util.compression.DataDecompressor;
+import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
+import com.direwolf20.buildinggadgets.common.util.tools.RegistryUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.LongArrayTag;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.util.Mth;
+import net.minecraft.util.SimpleBitStorage;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The second version of the {@link Template} body format. Instead of one long per block, the bounding box is stored as a
+ * dense volume in YZX order (like vanilla section storage):
+ * <ul>
+ *     <li>an occupancy bitmap with one bit per position of the volume, marking the positions which contain a block</li>
+ *     <li>a bit-packed array of palette indices, one per set bit of the bitmap, using as few bits as the palette requires</li>
+ *     <li>the palette of {@link BlockData} without any {@link net.minecraft.world.level.block.entity.BlockEntity} data</li>
+ *     <li>the {@link BlockData} of all blocks with actual tile data, keyed by their index into the packed array</li>
+ * </ul>
+ * Keeping the tile data out of the palette keeps the palette (and thereby the bits per block) small, even if a template
+ * contains lots of unique chests or signs.
+ */
+final class PalettedTemplateFormat {
+    static final int VERSION = 2;
+    // the bitmap costs one bit per position of the volume, templates sparser than this are cheaper in the SparseTemplateFormat
+    private static final int MAX_VOLUME_PER_BLOCK = 64;
+    private static final int MIN_VOLUME = 4096;
+
+    private PalettedTemplateFormat() {}
+
+    /**
+     * @return whether a template with the given amount of blocks within the given bounds should be written in this format
+     */
+    static boolean isSuitable(Region bounds, int blockCount) {
+        long volume = (long) bounds.getXSize() * bounds.getYSize() * bounds.getZSize();
+        return volume <= Integer.MAX_VALUE && volume <= Math.max(MIN_VOLUME, (long) MAX_VOLUME_PER_BLOCK * blockCount);
+    }
+
+    /**
+     * @return false if nothing was written, because the map contains positions outside of the given bounds
+     */
+    static boolean write(Map<BlockPos, BlockData> map, Region bounds, boolean persisted, CompoundTag res) {
+        int sizeX = bounds.getXSize();
+        int sizeZ = bounds.getZSize();
+        // only the blocks are sorted into volume order, the volume itself may be far larger for sparse templates:
+        // the upper half of each key is the index into the volume, the lower half the index into values
+        BlockData[] values = new BlockData[map.size()];
+        long[] keys = new long[map.size()];
+        int n = 0;
+        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
+            BlockPos pos = entry.getKey();
+            if (! bounds.contains(pos))
+                return false;
+            int index = index(pos.getX() - bounds.getMinX(), pos.getY() - bounds.getMinY(), pos.getZ() - bounds.getMinZ(), sizeX, sizeZ);
+            keys[n] = ((long) index << 32) | n;
+            values[n++] = entry.getValue();
+        }
+        Arrays.sort(keys);
+
+        BitSet occupancy = new BitSet(sizeX * bounds.getYSize() * sizeZ);
+        int[] indices = new int[keys.length];
+        int count = 0;
+        DataCompressor<BlockData> palette = new DataCompressor<>();
+        DataCompressor<ITileDataSerializer> serializers = new DataCompressor<>();
+        ListTag tiles = new ListTag();
+        for (long key : keys) {
+            BlockData data = values[(int) key];
+            occupancy.set((int) (key >>> 32));
+            if (data.getTileData().getSerializer() != SerialisationSupport.dummyDataSerializer()) {
+                CompoundTag tile = new CompoundTag();
+                tile.putInt(NBTKeys.KEY_INDEX, count);
+                tile.put(NBTKeys.KEY_DATA, serialize(data, serializers, persisted));
+                tiles.add(tile);
+                data = new BlockData(data.getState(), TileSupport.dummyTileEntityData());
+            }
+            indices[count++] = palette.applyAsInt(data);
+        }
+
+        SimpleBitStorage storage = new SimpleBitStorage(bitsFor(palette.getReverseMap().size()), count);
+        for (int i = 0; i < count; i++)
+            storage.set(i, indices[i]);
+
+        res.putInt(NBTKeys.KEY_VERSION, VERSION);
+        res.putIntArray(NBTKeys.KEY_SIZE, new int[]{sizeX, bounds.getYSize(), sizeZ});
+        res.put(NBTKeys.KEY_PALETTE, palette.write(d -> serialize(d, serializers, persisted)));
+        res.put(NBTKeys.KEY_OCCUPANCY, new LongArrayTag(occupancy.toLongArray()));
+        res.put(NBTKeys.KEY_INDICES, new LongArrayTag(storage.getRaw()));
+        res.put(NBTKeys.KEY_TILES, tiles);
+        if (persisted)
+            res.put(NBTKeys.KEY_SERIALIZER, serializers.write(s -> StringTag.valueOf(Registries.TILE_DATA_SERIALIZER_REGISTRY.get().getKey(s).toString())));
+        return true;
+    }
+
+    /**
+     * Reads the palette and validates the packed arrays of a body written by {@link #write(Map, Region, boolean, CompoundTag)},
+     * without decoding any positions.
+     */
+    static Body read(CompoundTag nbt, boolean persisted) {
+        return new Body(nbt, persisted);
+    }
+
+    private static int index(int x, int y, int z, int sizeX, int sizeZ) {
+        return (y * sizeZ + z) * sizeX + x;
+    }
+
+    private static int bitsFor(int paletteSize) {
+        return Math.max(1, Mth.ceillog2(paletteSize));
+    }
+
+    private static CompoundTag serialize(BlockData data, DataCompressor<ITileDataSerializer> serializers, boolean persisted) {
+        return persisted ? data.serialize(serializers, true) : data.serialize(false);
+    }
+
+    private static BlockData deserialize(CompoundTag tag, DataDecompressor<ITileDataSerializer> serializers, boolean persisted) {
+        return persisted ?
+                BlockData.tryDeserialize(tag, serializers, true) :
+                BlockData.tryDeserialize(tag, false);
+    }
+
+    /**
+     * A body in this format, keeping the packed arrays as they were read. Positions are only decoded while iterating,
+     * either through a {@link #createView(BuildContext, Region) streaming view} or when {@link #decode(Region) decoding}
+     * the body into a map.
+     */
+    static final class Body {
+        private final CompoundTag nbt;
+        private final boolean persisted;
+        private final int sizeX;
+        private final int sizeZ;
+        private final long[] occupancy;
+        private final SimpleBitStorage indices;
+        private final int count;
+        private final BlockData[] palette;
+        private final Int2ObjectMap<BlockData> tiles;
+
+        private Body(CompoundTag nbt, boolean persisted) {
+            this.nbt = nbt;
+            this.persisted = persisted;
+            int[] size = nbt.getIntArray(NBTKeys.KEY_SIZE);
+            Preconditions.checkArgument(size.length == 3, "Expected a size of 3 dimensions, got %s!", size.length);
+            this.sizeX = size[0];
+            this.sizeZ = size[2];
+            this.occupancy = nbt.getLongArray(NBTKeys.KEY_OCCUPANCY);
+            Preconditions.checkArgument((long) occupancy.length * Long.SIZE < (long) sizeX * size[1] * sizeZ + Long.SIZE,
+                    "Occupancy of %s longs exceeds the Template's size!", occupancy.length);
+            int count = 0;
+            for (long word : occupancy)
+                count += Long.bitCount(word);
+            this.count = count;
+
+            DataDecompressor<ITileDataSerializer> serializers = persisted ? new DataDecompressor<>(
+                    nbt.getList(NBTKeys.KEY_SERIALIZER, Tag.TAG_STRING),
+                    inbt -> RegistryUtils.getFromString(Registries.TILE_DATA_SERIALIZER_REGISTRY.get(), inbt.getAsString()),
+                    value -> SerialisationSupport.dummyDataSerializer())
+                    : null;
+            ListTag paletteList = nbt.getList(NBTKeys.KEY_PALETTE, Tag.TAG_COMPOUND);
+            this.palette = new BlockData[paletteList.size()];
+            for (int i = 0; i < palette.length; i++) {
+                BlockData data = deserialize(paletteList.getCompound(i), serializers, persisted);
+                palette[i] = data != null ? data : BlockData.AIR;
+            }
+            this.tiles = new Int2ObjectOpenHashMap<>();
+            for (Tag inbt : nbt.getList(NBTKeys.KEY_TILES, Tag.TAG_COMPOUND)) {
+                CompoundTag tile = (CompoundTag) inbt;
+                BlockData data = deserialize(tile.getCompound(NBTKeys.KEY_DATA), serializers, persisted);
+                if (data != null)
+                    tiles.put(tile.getInt(NBTKeys.KEY_INDEX), data);
+            }
+            this.indices = new SimpleBitStorage(bitsFor(palette.length), count, nbt.getLongArray(NBTKeys.KEY_INDICES));
+        }
+
+        boolean isPersisted() {
+            return persisted;
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * @return the body as it was read, to be written again without decoding it
+         */
+        CompoundTag write() {
+            CompoundTag res = new CompoundTag();
+            for (String key : nbt.getAllKeys()) {
+                if (! NBTKeys.KEY_HEADER.equals(key))
+                    res.put(key, nbt.get(key));
+            }
+            return res;
+        }
+
+        ImmutableMap<BlockPos, BlockData> decode(Region bounds) {
+            ImmutableMap.Builder<BlockPos, BlockData> builder = ImmutableMap.builderWithExpectedSize(count);
+            spliterator(bounds.getMin()).forEachRemaining(target -> builder.put(target.getPos(), target.getData()));
+            return builder.build();
+        }
+
+        IBuildView createView(BuildContext context, Region bounds) {
+            return new BodyView(this, context, bounds, bounds.getMin());
+        }
+
+        private Spliterator<PlacementTarget> spliterator(BlockPos offset) {
+            return new BodySpliterator(this, offset);
+        }
+
+        /**
+         * Counts the {@link BlockData} of this body on the {@link com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers}.
+         */
+        CompletableFuture<Object2IntMap<BlockData>> countData() {
+            return MaterialEstimation.count(count, this::dataAt);
+        }
+
+        private BlockData dataAt(int n) {
+            BlockData tile = tiles.get(n);
+            if (tile != null)
+                return tile;
+            int index = indices.get(n);
+            return index < palette.length ? palette[index] : BlockData.AIR;
+        }
+    }
+
+    private static final class BodySpliterator extends Spliterators.AbstractSpliterator<PlacementTarget> {
+        private final Body body;
+        private final BlockPos offset;
+        private int word;
+        private long bits;
+        private int n;
+
+        private BodySpliterator(Body body, BlockPos offset) {
+            super(body.count, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.SIZED);
+            this.body = body;
+            this.offset = offset;
+            this.word = 0;
+            this.bits = body.occupancy.length > 0 ? body.occupancy[0] : 0;
+            this.n = 0;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super PlacementTarget> action) {
+            while (bits == 0) {
+                if (++ word >= body.occupancy.length)
+                    return false;
+                bits = body.occupancy[word];
+            }
+            int i = (word << 6) + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            int x = i % body.sizeX;
+            int z = (i / body.sizeX) % body.sizeZ;
+            int y = i / (body.sizeX * body.sizeZ);
+            action.accept(new PlacementTarget(offset.offset(x, y, z), body.dataAt(n++)));
+            return true;
+        }
+    }
+
+    /**
+     * An {@link IBuildView} decoding the {@link PlacementTarget PlacementTargets} of a {@link Body} while it is iterated.
+     * Nothing but the targets themselves is allocated, the {@link BlockData} are shared with the {@link Body Body's} palette.
+     */
+    private static final class BodyView implements IBuildView {
+        private final Body body;
+        private final BuildContext context;
+        private final BlockPos origin;
+        private Region boundingBox;
+        private BlockPos translation;
+
+        private BodyView(Body body, BuildContext context, Region boundingBox, BlockPos origin) {
+            this.body = body;
+            this.context = context;
+            this.boundingBox = boundingBox;
+            this.origin = origin;
+            this.translation = BlockPos.ZERO;
+        }
+
+        @Override
+        public Spliterator<PlacementTarget> spliterator() {
+            return body.spliterator(origin.offset(translation));
+        }
+
+        @Override
+        public BodyView translateTo(BlockPos pos) {
+            boundingBox = boundingBox.translate(pos.subtract(translation));
+            this.translation = pos;
+            return this;
+        }
+
+        @Override
+        public int estimateSize() {
+            return body.count;
+        }
+
+        @Override
+        public BodyView copy() {
+            BodyView copy = new BodyView(body, context, boundingBox, origin);
+            copy.translation = translation;
+            return copy;
+        }
+
+        @Override
+        public Region getBoundingBox() {
+            return boundingBox;
+        }
+
+        @Override
+        public BuildContext getContext() {
+            return context;
+        }
+    }
+}
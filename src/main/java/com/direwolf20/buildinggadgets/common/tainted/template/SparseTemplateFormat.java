@@ -0,0 +1,184 @@
+package com.direwolf20.buildinggadgets.common.tainted.template;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.ITileDataSerializer;
+import com.direwolf20.buildinggadgets.common.tainted.registry.Registries;
+import com.direwolf20.buildinggadgets.common.util.compression.DataCompressor;
+import com.direwolf20.buildinggadgets.common.util.compression.DataDecompressor;
+import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
+import com.direwolf20.buildinggadgets.common.util.tools.RegistryUtils;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.LongArrayTag;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+
+import java.util.Map;
+
+/**
+ * The third version of the {@link Template} body format, used for templates too sparse for the {@link PalettedTemplateFormat}.
+ * It replaces the original format, which packed the y Coordinate into 8 bits and therefore couldn't hold anything taller
+ * than 255 blocks. Every block is stored as one record of a bit stream, consisting of its position relative to the origin
+ * of the stored blocks followed by its palette index. Each of these fields uses only as many bits as the size of the
+ * template along that axis (or the size of the palette) requires, so a 16x384x16 template needs 17 bits per position
+ * instead of a whole long.
+ * <p>
+ * The stored size is limited to {@link Template#MAX_SIZE_XZ} along the x- and z-Axis and {@link Template#MAX_SIZE_Y} along
+ * the y-Axis, which covers the world border and every possible build height.
+ */
+final class SparseTemplateFormat {
+    static final int VERSION = 3;
+
+    private SparseTemplateFormat() {}
+
+    /**
+     * @throws IllegalArgumentException if the blocks in the given map span more than the maximum size of a Template
+     */
+    static void write(Map<BlockPos, BlockData> map, boolean persisted, CompoundTag res) {
+        BlockPos min = BlockPos.ZERO;
+        BlockPos max = BlockPos.ZERO;
+        if (! map.isEmpty()) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for (BlockPos pos : map.keySet()) {
+                minX = Math.min(minX, pos.getX());
+                minY = Math.min(minY, pos.getY());
+                minZ = Math.min(minZ, pos.getZ());
+                maxX = Math.max(maxX, pos.getX());
+                maxY = Math.max(maxY, pos.getY());
+                maxZ = Math.max(maxZ, pos.getZ());
+            }
+            min = new BlockPos(minX, minY, minZ);
+            max = new BlockPos(maxX, maxY, maxZ);
+        }
+        long sizeX = (long) max.getX() - min.getX() + 1;
+        long sizeY = (long) max.getY() - min.getY() + 1;
+        long sizeZ = (long) max.getZ() - min.getZ() + 1;
+        Preconditions.checkArgument(sizeX <= Template.MAX_SIZE_XZ && sizeY <= Template.MAX_SIZE_Y && sizeZ <= Template.MAX_SIZE_XZ,
+                "Template of size (%s, %s, %s) exceeds the maximum size of (%s, %s, %s)!",
+                sizeX, sizeY, sizeZ, Template.MAX_SIZE_XZ, Template.MAX_SIZE_Y, Template.MAX_SIZE_XZ);
+
+        DataCompressor<BlockData> palette = new DataCompressor<>();
+        DataCompressor<ITileDataSerializer> serializers = new DataCompressor<>();
+        int[] indices = new int[map.size()];
+        int n = 0;
+        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet())
+            indices[n++] = palette.applyAsInt(entry.getValue());
+
+        int bitsX = bitsFor(sizeX);
+        int bitsY = bitsFor(sizeY);
+        int bitsZ = bitsFor(sizeZ);
+        int bitsPalette = bitsFor(palette.getReverseMap().size());
+        BitWriter writer = new BitWriter((long) map.size() * (bitsX + bitsY + bitsZ + bitsPalette));
+        n = 0;
+        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
+            BlockPos pos = entry.getKey();
+            writer.write(pos.getX() - min.getX(), bitsX);
+            writer.write(pos.getY() - min.getY(), bitsY);
+            writer.write(pos.getZ() - min.getZ(), bitsZ);
+            writer.write(indices[n++], bitsPalette);
+        }
+
+        res.putInt(NBTKeys.KEY_VERSION, VERSION);
+        res.putInt(NBTKeys.KEY_COUNT, map.size());
+        res.putIntArray(NBTKeys.KEY_ORIGIN, new int[]{min.getX(), min.getY(), min.getZ()});
+        res.putIntArray(NBTKeys.KEY_SIZE, new int[]{(int) sizeX, (int) sizeY, (int) sizeZ});
+        res.put(NBTKeys.KEY_PALETTE, palette.write(d -> persisted ? d.serialize(serializers, true) : d.serialize(false)));
+        res.put(NBTKeys.KEY_POS, new LongArrayTag(writer.words));
+        if (persisted)
+            res.put(NBTKeys.KEY_SERIALIZER, serializers.write(s -> StringTag.valueOf(Registries.TILE_DATA_SERIALIZER_REGISTRY.get().getKey(s).toString())));
+    }
+
+    static ImmutableMap<BlockPos, BlockData> read(CompoundTag nbt, boolean persisted) {
+        int count = nbt.getInt(NBTKeys.KEY_COUNT);
+        int[] origin = nbt.getIntArray(NBTKeys.KEY_ORIGIN);
+        int[] size = nbt.getIntArray(NBTKeys.KEY_SIZE);
+        Preconditions.checkArgument(origin.length == 3 && size.length == 3, "Expected an origin and size of 3 dimensions, got %s and %s!", origin.length, size.length);
+        Preconditions.checkArgument(size[0] > 0 && size[0] <= Template.MAX_SIZE_XZ && size[1] > 0 && size[1] <= Template.MAX_SIZE_Y
+                && size[2] > 0 && size[2] <= Template.MAX_SIZE_XZ, "Invalid Template size (%s, %s, %s)!", size[0], size[1], size[2]);
+
+        DataDecompressor<ITileDataSerializer> serializerDecompressor = persisted ? new DataDecompressor<>(
+                nbt.getList(NBTKeys.KEY_SERIALIZER, Tag.TAG_STRING),
+                inbt -> RegistryUtils.getFromString(Registries.TILE_DATA_SERIALIZER_REGISTRY.get(), inbt.getAsString()),
+                value -> SerialisationSupport.dummyDataSerializer())
+                : null;
+        DataDecompressor<BlockData> dataDecompressor = new DataDecompressor<>(
+                nbt.getList(NBTKeys.KEY_PALETTE, Tag.TAG_COMPOUND),
+                inbt -> persisted ?
+                        BlockData.tryDeserialize((CompoundTag) inbt, serializerDecompressor, true) :
+                        BlockData.tryDeserialize((CompoundTag) inbt, false),
+                value -> BlockData.AIR);
+
+        int bitsX = bitsFor(size[0]);
+        int bitsY = bitsFor(size[1]);
+        int bitsZ = bitsFor(size[2]);
+        int bitsPalette = bitsFor(nbt.getList(NBTKeys.KEY_PALETTE, Tag.TAG_COMPOUND).size());
+        long[] words = nbt.getLongArray(NBTKeys.KEY_POS);
+        Preconditions.checkArgument(count >= 0 && count <= (long) size[0] * size[1] * size[2], "Invalid block count %s!", count);
+        Preconditions.checkArgument((long) words.length * Long.SIZE >= (long) count * (bitsX + bitsY + bitsZ + bitsPalette),
+                "%s longs are too few for %s blocks!", words.length, count);
+
+        BitReader reader = new BitReader(words);
+        BlockPos min = new BlockPos(origin[0], origin[1], origin[2]);
+        ImmutableMap.Builder<BlockPos, BlockData> builder = ImmutableMap.builderWithExpectedSize(count);
+        for (int i = 0; i < count; i++) {
+            int x = (int) reader.read(bitsX);
+            int y = (int) reader.read(bitsY);
+            int z = (int) reader.read(bitsZ);
+            builder.put(min.offset(x, y, z), dataDecompressor.apply((int) reader.read(bitsPalette)));
+        }
+        return builder.build();
+    }
+
+    private static int bitsFor(long values) {
+        return values <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(values - 1);
+    }
+
+    /**
+     * Writes values of up to 64 bits into consecutive bits of a long array, crossing word boundaries where necessary.
+     */
+    private static final class BitWriter {
+        private final long[] words;
+        private long bit;
+
+        private BitWriter(long bits) {
+            this.words = new long[Math.toIntExact((bits + Long.SIZE - 1) / Long.SIZE)];
+            this.bit = 0;
+        }
+
+        private void write(long value, int bits) {
+            if (bits == 0)
+                return;
+            int word = (int) (bit >>> 6);
+            int offset = (int) (bit & 63);
+            words[word] |= value << offset;
+            if (offset + bits > Long.SIZE)
+                words[word + 1] |= value >>> (Long.SIZE - offset);
+            bit += bits;
+        }
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private long bit;
+
+        private BitReader(long[] words) {
+            this.words = words;
+            this.bit = 0;
+        }
+
+        private long read(int bits) {
+            if (bits == 0)
+                return 0;
+            int word = (int) (bit >>> 6);
+            int offset = (int) (bit & 63);
+            long value = words[word] >>> offset;
+            if (offset + bits > Long.SIZE)
+                value |= words[word + 1] << (Long.SIZE - offset);
+            bit += bits;
+            return bits == Long.SIZE ? value : value & ((1L << bits) - 1);
+        }
+    }
+}
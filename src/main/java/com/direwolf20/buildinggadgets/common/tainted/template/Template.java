@@ -1,5 +1,6 @@
 package com.direwolf20.buildinggadgets.common.tainted.template;
 
+import com.direwolf20.buildinggadgets.common.BuildingGadgets;
 import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
 import com.direwolf20.buildinggadgets.common.tainted.building.Region;
 import com.direwolf20.buildinggadgets.common.tainted.building.tilesupport.ITileDataSerializer;
@@ -9,30 +10,60 @@ import com.direwolf20.buildinggadgets.common.tainted.building.view.PositionalBui
 import com.direwolf20.buildinggadgets.common.tainted.inventory.materials.MaterialList;
 import com.direwolf20.buildinggadgets.common.tainted.registry.Registries;
 import com.direwolf20.buildinggadgets.common.util.CommonUtils;
-import com.direwolf20.buildinggadgets.common.util.compression.DataCompressor;
 import com.direwolf20.buildinggadgets.common.util.compression.DataDecompressor;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.direwolf20.buildinggadgets.common.util.tools.MathUtils;
 import com.direwolf20.buildinggadgets.common.util.tools.RegistryUtils;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.Direction.Axis;
 import net.minecraft.nbt.*;
-import net.minecraft.world.level.block.Mirror;
 import net.minecraft.world.level.block.Rotation;
+import net.minecraft.world.phys.Vec3;
 
 import javax.annotation.Nullable;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.function.Function;
 
 public final class Template {
+    /**
+     * The maximum size of a template along the x- and z-Axis, enough to span the whole world border.
+     */
+    public static final int MAX_SIZE_XZ = 1 << 26;
+    /**
+     * The maximum size of a template along the y-Axis, enough for any build height a dimension may declare.
+     */
+    public static final int MAX_SIZE_Y = 1 << 12;
+
     public static Template deserialize(CompoundTag nbt, @Nullable TemplateHeader externalHeader, boolean persisted) {
-        ListTag posList = nbt.getList(NBTKeys.KEY_POS, Tag.TAG_LONG);
-        TemplateHeader.Builder header = TemplateHeader.builderFromNBT(nbt.getCompound(NBTKeys.KEY_HEADER));
+        TemplateHeader.Builder header = TemplateHeader.builderFromNBT(nbt.getCompound(NBTKeys.KEY_HEADER), persisted);
         if (externalHeader != null)
             header = header.name(externalHeader.getName()).author(externalHeader.getAuthor());
+        TemplateHeader builtHeader = header.build();
+
+        int version = nbt.getInt(NBTKeys.KEY_VERSION);
+        if (version == PalettedTemplateFormat.VERSION)
+            return new Template(null, PalettedTemplateFormat.read(nbt, persisted), builtHeader, false);
+        else if (version == SparseTemplateFormat.VERSION)
+            return new Template(SparseTemplateFormat.read(nbt, persisted), builtHeader);
+        else if (version == 0)
+            return new Template(deserializeLegacy(nbt, persisted), builtHeader);
+        throw new IllegalArgumentException("Unknown Template format version " + version + "!");
+    }
 
+    /**
+     * Reads the original format, which stores one long per block containing the position and the palette index. It is
+     * never written anymore, as it cannot represent anything taller than 255 blocks.
+     */
+    private static ImmutableMap<BlockPos, BlockData> deserializeLegacy(CompoundTag nbt, boolean persisted) {
+        ListTag posList = nbt.getList(NBTKeys.KEY_POS, Tag.TAG_LONG);
         DataDecompressor<ITileDataSerializer> serializerDecompressor = persisted ? new DataDecompressor<>(
                 nbt.getList(NBTKeys.KEY_SERIALIZER, Tag.TAG_STRING),
                 inbt -> RegistryUtils.getFromString(Registries.TILE_DATA_SERIALIZER_REGISTRY.get(), inbt.getAsString()),
@@ -53,19 +84,32 @@ public final class Template {
             BlockData data = dataDecompressor.apply(MathUtils.readStateId(longNBT.getAsLong()));
             mapBuilder.put(pos, data);
         }
-        return new Template(mapBuilder.build(), header.build());
+        return mapBuilder.build();
     }
 
-    private final ImmutableMap<BlockPos, BlockData> map;
+    // decoded lazily from the body for templates which were read, until then only the body is kept. Both hold the blocks
+    // as they were stored, the header's transform is only applied when viewing them
+    @Nullable
+    private volatile ImmutableMap<BlockPos, BlockData> map;
+    @Nullable
+    private final PalettedTemplateFormat.Body body;
     private TemplateHeader header; //the only modification, this may ever receive, is evaluating the requiredItems!
+    // how often each stored BlockData occurs, counted once the required items are first asked for
+    @Nullable
+    private volatile CompletableFuture<Object2IntMap<BlockData>> blockCounts;
+    // notified once the required items were evaluated, so that whoever stores the header can persist them
+    @Nullable
+    private volatile Runnable materialsListener;
     private boolean isNormalized;
 
     public Template(ImmutableMap<BlockPos, BlockData> map, TemplateHeader header) {
-        this(map, header, false);
+        this(map, null, header, false);
     }
 
-    private Template(ImmutableMap<BlockPos, BlockData> map, TemplateHeader header, boolean isNormalized) {
+    private Template(@Nullable ImmutableMap<BlockPos, BlockData> map, @Nullable PalettedTemplateFormat.Body body, TemplateHeader header, boolean isNormalized) {
+        assert map != null || body != null;
         this.map = map;
+        this.body = body;
         this.header = header;
         this.isNormalized = isNormalized;
     }
@@ -74,47 +118,146 @@ public final class Template {
         this(ImmutableMap.of(), TemplateHeader.builder(Region.singleZero()).build());
     }
 
+    /**
+     * @return the header, with the required items computed first if they weren't known yet. This blocks until the blocks
+     * were counted, see {@link #getHeaderAndRequestMaterials(BuildContext)} for a variant which doesn't.
+     */
     public TemplateHeader getHeaderAndForceMaterials(BuildContext context) {
+        if (header.getRequiredItems() == null)
+            completeMaterials(countBlocks(), context);
+        return getHeader();
+    }
+
+    /**
+     * Like {@link #getHeaderAndForceMaterials(BuildContext)}, but never blocks the calling thread. The blocks are counted on
+     * the {@link com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers} and until that completed, the
+     * returned header has no required items. The first call afterwards computes them.
+     */
+    public TemplateHeader getHeaderAndRequestMaterials(BuildContext context) {
         if (header.getRequiredItems() == null) {
-            MaterialList materialList = CommonUtils.estimateRequiredItems(
-                    createViewInContext(context),
-                    context,
-                    context.getPlayer() != null ?
-                            context.getPlayer().position().add(0, context.getPlayer().getEyeHeight(), 0) :
-                            null);
-            header = TemplateHeader.builderOf(header).requiredItems(materialList).build();
+            CompletableFuture<Object2IntMap<BlockData>> counts = countBlocks();
+            if (counts.isDone())
+                completeMaterials(counts, context);
         }
         return getHeader();
     }
 
+    /**
+     * Like {@link #getHeaderAndForceMaterials(BuildContext)}, but the blocks are counted on the
+     * {@link com.direwolf20.buildinggadgets.common.tainted.concurrent.BackgroundWorkers} and the required items are only
+     * computed on the given executor once that completed, so that the calling thread never waits for the count.
+     */
+    public CompletableFuture<TemplateHeader> computeHeaderWithMaterials(BuildContext context, Executor executor) {
+        if (header.getRequiredItems() != null)
+            return CompletableFuture.completedFuture(getHeader());
+        return countBlocks().handleAsync((counts, e) -> getHeaderAndForceMaterials(context), executor);
+    }
+
+    /**
+     * Sets the callback which is run once the required items of this template were evaluated, on the thread evaluating
+     * them. Replaces the previous one, null removes it.
+     */
+    public void setMaterialsListener(@Nullable Runnable listener) {
+        this.materialsListener = listener;
+    }
+
+    private void completeMaterials(CompletableFuture<Object2IntMap<BlockData>> counts, BuildContext context) {
+        Vec3 simulatePos = context.getPlayer() != null ?
+                context.getPlayer().position().add(0, context.getPlayer().getEyeHeight(), 0) :
+                null;
+        MaterialList materialList;
+        try {
+            materialList = MaterialEstimation.toMaterialList(counts.join(), header.getTransform(), context,
+                    header.getBoundingBox().getMin(), simulatePos);
+        } catch (CompletionException e) {
+            BuildingGadgets.LOG.error("Failed to count the blocks of Template {}, estimating its materials per block.", header.getName(), e);
+            materialList = CommonUtils.estimateRequiredItems(createViewInContext(context), context, simulatePos);
+        }
+        header = TemplateHeader.builderOf(header).requiredItems(materialList).build();
+        Runnable listener = materialsListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    private CompletableFuture<Object2IntMap<BlockData>> countBlocks() {
+        CompletableFuture<Object2IntMap<BlockData>> res = blockCounts;
+        if (res == null) {
+            synchronized (this) {
+                res = blockCounts;
+                if (res == null) {
+                    if (map == null && body != null)
+                        res = body.countData();
+                    else {
+                        ImmutableList<BlockData> values = getMap().values().asList();
+                        res = MaterialEstimation.count(values.size(), values::get);
+                    }
+                    blockCounts = res;
+                }
+            }
+        }
+        return res;
+    }
+
     public TemplateHeader getHeader() {
         return header;
     }
 
+    /**
+     * Creates an {@link IBuildView} of this template. For templates which were read and haven't been decoded yet, the view
+     * decodes the positions while it is iterated instead of materializing all of them. Rotations and mirrors are applied
+     * to the produced {@link com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget PlacementTargets} on the fly.
+     */
     public IBuildView createViewInContext(BuildContext context) {
-        return PositionalBuildView.createUnsafe(context, map, header.getBoundingBox());
+        IBuildView stored = map == null && body != null ?
+                body.createView(context, getStoredBounds()) :
+                PositionalBuildView.createUnsafe(context, getMap(), getStoredBounds());
+        TemplateTransform transform = header.getTransform();
+        return transform.isIdentity() ? stored : new TransformedBuildView(stored, transform, header.getBoundingBox());
+    }
+
+    /**
+     * @return whether the given template holds the very same stored blocks as this one, differing at most in its header
+     */
+    public boolean sharesStoredBlocks(Template other) {
+        return (body != null && body == other.body) || (map != null && map == other.map);
+    }
+
+    private ImmutableMap<BlockPos, BlockData> getMap() {
+        ImmutableMap<BlockPos, BlockData> res = map;
+        if (res == null) {
+            synchronized (this) {
+                res = map;
+                if (res == null)
+                    map = res = Objects.requireNonNull(body).decode(getStoredBounds());
+            }
+        }
+        return res;
+    }
+
+    private Region getStoredBounds() {
+        TemplateTransform transform = header.getTransform();
+        return transform.isIdentity() ? header.getBoundingBox() : transform.invert(header.getBoundingBox());
+    }
+
+    private boolean isEmpty() {
+        ImmutableMap<BlockPos, BlockData> map = this.map;
+        return map != null ? map.isEmpty() : Objects.requireNonNull(body).size() == 0;
     }
 
     public CompoundTag serialize(boolean persisted) {
+        if (map == null && body != null && body.isPersisted() == persisted) {
+            CompoundTag res = body.write();
+            res.put(NBTKeys.KEY_HEADER, header.toNBT(persisted));
+            return res;
+        }
         if (!isNormalized)
             return normalize().serialize(persisted);
         CompoundTag res = new CompoundTag();
-        ListTag posList = new ListTag();
-        DataCompressor<BlockData> blockDataCompressor = new DataCompressor<>();
-        DataCompressor<ITileDataSerializer> dataSerializerCompressor = new DataCompressor<>();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            long posEntry = MathUtils.includeStateId(MathUtils.posToLong(entry.getKey()), blockDataCompressor.applyAsInt(entry.getValue()));
-            posList.add(LongTag.valueOf(posEntry));
-        }
-        ListTag dataList = blockDataCompressor.write(d -> persisted ?
-                d.serialize(dataSerializerCompressor, true)
-                : d.serialize(false));
-        ListTag serializerList = persisted ? dataSerializerCompressor.write(s -> StringTag.valueOf(Registries.TILE_DATA_SERIALIZER_REGISTRY.get().getKey(s).toString())) : null;
-        res.put(NBTKeys.KEY_DATA, dataList);
-        res.put(NBTKeys.KEY_POS, posList);
+        ImmutableMap<BlockPos, BlockData> map = getMap();
+        if (! PalettedTemplateFormat.isSuitable(getStoredBounds(), map.size())
+                || ! PalettedTemplateFormat.write(map, getStoredBounds(), persisted, res))
+            SparseTemplateFormat.write(map, persisted, res);
         res.put(NBTKeys.KEY_HEADER, header.toNBT(persisted));
-        if (persisted)
-            res.put(NBTKeys.KEY_SERIALIZER, serializerList);
         return res;
     }
 
@@ -122,75 +265,87 @@ public final class Template {
         return rotate(Axis.Y, rotation);
     }
 
+    /**
+     * Rotates this template by only recording the rotation in the header's {@link TemplateTransform}, the stored blocks
+     * are shared with the returned template.
+     */
     public Template rotate(Axis axis, Rotation rotation) {
-        if (map.isEmpty()) //saves some time and prevents problems with enclosing builder
+        if (isEmpty()) //saves some time and prevents problems with enclosing builder
             return this;
-        int[][] matrix = MathUtils.rotationMatrixFor(axis, rotation);
-        rotation = axis == Axis.Y ? rotation : Rotation.NONE; //BlockState's can only rotate around the y-Axis
-        ImmutableMap.Builder<BlockPos, BlockData> mapBuilder = ImmutableMap.builder();
-        Region.Builder regionBuilder = Region.enclosingBuilder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            BlockPos newPos = MathUtils.matrixMul(matrix, entry.getKey());
-            mapBuilder.put(newPos, entry.getValue().rotate(rotation));
-            regionBuilder.enclose(newPos);
-        }
-        return new Template(mapBuilder.build(), TemplateHeader.builderOf(header, regionBuilder.build()).build()).normalize();
+        return new Template(map, body, transformedHeader(header.getTransform().rotate(axis, rotation), getStoredBounds()), isNormalized);
     }
 
+    /**
+     * Mirrors this template by only recording the mirror in the header's {@link TemplateTransform}, the stored blocks
+     * are shared with the returned template.
+     */
     public Template mirror(Axis axis) {
-        int xFac = 1;
-        int zFac = 1;
-        Mirror mirror;
-        switch (axis) {
-            case X:
-                mirror = Mirror.LEFT_RIGHT;
-                zFac = -1;
-                break;
-            case Z:
-                mirror = Mirror.FRONT_BACK;
-                xFac = -1;
-                break;
-            default:
-                mirror = Mirror.NONE;
-        }
-        Region.Builder regionBuilder = Region.enclosingBuilder();
-        ImmutableMap.Builder<BlockPos, BlockData> mapBuilder = ImmutableMap.builder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
-            BlockPos newPos = new BlockPos(entry.getKey().getX() * xFac, entry.getKey().getY(), entry.getKey().getZ() * zFac);
-            mapBuilder.put(newPos, entry.getValue().mirror(mirror));
-            regionBuilder.enclose(newPos);
-        }
-        return new Template(mapBuilder.build(), TemplateHeader.builderOf(header, regionBuilder.build()).build()).normalize();
+        if (isEmpty())
+            return this;
+        return new Template(map, body, transformedHeader(header.getTransform().mirror(axis), getStoredBounds()), isNormalized);
     }
 
     public Template replace(Function<BlockPos, Optional<BlockData>> replacements) {
+        Template template = applyTransform();
         ImmutableMap.Builder<BlockPos, BlockData> mapBuilder = ImmutableMap.builder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
+        for (Map.Entry<BlockPos, BlockData> entry : template.getMap().entrySet()) {
             mapBuilder.put(entry.getKey(), replacements.apply(entry.getKey()).orElse(entry.getValue()));
         }
-        return new Template(mapBuilder.build(), header, isNormalized);
+        return new Template(mapBuilder.build(), null, TemplateHeader.builderOf(template.header).requiredItems(null).build(), template.isNormalized);
     }
 
     public Template withName(@Nullable String name) {
-        return new Template(map, TemplateHeader.builderOf(header).name(name).build());
+        return new Template(map, body, TemplateHeader.builderOf(header).name(name).build(), false);
     }
 
     public Template withNameAndAuthor(@Nullable String name, @Nullable String author) {
-        return new Template(map, TemplateHeader.builderOf(header).name(name).author(author).build());
+        return new Template(map, body, TemplateHeader.builderOf(header).name(name).author(author).build(), false);
+    }
+
+    /**
+     * @return a template with the same stored blocks as this one, viewed through the given header. This is meant for
+     * synchronizing headers of templates whose stored blocks are known to be the same as the ones the header was made for.
+     */
+    public Template withHeader(TemplateHeader header) {
+        return new Template(map, body, header, isNormalized);
     }
 
     public Template clearMaterials() {
-        return new Template(map, TemplateHeader.builderOf(header).requiredItems(null).build());
+        return new Template(map, body, TemplateHeader.builderOf(header).requiredItems(null).build(), false);
     }
 
     public Template normalize() {
         if (isNormalized)
             return this;
-        Region region = header.getBoundingBox();
+        Region region = getStoredBounds();
+        if (map == null && body != null && region.getMin().equals(BlockPos.ZERO))
+            return new Template(null, body, transformedHeader(header.getTransform(), region), true);
         ImmutableMap.Builder<BlockPos, BlockData> builder = ImmutableMap.builder();
-        for (Map.Entry<BlockPos, BlockData> entry : map.entrySet()) {
+        for (Map.Entry<BlockPos, BlockData> entry : getMap().entrySet()) {
             builder.put(entry.getKey().subtract(region.getMin()), entry.getValue());
         }
-        return new Template(builder.build(), TemplateHeader.builderOf(header, region.inverseTranslate(region.getMin())).build(), true);
+        return new Template(builder.build(), null, transformedHeader(header.getTransform(), region.inverseTranslate(region.getMin())), true);
+    }
+
+    /**
+     * @return a header with the given transform, moved such that the transformed blocks start at zero
+     */
+    private TemplateHeader transformedHeader(TemplateTransform transform, Region storedBounds) {
+        transform = transform.normalizedFor(storedBounds);
+        return TemplateHeader.builderOf(header, transform.apply(storedBounds)).transform(transform).build();
+    }
+
+    /**
+     * @return a template storing its blocks as they are viewed, with the identity transform
+     */
+    private Template applyTransform() {
+        TemplateTransform transform = header.getTransform();
+        if (transform.isIdentity())
+            return this;
+        ImmutableMap.Builder<BlockPos, BlockData> builder = ImmutableMap.builder();
+        for (Map.Entry<BlockPos, BlockData> entry : getMap().entrySet()) {
+            builder.put(transform.apply(entry.getKey()), transform.apply(entry.getValue()));
+        }
+        return new Template(builder.build(), null, TemplateHeader.builderOf(header).transform(TemplateTransform.IDENTITY).build(), false);
     }
 }
@@ -11,6 +11,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Multiset;
 import com.google.gson.*;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntArrayTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.resources.ResourceLocation;
 import org.apache.maven.artifact.versioning.ComparableVersion;
@@ -120,7 +121,8 @@ public final class TemplateHeader {
         return builder(boundingBox)
                 .author(header.getAuthor())
                 .name(header.getName())
-                .requiredItems(header.getRequiredItems());
+                .requiredItems(header.getRequiredItems())
+                .transform(header.getTransform());
     }
 
     public static Builder builderFromNBT(CompoundTag nbt, boolean persisted) {
@@ -134,6 +136,8 @@ public final class TemplateHeader {
             builder.author(nbt.getString(NBTKeys.KEY_AUTHOR));
         if (nbt.contains(NBTKeys.KEY_MATERIALS, Tag.TAG_COMPOUND))
             builder.requiredItems(MaterialList.deserialize(nbt.getCompound(NBTKeys.KEY_MATERIALS), persisted));
+        if (nbt.contains(NBTKeys.KEY_TRANSFORM, Tag.TAG_INT_ARRAY))
+            builder.transform(TemplateTransform.fromNBT((IntArrayTag) nbt.get(NBTKeys.KEY_TRANSFORM)));
         return builder;
     }
 
@@ -172,12 +176,15 @@ public final class TemplateHeader {
     private final Region boundingBox;
     @Nullable
     private final MaterialList requiredItems;
+    @Nonnull
+    private final TemplateTransform transform;
 
-    private TemplateHeader(@Nullable String name, @Nullable String author, @Nullable MaterialList requiredItems, @Nonnull Region boundingBox) {
+    private TemplateHeader(@Nullable String name, @Nullable String author, @Nullable MaterialList requiredItems, @Nonnull Region boundingBox, @Nonnull TemplateTransform transform) {
         this.name = name;
         this.author = author;
         this.requiredItems = requiredItems;
         this.boundingBox = Objects.requireNonNull(boundingBox);
+        this.transform = Objects.requireNonNull(transform);
     }
 
     /**
@@ -211,11 +218,19 @@ public final class TemplateHeader {
         return boundingBox;
     }
 
+    /**
+     * @return The rotations and mirrors which still have to be applied to the stored blocks of the corresponding {@link Template}.
+     * The {@link #getBoundingBox() boundingBox} already is the transformed one.
+     */
+    public TemplateTransform getTransform() {
+        return transform;
+    }
+
     /**
      * @param persisted whether or not the save may be persisted
      * @return A new {@link CompoundTag} which can be used for {@link #fromNBT(CompoundTag)}
-     * @implNote If this is called with persisted=false then this will never write {@link #getRequiredItems()}.
-     * This is done in order not to prevent updates from changing the required Items for an {@link Template}.
+     * @implNote {@link #getRequiredItems()} are written regardless of persisted, so that materials which were estimated
+     * once are cached in the save and sent along with the {@link Template}. Replacing blocks of a {@link Template} clears them.
      */
     public CompoundTag toNBT(boolean persisted) {
         CompoundTag nbt = new CompoundTag();
@@ -224,7 +239,9 @@ public final class TemplateHeader {
             nbt.putString(NBTKeys.KEY_NAME, getName());
         if (getAuthor() != null)
             nbt.putString(NBTKeys.KEY_AUTHOR, getAuthor());
-        if (! persisted && getRequiredItems() != null)
+        if (! getTransform().isIdentity())
+            nbt.put(NBTKeys.KEY_TRANSFORM, getTransform().toNBT());
+        if (getRequiredItems() != null)
             nbt.put(NBTKeys.KEY_MATERIALS, getRequiredItems().serialize(persisted));
         return nbt;
     }
@@ -248,9 +265,12 @@ public final class TemplateHeader {
         private MaterialList requiredItems;
         @Nonnull
         private Region boundingBox;
+        @Nonnull
+        private TemplateTransform transform;
 
         private Builder(Region boundingBox) {
             this.boundingBox = Objects.requireNonNull(boundingBox);
+            this.transform = TemplateTransform.IDENTITY;
         }
 
         /**
@@ -296,11 +316,20 @@ public final class TemplateHeader {
             return this;
         }
 
+        /**
+         * @param transform The rotations and mirrors still to be applied to the stored blocks. May not be null!
+         * @return The {@code Builder} instance to allow for method chaining
+         */
+        public Builder transform(TemplateTransform transform) {
+            this.transform = Objects.requireNonNull(transform);
+            return this;
+        }
+
         /**
          * @return A new {@link TemplateHeader} with the specified properties.
          */
         public TemplateHeader build() {
-            return new TemplateHeader(name, author, requiredItems, boundingBox);
+            return new TemplateHeader(name, author, requiredItems, boundingBox, transform);
         }
     }
 }
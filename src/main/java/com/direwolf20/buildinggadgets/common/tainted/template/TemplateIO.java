@@ -2,21 +2,19 @@ package com.direwolf20.buildinggadgets.common.tainted.template;
 
 import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException;
-import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException.CorruptDataException;
-import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException.CorruptJsonException;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException.DataCannotBeReadException;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException.IllegalNBTDataException;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException;
 import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException.DataCannotBeWrittenException;
+import com.direwolf20.buildinggadgets.common.util.tools.NbtCodec;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonSyntaxException;
 import net.minecraft.nbt.CompoundTag;
-import net.minecraft.nbt.NbtIo;
 
 import javax.annotation.Nullable;
 import java.io.*;
-import java.util.Base64;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
 
 public final class TemplateIO {
     private static final Gson GSON = TemplateHeader.appendHeaderSpecification(new GsonBuilder(), false, true).create();
@@ -26,10 +24,17 @@ public final class TemplateIO {
         writeTemplate(template, stream, true);
     }
 
+    /**
+     * Writes with {@link NbtCodec#GZIP}, which every version of the mod can read, as these streams may be shared between players.
+     */
     public static void writeTemplate(Template template, OutputStream stream, boolean persisted) throws TemplateWriteException {
+        writeTemplate(template, stream, persisted, NbtCodec.GZIP);
+    }
+
+    public static void writeTemplate(Template template, OutputStream stream, boolean persisted, NbtCodec codec) throws TemplateWriteException {
         CompoundTag nbt = template.serialize(persisted);
         try {
-            NbtIo.writeCompressed(nbt, stream);
+            codec.write(nbt, stream);
         } catch (IOException e) {
             throw new DataCannotBeWrittenException(e, nbt);
         }
@@ -43,7 +48,7 @@ public final class TemplateIO {
     }
 
     /**
-     * @param stream    the Stream to read from
+     * @param stream    the Stream to read from, compressed with any {@link NbtCodec}
      * @param persisted whether this was written as persisted.
      * @param header    The TemplateHeader if present. Null otherwise.
      * @return A TemplateItem if the serializer is known. Null if not.
@@ -51,13 +56,15 @@ public final class TemplateIO {
      */
     public static Template readTemplate(InputStream stream, @Nullable TemplateHeader header, boolean persisted) throws TemplateReadException {
         try {
-            return readTemplate(NbtIo.readCompressed(stream), header, persisted);
+            return readTemplate(NbtCodec.read(stream), header, persisted);
         } catch (IOException e) {
             throw new DataCannotBeReadException(e);
         }
     }
 
     /**
+     * Accepts both the current paletted format and the original format storing one long per block.
+     *
      * @param nbt       the Compound to read from
      * @param persisted whether this was written as persisted.
      * @param header    The TemplateHeader if present. Null otherwise.
@@ -76,7 +83,7 @@ public final class TemplateIO {
     }
 
     public static void writeTemplateJson(Template template, OutputStream stream, @Nullable BuildContext context) throws TemplateWriteException {
-        GSON.toJson(TemplateJsonRepresentation.ofTemplate(template, context), new OutputStreamWriter(stream));
+        writeTemplateJson(template, new OutputStreamWriter(stream, StandardCharsets.UTF_8), context, null);
     }
 
     public static String writeTemplateJson(Template template) throws TemplateWriteException {
@@ -84,61 +91,41 @@ public final class TemplateIO {
     }
 
     public static String writeTemplateJson(Template template, @Nullable BuildContext context) throws TemplateWriteException {
-        return GSON.toJson(TemplateJsonRepresentation.ofTemplate(template, context));
+        StringWriter writer = new StringWriter();
+        writeTemplateJson(template, writer, context, null);
+        return writer.toString();
+    }
+
+    /**
+     * Streams the json representation of the template to the given writer, compressing and base64 encoding the body in
+     * chunks on the way. The writer is flushed, but not closed.
+     *
+     * @param context  the context to compute the required items in, if they should be included. This may touch the world,
+     *                 so it should be null off-thread - call {@link Template#getHeaderAndForceMaterials(BuildContext)} beforehand instead.
+     * @param progress receives the amount of characters written so far
+     */
+    public static void writeTemplateJson(Template template, Writer writer, @Nullable BuildContext context, @Nullable LongConsumer progress) throws TemplateWriteException {
+        TemplateHeader header = context != null ?
+                template.getHeaderAndForceMaterials(context) :
+                template.getHeader();
+        TemplateJsonStream.write(GSON, header, template.serialize(true), writer, progress);
     }
 
     public static Template readTemplateFromJson(String json) throws TemplateReadException {
-        try {
-            return GSON.fromJson(json, TemplateJsonRepresentation.class).getTemplate();
-        } catch (JsonSyntaxException e) {
-            throw new CorruptJsonException(e);
-        }
+        return readTemplateFromJson(new StringReader(json), null);
     }
 
     public static Template readTemplateFromJson(InputStream stream) throws TemplateReadException {
-        try {
-            return GSON.fromJson(new InputStreamReader(stream), TemplateJsonRepresentation.class).getTemplate();
-        } catch (JsonSyntaxException e) {
-            throw new CorruptJsonException(e);
-        }
+        return readTemplateFromJson(new InputStreamReader(stream, StandardCharsets.UTF_8), null);
     }
 
-    private static final class TemplateJsonRepresentation {
-        public static TemplateJsonRepresentation ofTemplate(Template template, @Nullable BuildContext context) throws TemplateWriteException {
-            TemplateHeader header = context != null ?
-                    template.getHeaderAndForceMaterials(context) :
-                    template.getHeader();
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            writeTemplate(template, baos);
-            String base64 = Base64.getEncoder().encodeToString(baos.toByteArray());
-            return new TemplateJsonRepresentation(header, base64);
-        }
-
-        private final TemplateHeader header;
-        private final String body;
-
-        private TemplateJsonRepresentation(TemplateHeader header, String body) {
-            this.header = header;
-            this.body = body;
-        }
-
-        private TemplateHeader getHeader() {
-            return header;
-        }
-
-        private String getBody() {
-            return body;
-        }
-
-        private Template getTemplate() throws TemplateReadException {
-            try {
-                byte[] bytes = Base64.getDecoder().decode(body);
-                CompoundTag nbt;
-                nbt = NbtIo.readCompressed(new ByteArrayInputStream(bytes));
-                return Template.deserialize(nbt, header, true);
-            } catch (IOException | NullPointerException e) {
-                throw new CorruptDataException(e, body);
-            }
-        }
+    /**
+     * Reads a template written by {@link #writeTemplateJson(Template, Writer, BuildContext, LongConsumer)}, decoding the
+     * body while it is read instead of reading it into a string first.
+     *
+     * @param progress receives the amount of characters read so far
+     */
+    public static Template readTemplateFromJson(Reader reader, @Nullable LongConsumer progress) throws TemplateReadException {
+        return TemplateJsonStream.read(GSON, reader, progress);
     }
 }
@@ -0,0 +1,325 @@
+package com.direwolf20.buildinggadgets.common.tainted.template;
+
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException.CorruptDataException;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateReadException.CorruptJsonException;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException;
+import com.direwolf20.buildinggadgets.common.util.exceptions.TemplateWriteException.DataCannotBeWrittenException;
+import com.direwolf20.buildinggadgets.common.util.tools.NbtCodec;
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.MalformedJsonException;
+import net.minecraft.nbt.CompoundTag;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.util.Base64;
+import java.util.function.LongConsumer;
+
+/**
+ * Reads and writes the json representation of a {@link Template} - an object holding the header and the base64 encoded,
+ * compressed body - without ever holding the body as one string. Writing compresses and encodes the body in chunks while
+ * they are written, reading decodes the body string while it is read from the json.
+ * <p>
+ * The written json is the same as what {@link Gson} produces for it, so it can be read by older versions and everything
+ * Gson wrote can be read here.
+ */
+final class TemplateJsonStream {
+    static final String KEY_HEADER = "header";
+    static final String KEY_BODY = "body";
+    // how many characters are passed to the Writer at once, also the granularity of the reported progress
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final Gson gson;
+    private final Reader reader;
+    @Nullable
+    private final LongConsumer progress;
+    private long position;
+    private int peeked;
+
+    private TemplateJsonStream(Gson gson, Reader reader, @Nullable LongConsumer progress) {
+        this.gson = gson;
+        this.reader = reader;
+        this.progress = progress;
+        this.position = 0;
+        this.peeked = - 2;
+    }
+
+    /**
+     * @param progress receives the amount of characters written so far after every chunk
+     */
+    static void write(Gson gson, TemplateHeader header, CompoundTag body, Writer writer, @Nullable LongConsumer progress) throws TemplateWriteException {
+        try {
+            writer.write("{\"" + KEY_HEADER + "\":");
+            gson.toJson(header, TemplateHeader.class, writer);
+            writer.write(",\"" + KEY_BODY + "\":\"");
+            // base64 only consists of characters which never need to be escaped in json
+            try (OutputStream out = Base64.getEncoder().wrap(new ChunkedCharOutputStream(writer, progress))) {
+                NbtCodec.GZIP.write(body, out);
+            }
+            writer.write("\"}");
+            writer.flush();
+        } catch (IOException | JsonIOException e) {
+            throw new DataCannotBeWrittenException(e, body);
+        }
+    }
+
+    /**
+     * @param progress receives the amount of characters read so far, roughly once per chunk
+     */
+    static Template read(Gson gson, Reader reader, @Nullable LongConsumer progress) throws TemplateReadException {
+        TemplateJsonStream stream = new TemplateJsonStream(gson, new BufferedReader(reader, CHUNK_SIZE), progress);
+        try {
+            return stream.readTemplate();
+        } catch (MalformedJsonException | EOFException e) {
+            throw new CorruptJsonException(e);
+        } catch (IOException e) {
+            throw new CorruptDataException(e, "");
+        }
+    }
+
+    private Template readTemplate() throws IOException, TemplateReadException {
+        TemplateHeader header = null;
+        CompoundTag body = null;
+        expect('{');
+        if (peekNonWhitespace() == '}')
+            next();
+        else {
+            int c;
+            do {
+                expect('"');
+                String name = readString();
+                expect(':');
+                peekNonWhitespace();
+                if (KEY_HEADER.equals(name))
+                    header = gson.fromJson(readValue(true), TemplateHeader.class);
+                else if (KEY_BODY.equals(name))
+                    body = readBody();
+                else
+                    readValue(false);
+                c = nextNonWhitespace();
+            } while (c == ',');
+            if (c != '}')
+                throw syntaxError("Expected ',' or '}'");
+        }
+        if (body == null)
+            throw new CorruptJsonException(new MalformedJsonException("Missing Template " + KEY_BODY + "!"));
+        return TemplateIO.readTemplate(body, header, true);
+    }
+
+    private CompoundTag readBody() throws IOException {
+        expect('"');
+        BodyInputStream in = new BodyInputStream();
+        CompoundTag res;
+        try {
+            res = NbtCodec.read(Base64.getDecoder().wrap(in));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Template body is not valid base64!", e);
+        }
+        in.skipRemaining();
+        return res;
+    }
+
+    private String readString() throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int c;
+        while ((c = nextStringChar()) >= 0)
+            builder.append((char) c);
+        return builder.toString();
+    }
+
+    /**
+     * Reads a json value of any type, stopping in front of the ',' or '}' following it.
+     *
+     * @param keep whether the value is needed, skipped values are not accumulated
+     * @return the value as json if kept, null otherwise
+     */
+    @Nullable
+    private String readValue(boolean keep) throws IOException {
+        StringBuilder builder = keep ? new StringBuilder() : null;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        while (true) {
+            int c = peek();
+            if (c < 0)
+                throw new EOFException("Unexpected end of Template json!");
+            boolean endsValue = false;
+            if (inString) {
+                if (escaped)
+                    escaped = false;
+                else if (c == '\\')
+                    escaped = true;
+                else if (c == '"') {
+                    inString = false;
+                    endsValue = depth == 0;
+                }
+            } else if (c == '"')
+                inString = true;
+            else if (c == '{' || c == '[')
+                depth++;
+            else if (c == '}' || c == ']') {
+                if (depth == 0)
+                    break;
+                endsValue = --depth == 0;
+            } else if (c == ',' && depth == 0)
+                break;
+            next();
+            if (builder != null)
+                builder.append((char) c);
+            if (endsValue)
+                break;
+        }
+        return builder != null ? builder.toString() : null;
+    }
+
+    /**
+     * @return the next unescaped character of a string or -1 at its closing quote
+     */
+    private int nextStringChar() throws IOException {
+        int c = next();
+        if (c < 0)
+            throw new EOFException("Unterminated string in Template json!");
+        if (c == '"')
+            return - 1;
+        if (c != '\\')
+            return c;
+        c = next();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u': {
+                int res = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0)
+                        throw syntaxError("Invalid unicode escape");
+                    res = (res << 4) | digit;
+                }
+                return res;
+            }
+            default:
+                throw syntaxError("Invalid escape sequence");
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        if (nextNonWhitespace() != expected)
+            throw syntaxError("Expected '" + expected + "'");
+    }
+
+    private int peekNonWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) == ' ' || c == '\n' || c == '\r' || c == '\t')
+            next();
+        return c;
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        peekNonWhitespace();
+        return next();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == - 2)
+            peeked = reader.read();
+        return peeked;
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        peeked = - 2;
+        if (c >= 0 && (++ position % CHUNK_SIZE) == 0 && progress != null)
+            progress.accept(position);
+        return c;
+    }
+
+    private MalformedJsonException syntaxError(String message) {
+        return new MalformedJsonException(message + " at character " + position + " of the Template json!");
+    }
+
+    /**
+     * The characters of the body string, fed into the base64 decoder.
+     */
+    private final class BodyInputStream extends InputStream {
+        private boolean ended;
+
+        @Override
+        public int read() throws IOException {
+            if (ended)
+                return - 1;
+            int c = nextStringChar();
+            if (c < 0) {
+                ended = true;
+                return - 1;
+            }
+            return c <= 0x7F ? c : '!'; //never valid base64, let the decoder report it
+        }
+
+        private void skipRemaining() throws IOException {
+            while (read() >= 0) ;
+        }
+    }
+
+    /**
+     * Passes the bytes produced by the base64 encoder to a {@link Writer} as characters, in chunks of {@value CHUNK_SIZE}.
+     * Closing it does not close the {@link Writer}.
+     */
+    private static final class ChunkedCharOutputStream extends OutputStream {
+        private final Writer writer;
+        @Nullable
+        private final LongConsumer progress;
+        private final char[] chunk;
+        private int size;
+        private long written;
+
+        private ChunkedCharOutputStream(Writer writer, @Nullable LongConsumer progress) {
+            this.writer = writer;
+            this.progress = progress;
+            this.chunk = new char[CHUNK_SIZE];
+            this.size = 0;
+            this.written = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == chunk.length)
+                flush();
+            chunk[size++] = (char) (b & 0xFF);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = 0; i < len; i++)
+                write(b[off + i]);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (size == 0)
+                return;
+            writer.write(chunk, 0, size);
+            written += size;
+            size = 0;
+            if (progress != null)
+                progress.accept(written);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
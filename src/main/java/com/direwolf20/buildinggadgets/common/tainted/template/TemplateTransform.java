@@ -0,0 +1,174 @@
+package com.direwolf20.buildinggadgets.common.tainted.template;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.BlockData;
+import com.direwolf20.buildinggadgets.common.tainted.building.Region;
+import com.direwolf20.buildinggadgets.common.util.tools.MathUtils;
+import com.google.common.base.Preconditions;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.Direction.Axis;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.world.level.block.Mirror;
+import net.minecraft.world.level.block.Rotation;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The rotations and mirrors applied to a {@link Template} since its blocks were stored. Positions are transformed by
+ * {@code matrix * pos + offset}, {@link BlockData} by mirroring and then rotating their state. Any sequence of
+ * rotations and mirrors collapses into one such transform, so rotating a template never needs to touch its blocks.
+ * <p>
+ * Block states are only ever rotated around the y-Axis, which means every combination of state mirrors and rotations can
+ * be expressed as an optional {@link Mirror#FRONT_BACK} followed by a {@link Rotation}: {@link Mirror#LEFT_RIGHT} is
+ * {@link Mirror#FRONT_BACK} followed by {@link Rotation#CLOCKWISE_180}, and mirroring after a rotation equals mirroring
+ * before the inverse rotation.
+ */
+public final class TemplateTransform {
+    public static final TemplateTransform IDENTITY = new TemplateTransform(
+            new int[][]{{1, 0, 0}, {0, 1, 0}, {0, 0, 1}}, BlockPos.ZERO, Mirror.NONE, Rotation.NONE);
+
+    public static TemplateTransform fromNBT(IntArrayTag tag) {
+        int[] values = tag.getAsIntArray();
+        Preconditions.checkArgument(values.length == 14, "Expected 14 values for a TemplateTransform, got %s!", values.length);
+        int[][] matrix = new int[3][3];
+        for (int i = 0; i < 9; i++)
+            matrix[i / 3][i % 3] = values[i];
+        return new TemplateTransform(matrix, new BlockPos(values[9], values[10], values[11]),
+                values[12] != 0 ? Mirror.FRONT_BACK : Mirror.NONE, Rotation.values()[Math.floorMod(values[13], Rotation.values().length)]);
+    }
+
+    private final int[][] matrix;
+    private final BlockPos offset;
+    private final Mirror mirror;
+    private final Rotation rotation;
+
+    private TemplateTransform(int[][] matrix, BlockPos offset, Mirror mirror, Rotation rotation) {
+        this.matrix = matrix;
+        this.offset = offset;
+        this.mirror = mirror;
+        this.rotation = rotation;
+    }
+
+    public boolean isIdentity() {
+        return equals(IDENTITY);
+    }
+
+    /**
+     * @return this transform followed by a rotation around the given axis. Like all {@link BlockData} rotations, the
+     * states only follow rotations around the y-Axis.
+     */
+    public TemplateTransform rotate(Axis axis, Rotation rotation) {
+        return new TemplateTransform(multiply(MathUtils.rotationMatrixFor(axis, rotation), matrix), offset, mirror,
+                axis == Axis.Y ? this.rotation.getRotated(rotation) : this.rotation);
+    }
+
+    /**
+     * @return this transform followed by mirroring along the given axis, as {@link Template#mirror(Axis)} defines it
+     */
+    public TemplateTransform mirror(Axis axis) {
+        if (axis == Axis.Y)
+            return this;
+        int[][] flip = IDENTITY.matrix();
+        Rotation rotation;
+        if (axis == Axis.X) {
+            flip[2][2] = - 1;
+            rotation = Rotation.CLOCKWISE_180; //LEFT_RIGHT == FRONT_BACK followed by a half rotation
+        } else {
+            flip[0][0] = - 1;
+            rotation = Rotation.NONE;
+        }
+        return new TemplateTransform(multiply(flip, matrix), offset,
+                mirror == Mirror.NONE ? Mirror.FRONT_BACK : Mirror.NONE,
+                rotation.getRotated(inverse(this.rotation)));
+    }
+
+    /**
+     * @return this transform with the offset chosen such that the given bounds of the stored blocks end up with their minimum at zero
+     */
+    public TemplateTransform normalizedFor(Region storedBounds) {
+        Region transformed = new TemplateTransform(matrix, BlockPos.ZERO, mirror, rotation).apply(storedBounds);
+        return new TemplateTransform(matrix, BlockPos.ZERO.subtract(transformed.getMin()), mirror, rotation);
+    }
+
+    public BlockPos apply(BlockPos pos) {
+        return MathUtils.matrixMul(matrix, pos).offset(offset);
+    }
+
+    public BlockData apply(BlockData data) {
+        if (mirror != Mirror.NONE)
+            data = data.mirror(mirror);
+        return rotation != Rotation.NONE ? data.rotate(rotation) : data;
+    }
+
+    public Region apply(Region region) {
+        return new Region(apply(region.getMin()), apply(region.getMax()));
+    }
+
+    /**
+     * @return the bounds of the stored blocks, given the bounds of the transformed ones
+     */
+    public Region invert(Region region) {
+        return new Region(invert(region.getMin()), invert(region.getMax()));
+    }
+
+    private BlockPos invert(BlockPos pos) {
+        // the matrix only ever contains rotations and reflections, so its transpose is its inverse
+        BlockPos p = pos.subtract(offset);
+        return new BlockPos(
+                p.getX() * matrix[0][0] + p.getY() * matrix[1][0] + p.getZ() * matrix[2][0],
+                p.getX() * matrix[0][1] + p.getY() * matrix[1][1] + p.getZ() * matrix[2][1],
+                p.getX() * matrix[0][2] + p.getY() * matrix[1][2] + p.getZ() * matrix[2][2]);
+    }
+
+    public IntArrayTag toNBT() {
+        int[] values = new int[14];
+        for (int i = 0; i < 9; i++)
+            values[i] = matrix[i / 3][i % 3];
+        values[9] = offset.getX();
+        values[10] = offset.getY();
+        values[11] = offset.getZ();
+        values[12] = mirror != Mirror.NONE ? 1 : 0;
+        values[13] = rotation.ordinal();
+        return new IntArrayTag(values);
+    }
+
+    private int[][] matrix() {
+        int[][] copy = new int[3][];
+        for (int i = 0; i < 3; i++)
+            copy[i] = matrix[i].clone();
+        return copy;
+    }
+
+    private static int[][] multiply(int[][] a, int[][] b) {
+        int[][] res = new int[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++)
+                res[i][j] = a[i][0] * b[0][j] + a[i][1] * b[1][j] + a[i][2] * b[2][j];
+        }
+        return res;
+    }
+
+    private static Rotation inverse(Rotation rotation) {
+        switch (rotation) {
+            case CLOCKWISE_90:
+                return Rotation.COUNTERCLOCKWISE_90;
+            case COUNTERCLOCKWISE_90:
+                return Rotation.CLOCKWISE_90;
+            default:
+                return rotation;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (! (o instanceof TemplateTransform)) return false;
+        TemplateTransform other = (TemplateTransform) o;
+        return Arrays.deepEquals(matrix, other.matrix) && offset.equals(other.offset) && mirror == other.mirror && rotation == other.rotation;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(Arrays.deepHashCode(matrix), offset, mirror, rotation);
+    }
+}
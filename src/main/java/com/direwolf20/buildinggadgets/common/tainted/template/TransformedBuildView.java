@@ -0,0 +1,65 @@
+package com.direwolf20.buildinggadgets.common.tainted.template;
+
+import com.direwolf20.buildinggadgets.common.tainted.building.PlacementTarget;
+import com.direwolf20.buildinggadgets.common.tainted.building.Region;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.BuildContext;
+import com.direwolf20.buildinggadgets.common.tainted.building.view.IBuildView;
+import com.direwolf20.buildinggadgets.common.util.spliterator.MappingSpliterator;
+import net.minecraft.core.BlockPos;
+
+import java.util.Spliterator;
+
+/**
+ * An {@link IBuildView} applying a {@link TemplateTransform} to the {@link PlacementTarget PlacementTargets} of the view of
+ * the stored blocks while it is iterated.
+ */
+final class TransformedBuildView implements IBuildView {
+    private final IBuildView stored;
+    private final TemplateTransform transform;
+    private Region boundingBox;
+    private BlockPos translation;
+
+    TransformedBuildView(IBuildView stored, TemplateTransform transform, Region boundingBox) {
+        this.stored = stored;
+        this.transform = transform;
+        this.boundingBox = boundingBox;
+        this.translation = BlockPos.ZERO;
+    }
+
+    @Override
+    public Spliterator<PlacementTarget> spliterator() {
+        BlockPos translation = this.translation;
+        return new MappingSpliterator<>(stored.spliterator(), t -> new PlacementTarget(
+                transform.apply(t.getPos()).offset(translation),
+                transform.apply(t.getData())));
+    }
+
+    @Override
+    public TransformedBuildView translateTo(BlockPos pos) {
+        boundingBox = boundingBox.translate(pos.subtract(translation));
+        this.translation = pos;
+        return this;
+    }
+
+    @Override
+    public int estimateSize() {
+        return stored.estimateSize();
+    }
+
+    @Override
+    public TransformedBuildView copy() {
+        TransformedBuildView copy = new TransformedBuildView(stored.copy(), transform, boundingBox);
+        copy.translation = translation;
+        return copy;
+    }
+
+    @Override
+    public Region getBoundingBox() {
+        return boundingBox;
+    }
+
+    @Override
+    public BuildContext getContext() {
+        return stored.getContext();
+    }
+}
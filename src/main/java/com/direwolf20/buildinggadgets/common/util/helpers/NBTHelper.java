@@ -3,11 +3,16 @@ package com.direwolf20.buildinggadgets.common.util.helpers;
 import com.direwolf20.buildinggadgets.common.tainted.Tainted;
 import com.direwolf20.buildinggadgets.common.util.ref.NBTKeys;
 import com.google.common.collect.Multiset;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.util.Tuple;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.BinaryOperator;
@@ -89,6 +94,19 @@ public class NBTHelper {
         return toAppendTo;
     }
 
+    /**
+     * @return the amount of bytes the given tag occupies when written uncompressed
+     */
+    public static long sizeOf(CompoundTag tag) {
+        CountingOutputStream counter = new CountingOutputStream(ByteStreams.nullOutputStream());
+        try (DataOutputStream out = new DataOutputStream(counter)) {
+            tag.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return counter.getCount();
+    }
+
     public static <T extends Tag> Collector<T, ListTag, ListTag> toListNBT() {
         return new Collector<T, ListTag, ListTag>() {
             @Override
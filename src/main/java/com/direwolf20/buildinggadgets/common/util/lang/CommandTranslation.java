@@ -14,7 +14,26 @@ public enum CommandTranslation implements ITranslationProvider {
     OVERRIDE_COPY_SIZE_LIST("override_copy_size.list", 2),
     OVERRIDE_BUILD_SIZE_NO_PLAYER("override_build_size.no_player", 0),
     OVERRIDE_BUILD_SIZE_TOGGLED("override_build_size.toggled", 2),
-    OVERRIDE_BUILD_SIZE_LIST("override_build_size.list", 2);
+    OVERRIDE_BUILD_SIZE_LIST("override_build_size.list", 2),
+    JOBS_NONE("jobs.none", 0),
+    JOBS_LIST("jobs.list", 4),
+    JOBS_NOT_FOUND("jobs.not_found", 1),
+    JOBS_PAUSED("jobs.paused", 2),
+    JOBS_CANCELLED("jobs.cancelled", 1),
+    TEMPLATE_STORAGE_STATISTICS("template_storage.statistics", 5),
+    DATA_EXPIRED("data_expiry.expired", 4),
+    DATA_EXPIRY_DISABLED("data_expiry.disabled", 0),
+    COMPRESSION_BENCHMARK_STARTED("compression_benchmark.started", 2),
+    COMPRESSION_BENCHMARK_RESULT("compression_benchmark.result", 4),
+    COMPRESSION_BENCHMARK_FAILED("compression_benchmark.failed", 0),
+    COMPRESSION_BENCHMARK_NO_SAMPLES("compression_benchmark.no_samples", 0),
+    SPLIT_BENCHMARK_RESULT("split_benchmark.result", 8),
+    SPLIT_BENCHMARK_FAILED("split_benchmark.failed", 0),
+    PLACEMENT_ORDER_BENCHMARK_RESULT("placement_order_benchmark.result", 9),
+    PLACEMENT_ORDER_BENCHMARK_FAILED("placement_order_benchmark.failed", 0),
+    PLACEMENT_ORDER_BENCHMARK_UNLOADED("placement_order_benchmark.unloaded", 1),
+    TEMPLATE_DELIVERY_NONE("template_delivery.none", 0),
+    TEMPLATE_DELIVERY_STATISTICS("template_delivery.statistics", 7);
     private static final String PREFIX = Reference.MODID + ".commands.";
     private final String key;
     private final int argCount;
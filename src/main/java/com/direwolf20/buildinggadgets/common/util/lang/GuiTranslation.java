@@ -23,13 +23,17 @@ public enum GuiTranslation implements ITranslationProvider {
     BUTTON_PASTE("tm.button.paste"),
     TEMPLATE_NAME_TIP("tm.name_field.text"),
     TEMPLATE_PLACEHOLDER("tm.field.placeholder"),
+    TEMPLATE_MATERIALS_PENDING("tm.materials.pending"),
+    TEMPLATE_TRANSFER_PROGRESS("tm.transfer.progress", 1),
 
     COPY_BUTTON_ABSOLUTE("copy.button.absolute"),
     COPY_LABEL_HEADING("copy.label.heading"),
     COPY_LABEL_SUBHEADING("copy.label.subheading"),
 
     FIELD_START("field.start"),
-    FIELD_END("field.end");
+    FIELD_END("field.end"),
+
+    JOB_PROGRESS("job.progress", 3);
 
     private static final String PREFIX = "gui." + Reference.MODID + ".";
     private final String key;
@@ -40,6 +44,11 @@ public enum GuiTranslation implements ITranslationProvider {
         this.argCount = 0;
     }
 
+    GuiTranslation(@Nonnull String key, int argCount) {
+        this.key = PREFIX + key;
+        this.argCount = argCount;
+    }
+
     @Override
     public boolean areValidArguments(Object... args) {
         return args.length == argCount;
@@ -24,12 +24,18 @@ public enum MessageTranslation implements ITranslationProvider {
     COPY_UNLOADED("copy_unloaded", 1),
     COPY_TOO_LARGE("copy_too_large", 6),
     DESTRCUT_TOO_LARGE("destroy_size_too_large"),
+    FILE_EXPORT_SUCCESS("export_file_success", 1),
+    FILE_EXPORT_ERROR("export_file_failed", 0),
+    FILE_IMPORT_MISSING("import_file_missing", 1),
+    FILE_IMPORT_SUCCESS("import_file_success", 1),
     FIRST_COPY("first_copy"),
     FUZZY_MODE("fuzzy_mode", 1),
     GADGET_BUSY("gadget_busy"),
     INVALID_BLOCK("invalid_block", 1),
+    JOB_CANCELLED("job_cancelled", 2),
     MIRRORED("mirrored"),
     MODE_SET("tool_mode", 1),
+    NOTHING_TO_CANCEL("nothing_to_cancel"),
     NOTHING_TO_UNDO("nothing_to_undo"),
     PASTE_FAILED("paste_failed", 0),
     PASTE_FAILED_LINK_COPIED("paste_failed.link_copied", 0),
@@ -38,6 +44,7 @@ public enum MessageTranslation implements ITranslationProvider {
     PASTE_FAILED_CORRUPT_JSON("paste_failed.corrupt_json", 0),
     PASTE_FAILED_INVALID_JSON("paste_failed.invalid_json", 0),
     PASTE_FAILED_CORRUPT_BODY("paste_failed.corrupt_body", 0),
+    PASTE_FAILED_SCREEN_CLOSED("paste_failed.screen_closed", 0),
     PASTE_SUCCESS("paste_success", 0),
     PLACE_ATOP("place.atop"),
     PLACE_INSIDE("place.inside"),
@@ -27,6 +27,7 @@ public enum TooltipTranslation implements ITranslationProvider {
     DONOTUSE_TEXT("donotuse", 0),
     TEMPLATE_NAME("template.name", 1),
     TEMPLATE_AUTHOR("template.author", 1),
+    TEMPLATE_MATERIALS_PENDING("template.materials_pending", 0),
     CHARGER_ENERGY("charger.energy", 1),
     CHARGER_BURN("charger.burn_time", 1),
     CHARGER_EMPTY("charger.fuel_empty", 0);
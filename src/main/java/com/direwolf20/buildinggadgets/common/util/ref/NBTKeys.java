@@ -7,14 +7,18 @@ import static com.direwolf20.buildinggadgets.common.util.ref.Reference.MODID;
 public final class NBTKeys {
     public static final ResourceLocation AND_SERIALIZER_ID = new ResourceLocation(MODID, "sub_entries");
     public static final String KEY_AUTHOR = "author";
+    public static final String KEY_BODIES = "bodies";
     public static final String KEY_BOUNDS = "bounds";
     public static final String KEY_CAP_COMPARISON = "cap_comp";
     public static final String KEY_CAP_NBT = "cap_data";
     public static final String KEY_COUNT = "count";
     public static final String KEY_DATA = "data";
     public static final String KEY_DATA_COMPARISON = "data_comp";
+    public static final String KEY_HASH = "hash";
     public static final String KEY_HEADER = "header";
     public static final String KEY_ID = "id";
+    public static final String KEY_INDEX = "index";
+    public static final String KEY_INDICES = "indices";
     public static final String KEY_MATERIALS = "materials";
     public static final String KEY_MAX_X = "maxX";
     public static final String KEY_MAX_Y = "maxY";
@@ -23,10 +27,17 @@ public final class NBTKeys {
     public static final String KEY_MIN_Y = "minY";
     public static final String KEY_MIN_Z = "minZ";
     public static final String KEY_NAME = "name";
+    public static final String KEY_OCCUPANCY = "occupancy";
+    public static final String KEY_ORIGIN = "origin";
+    public static final String KEY_PALETTE = "palette";
     public static final String KEY_POS = "pos";
     public static final String KEY_SERIALIZER = "serializer";
+    public static final String KEY_SIZE = "size";
     public static final String KEY_STATE = "state";
     public static final String KEY_SUB_ENTRIES = "sub_entries";
+    public static final String KEY_TILES = "tiles";
+    public static final String KEY_TRANSFORM = "transform";
+    public static final String KEY_VERSION = "version";
     public static final ResourceLocation OR_SERIALIZER_ID = new ResourceLocation(MODID, "alternatives");
     public static final ResourceLocation SIMPLE_SERIALIZER_ID = new ResourceLocation(MODID, "entries");
     private NBTKeys() {}
@@ -26,6 +26,8 @@ public final class Reference {
         public static final String UNDO_COPY_PASTE = MODID + "_undo_copy_paste";
         public static final String UNDO_DESTRUCTION = MODID + "_undo_destruction";
         public static final String UNDO_EXCHANGING = MODID + "_undo_exchanging";
+        public static final String JOB_CHECKPOINTS = MODID + "_job_checkpoints";
+        public static final String ACCESS_TIMES_SUFFIX = "_access_times";
     }
 
     public static final class ItemReference {
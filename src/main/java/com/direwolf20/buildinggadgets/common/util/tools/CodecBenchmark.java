@@ -0,0 +1,99 @@
+package com.direwolf20.buildinggadgets.common.util.tools;
+
+import com.google.common.collect.ImmutableList;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the compression ratio and throughput of all {@link NbtCodec NbtCodecs} on the given samples, which should be
+ * real templates or undos. Every codec compresses and decompresses all samples once to warm up and then {@value ROUNDS}
+ * more times for the measurement.
+ */
+public final class CodecBenchmark {
+    private static final int ROUNDS = 3;
+
+    private CodecBenchmark() {}
+
+    public static List<Result> run(List<CompoundTag> samples) throws IOException {
+        List<byte[]> raw = new ArrayList<>(samples.size());
+        for (CompoundTag sample : samples) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            NbtIo.write(sample, new DataOutputStream(stream));
+            raw.add(stream.toByteArray());
+        }
+        ImmutableList.Builder<Result> results = ImmutableList.builder();
+        for (NbtCodec codec : NbtCodec.values()) {
+            measure(codec, raw, 1);
+            results.add(measure(codec, raw, ROUNDS));
+        }
+        return results.build();
+    }
+
+    private static Result measure(NbtCodec codec, List<byte[]> samples, int rounds) throws IOException {
+        long rawBytes = 0;
+        long compressedBytes = 0;
+        long compressNanos = 0;
+        long decompressNanos = 0;
+        for (int round = 0; round < rounds; round++) {
+            for (byte[] sample : samples) {
+                long start = System.nanoTime();
+                byte[] compressed = codec.compress(sample);
+                long compressedAt = System.nanoTime();
+                codec.decompress(compressed, sample.length);
+                decompressNanos += System.nanoTime() - compressedAt;
+                compressNanos += compressedAt - start;
+                rawBytes += sample.length;
+                compressedBytes += compressed.length;
+            }
+        }
+        return new Result(codec, rawBytes, compressedBytes, compressNanos, decompressNanos);
+    }
+
+    public static final class Result {
+        private final NbtCodec codec;
+        private final long rawBytes;
+        private final long compressedBytes;
+        private final long compressNanos;
+        private final long decompressNanos;
+
+        private Result(NbtCodec codec, long rawBytes, long compressedBytes, long compressNanos, long decompressNanos) {
+            this.codec = codec;
+            this.rawBytes = rawBytes;
+            this.compressedBytes = compressedBytes;
+            this.compressNanos = compressNanos;
+            this.decompressNanos = decompressNanos;
+        }
+
+        public NbtCodec getCodec() {
+            return codec;
+        }
+
+        public double getRatio() {
+            return compressedBytes > 0 ? (double) rawBytes / compressedBytes : 1;
+        }
+
+        /**
+         * @return the uncompressed MiB compressed per second
+         */
+        public double getCompressThroughput() {
+            return throughput(compressNanos);
+        }
+
+        /**
+         * @return the uncompressed MiB produced by decompressing per second
+         */
+        public double getDecompressThroughput() {
+            return throughput(decompressNanos);
+        }
+
+        private double throughput(long nanos) {
+            return nanos > 0 ? rawBytes / (1024d * 1024d) / (nanos / 1e9) : 0;
+        }
+    }
+}
@@ -19,7 +19,8 @@ public final class MathUtils {
 
     /**
      * Converts the BlockPos to a long. Under the assumption, that it is non-negative and does not exceed [0, 255] for the y Coordinate
-     * and [0, 65536] for x and z‬ Coordinates.
+     * and [0, 65536] for x and z‬ Coordinates. This is the encoding of the original Template format, which is only read
+     * anymore - see SparseTemplateFormat for its replacement.
      * @param pos   BlockPos
      *
      * @return BlockPos to a long
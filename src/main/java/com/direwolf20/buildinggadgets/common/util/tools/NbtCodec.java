@@ -0,0 +1,146 @@
+package com.direwolf20.buildinggadgets.common.util.tools;
+
+import com.google.common.io.ByteStreams;
+import io.airlift.compress.Compressor;
+import io.airlift.compress.Decompressor;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The compression used to write {@link CompoundTag CompoundTags} to files and packets. {@link #GZIP} writes exactly what
+ * {@link NbtIo#writeCompressed(CompoundTag, OutputStream)} writes, all other codecs prefix their data with a magic header
+ * followed by the codec id and the uncompressed length. {@link #read(InputStream)} detects the codec from that header,
+ * so everything written before codecs existed still reads as {@link #GZIP}.
+ * <p>
+ * {@link #LZ4} and {@link #ZSTD} use the pure Java implementations of aircompressor, which is bundled with the mod.
+ */
+public enum NbtCodec {
+    GZIP(null, null, 0),
+    // a match of up to 255 bytes per length byte
+    LZ4(Lz4Compressor::new, Lz4Decompressor::new, 255),
+    // a RLE block of up to 128 KiB in 4 bytes
+    ZSTD(ZstdCompressor::new, ZstdDecompressor::new, 32 * 1024);
+
+    // can never be confused with the start of a gzip stream (0x1F 0x8B)
+    private static final byte[] MAGIC = {'B', 'G', 'C'};
+    // refuse to allocate absurd buffers for corrupt or malicious headers
+    private static final int MAX_LENGTH = 512 * 1024 * 1024;
+    // allowed independent of the compressed size, so that tiny inputs never hit the ratio limit
+    private static final int MIN_LENGTH_LIMIT = 64 * 1024;
+
+    private final Supplier<Compressor> compressor;
+    private final Supplier<Decompressor> decompressor;
+    private final int maxRatio;
+
+    NbtCodec(Supplier<Compressor> compressor, Supplier<Decompressor> decompressor, int maxRatio) {
+        this.compressor = compressor;
+        this.decompressor = decompressor;
+        this.maxRatio = maxRatio;
+    }
+
+    /**
+     * Streams from untrusted sources (such as templates uploaded by clients) may claim any uncompressed length in their
+     * header. As the buffer for the uncompressed data is allocated before decompressing, the claimed length must not
+     * exceed what the compressed data can possibly expand to.
+     */
+    private int maxLength(int compressedLength) {
+        return (int) Math.min(MAX_LENGTH, MIN_LENGTH_LIMIT + (long) compressedLength * maxRatio);
+    }
+
+    public static CompoundTag read(InputStream stream) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(stream);
+        in.mark(MAGIC.length);
+        byte[] magic = new byte[MAGIC.length];
+        if (ByteStreams.read(in, magic, 0, magic.length) < magic.length || ! Arrays.equals(magic, MAGIC)) {
+            in.reset();
+            return NbtIo.readCompressed(in);
+        }
+        DataInputStream data = new DataInputStream(in);
+        int id = data.readUnsignedByte();
+        if (id <= GZIP.ordinal() || id >= values().length)
+            throw new IOException("Unknown compression codec " + id + "!");
+        NbtCodec codec = values()[id];
+        int length = data.readInt();
+        if (length < 0 || length > MAX_LENGTH)
+            throw new IOException("Invalid uncompressed length " + length + "!");
+        byte[] compressed = ByteStreams.toByteArray(data);
+        if (length > codec.maxLength(compressed.length))
+            throw new IOException("Uncompressed length " + length + " exceeds what " + compressed.length + " bytes of " + codec + " data can expand to!");
+        byte[] raw = codec.decompress(compressed, length);
+        return NbtIo.read(new DataInputStream(new ByteArrayInputStream(raw)));
+    }
+
+    public static CompoundTag read(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            return read(stream);
+        }
+    }
+
+    public void write(CompoundTag tag, OutputStream stream) throws IOException {
+        if (this == GZIP) {
+            NbtIo.writeCompressed(tag, stream);
+            return;
+        }
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        NbtIo.write(tag, new DataOutputStream(raw));
+        byte[] compressed = compress(raw.toByteArray());
+        DataOutputStream out = new DataOutputStream(stream);
+        out.write(MAGIC);
+        out.writeByte(ordinal());
+        out.writeInt(raw.size());
+        out.write(compressed);
+        out.flush();
+    }
+
+    public void write(CompoundTag tag, Path file) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(Files.newOutputStream(file))) {
+            write(tag, stream);
+        }
+    }
+
+    /**
+     * Compresses the given bytes without any header.
+     */
+    byte[] compress(byte[] raw) throws IOException {
+        if (this == GZIP) {
+            ByteArrayOutputStream res = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(res)) {
+                out.write(raw);
+            }
+            return res.toByteArray();
+        }
+        Compressor compressor = this.compressor.get();
+        byte[] res = new byte[compressor.maxCompressedLength(raw.length)];
+        int length = compressor.compress(raw, 0, raw.length, res, 0, res.length);
+        return Arrays.copyOf(res, length);
+    }
+
+    byte[] decompress(byte[] compressed, int length) throws IOException {
+        if (this == GZIP) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                return ByteStreams.toByteArray(in);
+            }
+        }
+        byte[] res = new byte[length];
+        try {
+            int read = decompressor.get().decompress(compressed, 0, compressed.length, res, 0, res.length);
+            if (read != length)
+                throw new IOException("Expected " + length + " uncompressed bytes, got " + read + "!");
+        } catch (RuntimeException e) { //aircompressor reports corrupt input with unchecked exceptions
+            throw new IOException("Failed to decompress " + this + " data!", e);
+        }
+        return res;
+    }
+}